@@ -0,0 +1,116 @@
+package com.opower.persistence.jpile.infile;
+
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import com.google.common.base.Charsets;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to append one value of each type to a row. Every invocation appends a row of {@link #VALUES_PER_ROW} values and
+ * adds it to the infile buffer, which is cleared whenever it is full.
+ *
+ * @author s-m
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@OperationsPerInvocation(InfileDataBufferBenchmark.VALUES_PER_ROW)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InfileDataBufferBenchmark {
+    static final int VALUES_PER_ROW = 10;
+
+    private InfileDataBuffer buffer;
+    private String ascii = "Title of an awesome product";
+    private String escaped = "Tabs\tand\nnewlines\\";
+    private String multiByte = "Café naïve 日本";
+    private BigDecimal decimal = BigDecimal.valueOf(123456, 2);
+    private Date date = new Date(1325376000000L);
+
+    @Setup
+    public void setUp() {
+        buffer = new InfileDataBuffer(Charsets.UTF_8);
+    }
+
+    @Benchmark
+    public void appendAsciiString() {
+        InfileRow row = buffer.newRow();
+        for(int i = 0; i < VALUES_PER_ROW; i++) {
+            row.append(ascii);
+        }
+        addRow();
+    }
+
+    @Benchmark
+    public void appendEscapedString() {
+        InfileRow row = buffer.newRow();
+        for(int i = 0; i < VALUES_PER_ROW; i++) {
+            row.append(escaped);
+        }
+        addRow();
+    }
+
+    @Benchmark
+    public void appendMultiByteString() {
+        InfileRow row = buffer.newRow();
+        for(int i = 0; i < VALUES_PER_ROW; i++) {
+            row.append(multiByte);
+        }
+        addRow();
+    }
+
+    @Benchmark
+    public void appendLong() {
+        InfileRow row = buffer.newRow();
+        for(int i = 0; i < VALUES_PER_ROW; i++) {
+            row.appendLong(1234567890123L + i);
+        }
+        addRow();
+    }
+
+    @Benchmark
+    public void appendDecimal() {
+        InfileRow row = buffer.newRow();
+        for(int i = 0; i < VALUES_PER_ROW; i++) {
+            row.appendDecimal(decimal);
+        }
+        addRow();
+    }
+
+    @Benchmark
+    public void appendDate() {
+        InfileRow row = buffer.newRow();
+        for(int i = 0; i < VALUES_PER_ROW; i++) {
+            row.append(date);
+        }
+        addRow();
+    }
+
+    @Benchmark
+    public void appendNull() {
+        InfileRow row = buffer.newRow();
+        for(int i = 0; i < VALUES_PER_ROW; i++) {
+            row.appendNull();
+        }
+        addRow();
+    }
+
+    private void addRow() {
+        if(!buffer.addRowToInfile()) {
+            buffer.clear();
+            buffer.addRowToInfile();
+        }
+    }
+}
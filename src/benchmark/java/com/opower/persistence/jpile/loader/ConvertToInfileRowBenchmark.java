@@ -0,0 +1,81 @@
+package com.opower.persistence.jpile.loader;
+
+import java.util.concurrent.TimeUnit;
+import com.google.common.base.Charsets;
+import com.opower.persistence.jpile.infile.InfileDataBuffer;
+import com.opower.persistence.jpile.reflection.CacheablePersistenceAnnotationInspector;
+import com.opower.persistence.jpile.sample.Contact;
+import com.opower.persistence.jpile.sample.Customer;
+import com.opower.persistence.jpile.sample.Product;
+import com.opower.persistence.jpile.sample.WorkloadGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to encode one entity of the sample model into an infile row, through the accessors and column writers of its
+ * loader. Ids are set up front, so no id is generated while measuring.
+ *
+ * @author amir.raminfar
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConvertToInfileRowBenchmark {
+    private InfileDataBuffer buffer;
+    private SingleInfileObjectLoader<Customer> customerLoader;
+    private SingleInfileObjectLoader<Product> productLoader;
+    private SingleInfileObjectLoader<Contact> contactLoader;
+    private Customer customer;
+    private Product product;
+    private Contact contact;
+
+    @Setup
+    public void setUp() {
+        buffer = new InfileDataBuffer(Charsets.UTF_8);
+        customerLoader = newLoader(Customer.class);
+        productLoader = newLoader(Product.class);
+        contactLoader = newLoader(Contact.class);
+
+        customer = new WorkloadGenerator(1).newCustomer();
+        customer.setId(1L);
+        product = customer.getProducts().get(0);
+        product.setId(1L);
+        contact = customer.getContact();
+        contact.setId(1L);
+    }
+
+    @Benchmark
+    public void convertCustomer() {
+        customerLoader.convertToInfileRow(customer, buffer.newRow());
+    }
+
+    @Benchmark
+    public void convertProduct() {
+        productLoader.convertToInfileRow(product, buffer.newRow());
+    }
+
+    @Benchmark
+    public void convertContact() {
+        contactLoader.convertToInfileRow(contact, buffer.newRow());
+    }
+
+    private <E> SingleInfileObjectLoader<E> newLoader(Class<E> aClass) {
+        return new SingleInfileObjectLoaderBuilder<E>(aClass)
+                .withDefaultTableName()
+                .withJdbcTemplate(new LoopbackJdbcTemplate())
+                .usingHibernateBeanUtils(new CacheablePersistenceAnnotationInspector())
+                .withBuffer(buffer)
+                .build();
+    }
+}
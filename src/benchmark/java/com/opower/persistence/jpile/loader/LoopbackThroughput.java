@@ -0,0 +1,78 @@
+package com.opower.persistence.jpile.loader;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import com.opower.persistence.jpile.sample.Customer;
+import com.opower.persistence.jpile.sample.WorkloadGenerator;
+
+/**
+ * Measures end to end throughput without a database: customers from a {@link WorkloadGenerator} are persisted into a
+ * {@link LoopbackJdbcTemplate}, which checks and counts every row. Prints rows per second, megabytes per second and
+ * bytes allocated per row, so that builds can be compared on any machine.
+ * <p>
+ * Arguments, all optional, in order: customers per run (default 100000), runs (default 5, the first of which is a
+ * warm up), products per customer (default 4), string length (default 24) and the fraction of string characters that
+ * need escaping (default 0). Run with <code>mvn -P benchmark test-compile exec:exec
+ * -Dbenchmark.main=com.opower.persistence.jpile.loader.LoopbackThroughput -Dbenchmark.args="100000 5"</code>.
+ *
+ * @author s-m
+ */
+public class LoopbackThroughput {
+    private static final double BYTES_PER_MEGABYTE = 1024 * 1024;
+
+    public static void main(String[] args) {
+        int customerCount = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        WorkloadGenerator generator = new WorkloadGenerator(1)
+                .withProductsPerCustomer(args.length > 2 ? Integer.parseInt(args[2]) : 4)
+                .withStringLength(args.length > 3 ? Integer.parseInt(args[3]) : 24)
+                .withSpecialCharacterRatio(args.length > 4 ? Double.parseDouble(args[4]) : 0);
+
+        System.out.printf("%-6s %12s %12s %10s %14s%n", "run", "rows", "rows/s", "MB/s", "bytes/row");
+        for(int run = 0; run < runs; run++) {
+            List<Customer> customers = generator.newCustomers(customerCount);
+            HierarchicalInfileObjectLoader objectLoader = new HierarchicalInfileObjectLoader();
+            objectLoader.setIdAllocator(new LocalIdAllocator());
+            LoopbackJdbcTemplate jdbcTemplate = new LoopbackJdbcTemplate();
+            objectLoader.setJdbcTemplate(jdbcTemplate);
+
+            long allocatedBefore = allocatedBytes();
+            long start = System.nanoTime();
+            for(Customer customer : customers) {
+                objectLoader.persist(customer);
+            }
+            objectLoader.close();
+            long elapsed = System.nanoTime() - start;
+            long allocated = allocatedBefore < 0 ? -1 : allocatedBytes() - allocatedBefore;
+
+            long rows = jdbcTemplate.getRows();
+            double seconds = elapsed / (double) TimeUnit.SECONDS.toNanos(1);
+            System.out.printf("%-6s %12d %12.0f %10.1f %14s%n",
+                              run == 0 ? "warmup" : String.valueOf(run),
+                              rows,
+                              rows / seconds,
+                              jdbcTemplate.getBytes() / BYTES_PER_MEGABYTE / seconds,
+                              allocated < 0 ? "n/a" : String.format("%.0f", allocated / (double) rows));
+            if(rows != (long) customerCount * generator.getRowsPerCustomer()) {
+                throw new IllegalStateException("Expected " + customerCount * generator.getRowsPerCustomer()
+                                                + " rows but " + rows + " were loaded");
+            }
+        }
+    }
+
+    /**
+     * @return bytes allocated by the current thread so far, or -1 if the JVM cannot tell
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if(threadMXBean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunThreadMXBean = (com.sun.management.ThreadMXBean) threadMXBean;
+            if(sunThreadMXBean.isThreadAllocatedMemorySupported() && sunThreadMXBean.isThreadAllocatedMemoryEnabled()) {
+                return sunThreadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,71 @@
+package com.opower.persistence.jpile.loader;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import com.opower.persistence.jpile.sample.Customer;
+import com.opower.persistence.jpile.sample.WorkloadGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to persist one customer graph end to end: walking the graph, generating ids, encoding every row and loading full
+ * buffers into a {@link LoopbackJdbcTemplate}. The customers are built before measuring and persisted again and
+ * again, since persisting only reads them and sets their ids.
+ *
+ * @author amir.raminfar
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PersistBenchmark {
+    private static final int CUSTOMERS = 1024;
+
+    @Param({"1", "4", "16"})
+    private int productsPerCustomer;
+
+    private List<Customer> customers;
+    private int next;
+    private HierarchicalInfileObjectLoader objectLoader;
+
+    @Setup(Level.Trial)
+    public void generateCustomers() {
+        customers = new WorkloadGenerator(1).withProductsPerCustomer(productsPerCustomer).newCustomers(CUSTOMERS);
+    }
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        objectLoader = new HierarchicalInfileObjectLoader();
+        objectLoader.setIdAllocator(new LocalIdAllocator());
+        objectLoader.setJdbcTemplate(new LoopbackJdbcTemplate());
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        objectLoader.close();
+    }
+
+    @Benchmark
+    public void persistCustomer() {
+        Customer customer = customers.get(next);
+        next = (next + 1) % CUSTOMERS;
+        customer.setId(null);
+        for(int i = 0; i < customer.getProducts().size(); i++) {
+            customer.getProducts().get(i).setId(null);
+        }
+        objectLoader.persist(customer);
+    }
+}
@@ -0,0 +1,75 @@
+package com.opower.persistence.jpile.loader;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import com.opower.persistence.jpile.factory.HierarchicalInfileObjectLoaderFactory;
+import com.opower.persistence.jpile.factory.PooledHierarchicalInfileObjectLoaderFactory;
+import com.opower.persistence.jpile.factory.SimpleHierarchicalInfileObjectLoaderFactory;
+import com.opower.persistence.jpile.sample.Customer;
+import com.opower.persistence.jpile.sample.WorkloadGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to run one small job: get a loader from a factory, persist a few customers into a {@link LoopbackJdbcTemplate}
+ * and close the loader. Compares a new loader per job with loaders reused through
+ * {@link PooledHierarchicalInfileObjectLoaderFactory}.
+ *
+ * @author s-m
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SmallJobsBenchmark {
+    private static final int CUSTOMERS_PER_JOB = 16;
+
+    @Param({"false", "true"})
+    private boolean pooled;
+
+    private List<Customer> customers;
+    private HierarchicalInfileObjectLoaderFactory factory;
+
+    @Setup
+    public void setUp() {
+        customers = new WorkloadGenerator(1).newCustomers(CUSTOMERS_PER_JOB);
+        factory = pooled
+                  ? new PooledHierarchicalInfileObjectLoaderFactory(new LocalIdAllocator(), 1)
+                  : new SimpleHierarchicalInfileObjectLoaderFactory();
+    }
+
+    @Benchmark
+    public long runJob() {
+        LoopbackJdbcTemplate jdbcTemplate = new LoopbackJdbcTemplate();
+        HierarchicalInfileObjectLoader objectLoader = factory.getHierarchicalInfileObjectLoader();
+        if(!pooled) {
+            objectLoader.setIdAllocator(new LocalIdAllocator());
+        }
+        objectLoader.setJdbcTemplate(jdbcTemplate);
+        for(Customer customer : customers) {
+            customer.setId(null);
+            for(int i = 0; i < customer.getProducts().size(); i++) {
+                customer.getProducts().get(i).setId(null);
+            }
+            objectLoader.persist(customer);
+        }
+        if(pooled) {
+            ((PooledHierarchicalInfileObjectLoaderFactory) factory).release(objectLoader);
+        }
+        else {
+            objectLoader.close();
+        }
+        return jdbcTemplate.getRows();
+    }
+}
@@ -0,0 +1,43 @@
+package com.opower.persistence.jpile.loader;
+
+import java.lang.management.ManagementFactory;
+import com.opower.persistence.jpile.sample.Customer;
+import com.opower.persistence.jpile.sample.WorkloadGenerator;
+
+/**
+ * Measures how long a fresh JVM takes to load its first row: a loader is created, one customer is persisted and
+ * flushed into a {@link LoopbackJdbcTemplate}. Prints the time since the JVM started and since this class started
+ * running, so it has to be run in a JVM of its own: <code>mvn -P benchmark test-compile exec:exec
+ * -Dbenchmark.main=com.opower.persistence.jpile.loader.TimeToFirstRow -Dbenchmark.args=</code>. With
+ * <code>-Dbenchmark.args=prepare</code> the loaders are prepared first, and the time the first customer takes to
+ * persist is printed as well.
+ *
+ * @author s-m
+ */
+public class TimeToFirstRow {
+
+    public static void main(String[] args) {
+        long mainStart = System.currentTimeMillis();
+        LoopbackJdbcTemplate jdbcTemplate = new LoopbackJdbcTemplate();
+        HierarchicalInfileObjectLoader objectLoader = new HierarchicalInfileObjectLoader();
+        objectLoader.setIdAllocator(new LocalIdAllocator());
+        objectLoader.setJdbcTemplate(jdbcTemplate);
+        Customer customer = new WorkloadGenerator(1).newCustomer();
+        if(args.length > 0 && args[0].equals("prepare")) {
+            objectLoader.prepare(Customer.class);
+            System.out.printf("Prepared in %d ms%n", System.currentTimeMillis() - mainStart);
+        }
+        long persistStart = System.nanoTime();
+        objectLoader.persist(customer);
+        System.out.printf("First customer persisted in %.2f ms%n", (System.nanoTime() - persistStart) / 1e6);
+        objectLoader.flush();
+        long firstRow = System.currentTimeMillis();
+        objectLoader.close();
+        if(jdbcTemplate.getRows() == 0) {
+            throw new IllegalStateException("No rows were loaded");
+        }
+        System.out.printf("Time to first row: %d ms since JVM start, %d ms since main%n",
+                          firstRow - ManagementFactory.getRuntimeMXBean().getStartTime(),
+                          firstRow - mainStart);
+    }
+}
@@ -1,5 +1,7 @@
 package com.opower.persistence.jpile.config;
 
+import com.opower.persistence.jpile.factory.HierarchicalInfileObjectLoaderFactory;
+import com.opower.persistence.jpile.factory.SimpleHierarchicalInfileObjectLoaderFactory;
 import com.opower.persistence.jpile.reflection.CacheablePersistenceAnnotationInspector;
 import com.opower.persistence.jpile.reflection.PersistenceAnnotationInspector;
 import org.springframework.context.annotation.Bean;
@@ -7,6 +9,9 @@ import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.ImportResource;
 
 /**
+ * Optional Spring configuration, which caches reflection calls with ehcache. The loaders do not need it, so
+ * spring-context-support, ehcache-core and ehcache-spring-annotations have to be added as dependencies to use it.
+ *
  * @author amir.raminfar
  */
 @Configuration
@@ -17,4 +22,9 @@ public class JPileApplicationConfig {
     public PersistenceAnnotationInspector createPersistenceAnnotationInspector() {
         return new CacheablePersistenceAnnotationInspector();
     }
+
+    @Bean
+    public HierarchicalInfileObjectLoaderFactory createHierarchicalInfileObjectLoaderFactory() {
+        return new SimpleHierarchicalInfileObjectLoaderFactory(createPersistenceAnnotationInspector());
+    }
 }
@@ -0,0 +1,118 @@
+package com.opower.persistence.jpile.factory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import com.google.common.base.Preconditions;
+import com.opower.persistence.jpile.loader.HierarchicalInfileObjectLoader;
+import com.opower.persistence.jpile.loader.IdAllocator;
+import com.opower.persistence.jpile.loader.SequenceTableIdAllocator;
+import com.opower.persistence.jpile.reflection.ClassMetadataPersistenceAnnotationInspector;
+import com.opower.persistence.jpile.reflection.PersistenceAnnotationInspector;
+
+/**
+ * Hands out loaders that are used again once they are released, for applications that run many small jobs. A released
+ * loader keeps its buffers and its settings, and every loader of the factory shares one plan, so the columns of a class
+ * are only looked up once and {@link HierarchicalInfileObjectLoader#prepare(Class[])} on any of the loaders prepares
+ * them all.
+ *
+ * <pre>
+ *     HierarchicalInfileObjectLoader objectLoader = factory.getHierarchicalInfileObjectLoader();
+ *     objectLoader.setConnection(connection);
+ *     try {
+ *         objectLoader.persist(foo, bar);
+ *     } finally {
+ *         factory.release(objectLoader);
+ *         connection.close();
+ *     }
+ * </pre>
+ * Since a loader may have been used by another job, every job should set up its loader the same way.
+ * <p>
+ * Without an id allocator the loaders use their default one, which every job seeds again from the highest id in each
+ * table of its connection, and whose counters are shared by the loaders on the same schema, so loaders running at the
+ * same time never hand out the same id. An id allocator given to the factory is set on every loader handed out and used
+ * by every job, so it should reserve ids in the database, like {@link SequenceTableIdAllocator}: an allocator that
+ * counts in memory would not see rows added between jobs. Instances of this class are safe for use by multiple
+ * threads.
+ *
+ * @author amir.raminfar
+ * @since 1.0
+ */
+public class PooledHierarchicalInfileObjectLoaderFactory implements HierarchicalInfileObjectLoaderFactory {
+    private final HierarchicalInfileObjectLoader planSource;
+    private final IdAllocator idAllocator;
+    private final BlockingQueue<HierarchicalInfileObjectLoader> idleLoaders;
+
+    /**
+     * @param maxIdleLoaders number of released loaders kept for later jobs
+     */
+    public PooledHierarchicalInfileObjectLoaderFactory(int maxIdleLoaders) {
+        this(new ClassMetadataPersistenceAnnotationInspector(), maxIdleLoaders);
+    }
+
+    /**
+     * @param idAllocator    shared by every loader handed out, for every job
+     * @param maxIdleLoaders number of released loaders kept for later jobs
+     */
+    public PooledHierarchicalInfileObjectLoaderFactory(IdAllocator idAllocator, int maxIdleLoaders) {
+        this(new ClassMetadataPersistenceAnnotationInspector(), idAllocator, maxIdleLoaders);
+    }
+
+    /**
+     * @param persistenceAnnotationInspector shared by every loader created
+     * @param maxIdleLoaders                 number of released loaders kept for later jobs
+     */
+    public PooledHierarchicalInfileObjectLoaderFactory(PersistenceAnnotationInspector persistenceAnnotationInspector,
+                                                       int maxIdleLoaders) {
+        this(persistenceAnnotationInspector, null, maxIdleLoaders);
+    }
+
+    /**
+     * @param persistenceAnnotationInspector shared by every loader created
+     * @param idAllocator                    shared by every loader handed out, for every job, or null for the
+     *                                       default of the loaders, which is seeded again every job
+     * @param maxIdleLoaders                 number of released loaders kept for later jobs
+     */
+    public PooledHierarchicalInfileObjectLoaderFactory(PersistenceAnnotationInspector persistenceAnnotationInspector,
+                                                       IdAllocator idAllocator,
+                                                       int maxIdleLoaders) {
+        Preconditions.checkArgument(maxIdleLoaders > 0, "maxIdleLoaders must be positive");
+        this.planSource = new HierarchicalInfileObjectLoader(persistenceAnnotationInspector);
+        this.idAllocator = idAllocator;
+        this.idleLoaders = new ArrayBlockingQueue<HierarchicalInfileObjectLoader>(maxIdleLoaders);
+    }
+
+    /**
+     * Returns a released loader, or a new one if none is idle. The loader has to be bound to a connection before it is
+     * used.
+     *
+     * @return the instance
+     */
+    @Override
+    public HierarchicalInfileObjectLoader getHierarchicalInfileObjectLoader() {
+        HierarchicalInfileObjectLoader objectLoader = this.idleLoaders.poll();
+        if(objectLoader == null) {
+            objectLoader = new HierarchicalInfileObjectLoader(this.planSource);
+        }
+        if(this.idAllocator != null) {
+            objectLoader.setIdAllocator(this.idAllocator);
+        }
+        return objectLoader;
+    }
+
+    /**
+     * Closes a loader, which flushes it, and keeps it for a later job unless enough loaders are idle already. The
+     * loader must not be used by the caller afterwards.
+     *
+     * @param objectLoader a loader of this factory
+     */
+    public void release(HierarchicalInfileObjectLoader objectLoader) {
+        Preconditions.checkNotNull(objectLoader, "objectLoader cannot be null");
+        try {
+            objectLoader.close();
+        }
+        finally {
+            // A failed flush still leaves the loader closed and ready for the next job
+            this.idleLoaders.offer(objectLoader);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.opower.persistence.jpile.factory;
+
+import com.google.common.base.Preconditions;
+import com.opower.persistence.jpile.loader.HierarchicalInfileObjectLoader;
+import com.opower.persistence.jpile.reflection.ClassMetadataPersistenceAnnotationInspector;
+import com.opower.persistence.jpile.reflection.PersistenceAnnotationInspector;
+
+/**
+ * Creates loaders that share one {@link PersistenceAnnotationInspector}, without Spring. This is the quickest way to get
+ * a loader in a short lived JVM, since nothing is set up besides the inspector.
+ *
+ * <pre>
+ *     HierarchicalInfileObjectLoaderFactory factory = new SimpleHierarchicalInfileObjectLoaderFactory();
+ *     HierarchicalInfileObjectLoader objectLoader = factory.getHierarchicalInfileObjectLoader();
+ * </pre>
+ *
+ * @author amir.raminfar
+ * @since 1.0
+ */
+public class SimpleHierarchicalInfileObjectLoaderFactory implements HierarchicalInfileObjectLoaderFactory {
+    private final PersistenceAnnotationInspector persistenceAnnotationInspector;
+
+    /**
+     * Creates a factory with an inspector of its own
+     */
+    public SimpleHierarchicalInfileObjectLoaderFactory() {
+        this(new ClassMetadataPersistenceAnnotationInspector());
+    }
+
+    /**
+     * @param persistenceAnnotationInspector shared by every loader created
+     */
+    public SimpleHierarchicalInfileObjectLoaderFactory(PersistenceAnnotationInspector persistenceAnnotationInspector) {
+        Preconditions.checkNotNull(persistenceAnnotationInspector, "persistenceAnnotationInspector cannot be null");
+        this.persistenceAnnotationInspector = persistenceAnnotationInspector;
+    }
+
+    @Override
+    public HierarchicalInfileObjectLoader getHierarchicalInfileObjectLoader() {
+        return new HierarchicalInfileObjectLoader(this.persistenceAnnotationInspector);
+    }
+}
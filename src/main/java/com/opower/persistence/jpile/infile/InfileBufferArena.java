@@ -0,0 +1,129 @@
+package com.opower.persistence.jpile.infile;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import com.google.common.base.Preconditions;
+
+/**
+ * A pool of fixed size infile segments shared by any number of {@link InfileDataBuffer}s. Segments are allocated on
+ * demand, handed back with {@link #release(ByteBuffer)} once their contents have been flushed, and reused afterwards.
+ * The total number of segments that can be out at the same time is capped by a budget in bytes. When the budget is
+ * exhausted {@link #acquire()} blocks until another buffer releases a segment.
+ * <p>
+ * By default segments are direct (off-heap) buffers, which keeps large, long lived infile data out of the old
+ * generation. Note that with a single thread filling several buffers, the budget must allow at least one segment for
+ * every buffer that holds rows at the same time, otherwise {@link #acquire()} would wait forever, unless the buffers
+ * flush each other through {@link InfileDataBuffer#setSegmentReclaimer(Runnable)}.
+ * <p>
+ * Instances of this class are safe for use by multiple threads.
+ *
+ * @author s-m
+ * @since 1.0
+ */
+public class InfileBufferArena {
+    /**
+     * Default size in bytes of a segment.
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = InfileDataBuffer.DEFAULT_INFILE_BUFFER_SIZE;
+
+    private final int segmentSize;
+    private final int maxSegments;
+    private final boolean direct;
+    private final Semaphore budget;
+    private final Queue<ByteBuffer> pool = new ConcurrentLinkedQueue<ByteBuffer>();
+
+    /**
+     * Creates an arena of direct segments.
+     *
+     * @param segmentSize size in bytes of each segment
+     * @param budgetBytes maximum number of bytes in segments that can be acquired at once
+     */
+    public InfileBufferArena(int segmentSize, long budgetBytes) {
+        this(segmentSize, budgetBytes, true);
+    }
+
+    /**
+     * Creates an arena.
+     *
+     * @param segmentSize size in bytes of each segment
+     * @param budgetBytes maximum number of bytes in segments that can be acquired at once
+     * @param direct      true for direct (off-heap) segments, false for heap segments
+     */
+    public InfileBufferArena(int segmentSize, long budgetBytes, boolean direct) {
+        Preconditions.checkArgument(segmentSize > 0, "Segment size must be positive");
+        Preconditions.checkArgument(budgetBytes >= segmentSize, "Budget must allow for at least one segment");
+        this.segmentSize = segmentSize;
+        this.maxSegments = (int) Math.min(Integer.MAX_VALUE, budgetBytes / segmentSize);
+        this.direct = direct;
+        this.budget = new Semaphore(this.maxSegments, true);
+    }
+
+    /**
+     * Takes a cleared segment from the pool, allocating one if the pool is empty. Blocks while the budget is
+     * exhausted.
+     *
+     * @return a segment that must be given back with {@link #release(ByteBuffer)}
+     * @throws IllegalStateException if the thread is interrupted while waiting
+     */
+    public ByteBuffer acquire() {
+        try {
+            this.budget.acquire();
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for an infile segment", e);
+        }
+        return this.take();
+    }
+
+    /**
+     * Like {@link #acquire()} but returns <code>null</code> rather than waiting when the budget is exhausted.
+     *
+     * @return a segment or null
+     */
+    public ByteBuffer tryAcquire() {
+        return this.budget.tryAcquire() ? this.take() : null;
+    }
+
+    /**
+     * Gives a segment back to the pool.
+     *
+     * @param segment acquired from this arena
+     */
+    public void release(ByteBuffer segment) {
+        Preconditions.checkNotNull(segment, "Cannot release a null segment");
+        Preconditions.checkArgument(segment.capacity() == this.segmentSize, "Segment was not acquired from this arena");
+        segment.clear();
+        this.pool.offer(segment);
+        this.budget.release();
+    }
+
+    private ByteBuffer take() {
+        ByteBuffer segment = this.pool.poll();
+        if(segment == null) {
+            segment = this.direct ? ByteBuffer.allocateDirect(this.segmentSize) : ByteBuffer.allocate(this.segmentSize);
+        }
+        return segment;
+    }
+
+    public int getSegmentSize() {
+        return this.segmentSize;
+    }
+
+    public int getMaxSegments() {
+        return this.maxSegments;
+    }
+
+    /**
+     * @return number of segments currently acquired and not yet released
+     */
+    public int getSegmentsInUse() {
+        return this.maxSegments - this.budget.availablePermits();
+    }
+
+    public boolean isDirect() {
+        return this.direct;
+    }
+}
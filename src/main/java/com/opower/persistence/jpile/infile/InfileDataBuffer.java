@@ -2,17 +2,26 @@ package com.opower.persistence.jpile.infile;
 
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.math.BigDecimal;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.nio.charset.CharacterCodingException;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetEncoder;
 import java.nio.charset.CoderResult;
+import java.sql.Time;
+import java.sql.Timestamp;
 import java.util.Date;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import javax.persistence.TemporalType;
+import com.google.common.base.Charsets;
 import com.google.common.base.Preconditions;
-import org.joda.time.DateTime;
-import org.joda.time.format.DateTimeFormat;
-import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDate;
+import org.joda.time.LocalDateTime;
+import org.joda.time.LocalTime;
+import org.joda.time.ReadableInstant;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -21,12 +30,14 @@ import org.slf4j.LoggerFactory;
  * and implements methods to allow clients to clear and append various data types to said row. These methods insert
  * field and line separators as needed as well as provide proper formats for declaring date and null values.
  * <p>
- * When the current row is complete, it can be added to the infile buffer via {@link #addRowToInfile()}. If the row
- * does not fit into the infile buffer, none of its contents are added. To make room, clients should read the contents
- * of the infile buffer with {@link #asInputStream()} and then clear it. In general,clients should consider implementing
- * an {@link com.opower.persistence.jpile.loader.InfileObjectLoader} to manage infile buffers. That class provides higher
- * level interaction and
- * management of these buffers.
+ * The row buffer starts small and grows on demand, up to a maximum size, to fit large values such as TEXT or BLOB
+ * columns. The infile buffer is not allocated until the first row is added, and then starts at
+ * {@link #INITIAL_INFILE_BUFFER_SIZE} bytes and doubles as needed up to its size, so buffers of tables that only get a
+ * few rows stay small. When the current row is complete, it can be added to the infile buffer via
+ * {@link #addRowToInfile()}. If the row does not fit into the infile buffer, none of its contents are added. To make
+ * room, clients should read the contents of the infile buffer with {@link #asInputStream()} and then clear it. In
+ * general, clients should consider implementing an {@link com.opower.persistence.jpile.loader.InfileObjectLoader} to
+ * manage infile buffers. That class provides higher level interaction and management of these buffers.
  * <p>
  * Instances of this class are not safe for use by multiple threads.
  *
@@ -46,24 +57,134 @@ public class InfileDataBuffer implements InfileRow {
      * Default size in bytes of the row buffer.
      */
     public static final int DEFAULT_ROW_BUFFER_SIZE = 1024 * 2; // 2kB
+    /**
+     * Default size in bytes up to which the row buffer grows to fit a row.
+     */
+    public static final int DEFAULT_MAX_ROW_BUFFER_SIZE = 16 * 1024 * 1024; // 16MB
+    /**
+     * Size in bytes an infile buffer starts at when it is allocated. It grows up to the infile buffer size as rows are
+     * added.
+     */
+    public static final int INITIAL_INFILE_BUFFER_SIZE = 64 * 1024; // 64kB
 
     // Infile constants
     protected static final String MYSQL_NULL_STRING = "\\N";
-    protected static final DateTimeFormatter dateTimeFormatter = DateTimeFormat.forPattern("yyyy-MM-dd");
+    protected static final byte MYSQL_ESCAPE_CHAR = '\\';
+
+    /**
+     * Characters MySQL would otherwise interpret as field or line separators, indexed by character and mapped to the
+     * character that follows the backslash in their escape sequence. A zero entry means no escaping is required.
+     */
+    private static final byte[] ESCAPE_SEQUENCES = new byte[128];
+
+    static {
+        ESCAPE_SEQUENCES['\\'] = '\\';
+        ESCAPE_SEQUENCES['\t'] = 't';
+        ESCAPE_SEQUENCES['\n'] = 'n';
+        ESCAPE_SEQUENCES['\0'] = '0';
+    }
+
+    /**
+     * Lookup tables for the tens and ones digit of 0 through 99, so integers can be written two digits at a time.
+     */
+    private static final byte[] DIGIT_TENS = new byte[100];
+    private static final byte[] DIGIT_ONES = new byte[100];
+
+    static {
+        for(int i = 0; i < 100; i++) {
+            DIGIT_TENS[i] = (byte) ('0' + i / 10);
+            DIGIT_ONES[i] = (byte) ('0' + i % 10);
+        }
+    }
+
+    /**
+     * Doubles with an integral value below this are written as digits followed by ".0", which is what
+     * <code>Double.toString()</code> produces for them. Larger values switch to scientific notation.
+     */
+    private static final double MAX_PLAIN_INTEGRAL_DOUBLE = 1e7;
+
+    /**
+     * Size in chars of the scratch buffer used when a string has to go through the charset encoder.
+     */
+    private static final int CHAR_BUFFER_SIZE = 256;
+    // Room for the longest date literal, "yyyy-MM-dd HH:mm:ss.ffffff"
+    private static final int MAX_TEMPORAL_LENGTH = 32;
 
     // Utilities
     private final CharsetEncoder encoder;
+    private final CharBuffer charBuffer = CharBuffer.allocate(CHAR_BUFFER_SIZE);
+    // Scratch space for the digits of a long, which has at most 19 digits
+    private final byte[] digits = new byte[19];
+    private final InfileDateEncoder dateEncoder = new InfileDateEncoder(DateTimeZone.getDefault());
+    // Only used for charsets that are not ASCII compatible, see beginTemporal()
+    private ByteBuffer temporalScratch;
+    // Highest character that the charset encodes as the single byte of the same value, or -1 if there is none
+    private final int maxDirectChar;
 
     // Common byte sequences
     private final byte[] nullBytes;
     private final byte[] tabBytes;
     private final byte[] newlineBytes;
 
-    // Buffers
-    private final ByteBuffer infileBuffer;
-    private final ByteBuffer rowBuffer;
+    // Buffers. When an arena is used the infile buffer is a segment that is only held while it contains rows.
+    // Otherwise it is allocated when the first row is added and grows up to infileBufferSize.
+    private final InfileBufferArena arena;
+    private final int infileBufferSize;
+    private ByteBuffer infileBuffer;
+    private ByteBuffer rowBuffer;
+    private int initialRowBufferSize;
+    private int maxRowBufferSize;
+    // Buffers handed back through recycle() when there is no arena, reused by detachInfile()
+    private final Queue<ByteBuffer> spareInfileBuffers = new ConcurrentLinkedQueue<ByteBuffer>();
+    // Run when the arena has no segment to spare, see setSegmentReclaimer()
+    private Runnable segmentReclaimer;
 
     public InfileDataBuffer(Charset charset, int infileBufferSize, int rowBufferSize) {
+        this(charset, null, infileBufferSize, rowBufferSize, Math.max(rowBufferSize, DEFAULT_MAX_ROW_BUFFER_SIZE));
+    }
+
+    /**
+     * Creates a buffer whose row buffer grows on demand.
+     *
+     * @param charset          for encoding
+     * @param infileBufferSize size in bytes of the infile buffer
+     * @param rowBufferSize    initial size in bytes of the row buffer
+     * @param maxRowBufferSize size in bytes up to which the row buffer may grow, which can exceed the infile buffer
+     */
+    public InfileDataBuffer(Charset charset, int infileBufferSize, int rowBufferSize, int maxRowBufferSize) {
+        this(charset, null, infileBufferSize, rowBufferSize, maxRowBufferSize);
+    }
+
+    public InfileDataBuffer(Charset charset) {
+        this(charset, DEFAULT_INFILE_BUFFER_SIZE, DEFAULT_ROW_BUFFER_SIZE);
+    }
+
+    public InfileDataBuffer() {
+        this(Charset.defaultCharset());
+    }
+
+    /**
+     * Creates a buffer whose infile data lives in segments taken from a shared arena. A segment is acquired when the
+     * first row is added and given back to the arena when the buffer is cleared.
+     *
+     * @param charset       for encoding
+     * @param arena         to take infile segments from
+     * @param rowBufferSize size in bytes of the row buffer
+     */
+    public InfileDataBuffer(Charset charset, InfileBufferArena arena, int rowBufferSize) {
+        this(charset, Preconditions.checkNotNull(arena, "arena cannot be null"), arena.getSegmentSize(), rowBufferSize,
+             Math.max(rowBufferSize, DEFAULT_MAX_ROW_BUFFER_SIZE));
+    }
+
+    public InfileDataBuffer(InfileBufferArena arena) {
+        this(Charset.defaultCharset(), arena, DEFAULT_ROW_BUFFER_SIZE);
+    }
+
+    private InfileDataBuffer(Charset charset,
+                             InfileBufferArena arena,
+                             int infileBufferSize,
+                             int rowBufferSize,
+                             int maxRowBufferSize) {
         Preconditions.checkNotNull(charset, "No charset set for encoding.");
         this.encoder = charset.newEncoder();
 
@@ -71,22 +192,15 @@ public class InfileDataBuffer implements InfileRow {
         this.tabBytes = "\t".getBytes(charset);
         this.newlineBytes = "\n".getBytes(charset);
         this.nullBytes = MYSQL_NULL_STRING.getBytes(charset);
+        this.maxDirectChar = maxDirectChar(charset);
 
-        // Make sure the row buffer is not larger than the infile buffer. If that were allowed you'd get into cases
-        // where you would not be able to write rows to the infile buffer even if it were empty.
+        // Make sure the initial row buffer is not larger than the infile buffer. Rows that grow beyond the infile
+        // buffer cannot be added to it and have to be loaded on their own, see isRowLargerThanInfile().
         Preconditions.checkState(rowBufferSize <= infileBufferSize,
                                  "Cannot create a row buffer larger than the infile buffer.");
-
-        this.rowBuffer = ByteBuffer.allocate(rowBufferSize);
-        this.infileBuffer = ByteBuffer.allocate(infileBufferSize);
-    }
-
-    public InfileDataBuffer(Charset charset) {
-        this(charset, DEFAULT_INFILE_BUFFER_SIZE, DEFAULT_ROW_BUFFER_SIZE);
-    }
-
-    public InfileDataBuffer() {
-        this(Charset.defaultCharset());
+        this.setRowBufferSize(rowBufferSize, maxRowBufferSize);
+        this.infileBufferSize = infileBufferSize;
+        this.arena = arena;
     }
 
     /**
@@ -97,9 +211,20 @@ public class InfileDataBuffer implements InfileRow {
      * @return <code>true</code> if the current row fits into the infile (and has been added)
      */
     public boolean addRowToInfile() {
+        if(this.infileBuffer == null) {
+            this.infileBuffer = this.arena != null
+                                ? this.acquireSegment()
+                                : ByteBuffer.allocate(Math.min(this.infileBufferSize,
+                                                               Math.max(INITIAL_INFILE_BUFFER_SIZE,
+                                                                        this.rowBuffer.position())));
+        }
         boolean addNewline = this.infileBuffer.position() > 0;
-        if(this.infileBuffer.remaining() < (this.rowBuffer.position() + (addNewline ? this.newlineBytes.length : 0))) {
-            return false;
+        int required = this.rowBuffer.position() + (addNewline ? this.newlineBytes.length : 0);
+        if(this.infileBuffer.remaining() < required) {
+            if(this.arena != null || this.infileBuffer.position() + required > this.infileBufferSize) {
+                return false;
+            }
+            this.growInfileBuffer(this.infileBuffer.position() + required);
         }
         if(addNewline) {
             this.infileBuffer.put(this.newlineBytes);
@@ -109,6 +234,81 @@ public class InfileDataBuffer implements InfileRow {
         return true;
     }
 
+    /**
+     * Doubles the infile buffer until it fits the given size, up to the infile buffer size.
+     *
+     * @param size in bytes required
+     */
+    private void growInfileBuffer(int size) {
+        int capacity = this.infileBuffer.capacity();
+        while(capacity < size) {
+            capacity = (int) Math.min(this.infileBufferSize, capacity * 2L);
+        }
+        ByteBuffer grown = ByteBuffer.allocate(capacity);
+        this.infileBuffer.flip();
+        grown.put(this.infileBuffer);
+        this.infileBuffer = grown;
+    }
+
+    private ByteBuffer acquireSegment() {
+        ByteBuffer segment = this.arena.tryAcquire();
+        if(segment == null && this.segmentReclaimer != null) {
+            this.segmentReclaimer.run();
+            segment = this.arena.tryAcquire();
+        }
+        // Wait for segments that are being loaded to be given back
+        return segment != null ? segment : this.arena.acquire();
+    }
+
+    /**
+     * Sets what to do when a segment is needed but the arena's budget is exhausted, before waiting for a segment to be
+     * given back. The reclaimer runs on the thread adding the row, and is expected to flush other buffers filled by
+     * that thread so their segments go back to the arena. Without one, a thread that fills more buffers than the
+     * budget allows segments for waits forever.
+     *
+     * @param segmentReclaimer to run when the arena is exhausted, or null to just wait
+     */
+    public void setSegmentReclaimer(Runnable segmentReclaimer) {
+        this.segmentReclaimer = segmentReclaimer;
+    }
+
+    /**
+     * Checks if the current row is too large to ever fit into the infile buffer, even when it is empty. Such a row
+     * has to be loaded on its own through {@link #rowAsInputStream()}.
+     *
+     * @return true if the current row is larger than the infile buffer
+     */
+    public boolean isRowLargerThanInfile() {
+        return this.rowBuffer.position() > this.infileBufferSize;
+    }
+
+    /**
+     * Gets a view of the current row as an input stream, for rows that are larger than the infile buffer. Once you are
+     * done reading, start a new row.
+     *
+     * @return row contents
+     */
+    public InputStream rowAsInputStream() {
+        this.rowBuffer.flip();
+        return new ByteArrayInputStream(this.rowBuffer.array(), 0, this.rowBuffer.limit());
+    }
+
+    /**
+     * Sets the initial and maximum size of the row buffer. The row buffer starts at the initial size and grows as
+     * needed to fit a row, up to the maximum. This discards the current row.
+     *
+     * @param rowBufferSize    initial size in bytes
+     * @param maxRowBufferSize maximum size in bytes
+     */
+    public void setRowBufferSize(int rowBufferSize, int maxRowBufferSize) {
+        Preconditions.checkArgument(rowBufferSize > 0, "Row buffer size must be positive");
+        Preconditions.checkArgument(maxRowBufferSize >= rowBufferSize,
+                                    "Maximum row buffer size cannot be smaller than the initial size");
+        this.initialRowBufferSize = rowBufferSize;
+        this.maxRowBufferSize = maxRowBufferSize;
+        this.rowBuffer = ByteBuffer.allocate(rowBufferSize);
+    }
+
     /**
      * Gets a view of the contents of the infile buffer as input stream. Once you are done reading, you <i>must</i>
      * clear or reset this buffer.
@@ -117,23 +317,119 @@ public class InfileDataBuffer implements InfileRow {
      */
     // CR MB: Do we want to add status flags to this class to prevent undefined use?
     public InputStream asInputStream() {
+        if(this.infileBuffer == null) {
+            return new ByteArrayInputStream(new byte[0]);
+        }
         this.infileBuffer.flip();
-        return new ByteArrayInputStream(this.infileBuffer.array(), 0, this.infileBuffer.limit());
+        if(!this.infileBuffer.hasArray()) {
+            return new ByteBufferInputStream(this.infileBuffer.duplicate());
+        }
+        return new ByteArrayInputStream(this.infileBuffer.array(),
+                                        this.infileBuffer.arrayOffset(),
+                                        this.infileBuffer.limit());
+    }
+
+    /**
+     * @return true if no rows have been added to the infile buffer since it was last cleared
+     */
+    public boolean isEmpty() {
+        return this.infileBuffer == null || this.infileBuffer.position() == 0;
+    }
+
+    /**
+     * @return size in bytes up to which the infile buffer holds rows
+     */
+    public int getInfileBufferSize() {
+        return this.infileBufferSize;
+    }
+
+    /**
+     * @return number of bytes added to the infile buffer since it was last cleared
+     */
+    public int size() {
+        return this.infileBuffer == null ? 0 : this.infileBuffer.position();
+    }
+
+    /**
+     * Hands over the infile data written so far and continues with an empty infile buffer, keeping the current row.
+     * This lets a client load the detached data on another thread while rows keep being added. The returned buffer is
+     * ready for reading and must be given back with {@link #recycle(ByteBuffer)} once its contents have been loaded.
+     * Both methods may be called from different threads, but only one thread may add rows.
+     *
+     * @return the detached infile data
+     */
+    public ByteBuffer detachInfile() {
+        ByteBuffer detached = this.infileBuffer != null ? this.infileBuffer : ByteBuffer.allocate(0);
+        detached.flip();
+        if(this.arena != null) {
+            this.infileBuffer = null;
+        }
+        else {
+            // Without a spare, a new buffer is allocated when the next row is added
+            this.infileBuffer = this.spareInfileBuffers.poll();
+        }
+        return detached;
+    }
+
+    /**
+     * Gives back an infile buffer returned by {@link #detachInfile()} so it can be reused.
+     *
+     * @param detached buffer whose contents have been loaded
+     */
+    public void recycle(ByteBuffer detached) {
+        if(detached.capacity() == 0) {
+            return;
+        }
+        if(this.arena != null) {
+            this.arena.release(detached);
+        }
+        else {
+            detached.clear();
+            this.spareInfileBuffers.offer(detached);
+        }
+    }
+
+    /**
+     * @return the encoded line separator, used to join detached segments into one stream
+     */
+    byte[] getNewlineBytes() {
+        return this.newlineBytes;
     }
 
     /**
      * Resets this buffer, clearing both the current row and the infile buffer.
      */
     public void reset() {
-        this.infileBuffer.clear();
+        this.clear();
         this.rowBuffer.clear();
     }
 
     /**
-     * Clears the contents of the infile buffer, but maintains the state of the current row.
+     * Clears the contents of the infile buffer, but maintains the state of the current row. A segment taken from an
+     * arena is given back to it.
      */
     public void clear() {
-        this.infileBuffer.clear();
+        if(this.arena == null) {
+            if(this.infileBuffer != null) {
+                this.infileBuffer.clear();
+            }
+        }
+        else if(this.infileBuffer != null) {
+            this.arena.release(this.infileBuffer);
+            this.infileBuffer = null;
+        }
+    }
+
+    /**
+     * Gives up the memory of the infile buffer and of spare infile buffers, so that a table that is not getting rows
+     * holds none. A new buffer is allocated when the next row is added. The buffer must be empty, and no detached
+     * buffer may be out.
+     */
+    public void releaseInfileBuffer() {
+        Preconditions.checkState(this.isEmpty(), "Cannot release an infile buffer that holds rows");
+        this.clear();
+        this.infileBuffer = null;
+        this.spareInfileBuffers.clear();
     }
 
     /**
@@ -141,6 +437,7 @@ public class InfileDataBuffer implements InfileRow {
      */
     private void appendTabIfNeeded() {
         if(this.rowBuffer.position() > 0) {
+            this.ensureRowCapacity(this.tabBytes.length);
             this.rowBuffer.put(this.tabBytes);
         }
     }
@@ -151,6 +448,7 @@ public class InfileDataBuffer implements InfileRow {
     @Override
     public final InfileRow append(byte b) {
         this.appendTabIfNeeded();
+        this.ensureRowCapacity(1);
         this.rowBuffer.put(b);
         return this;
     }
@@ -161,6 +459,7 @@ public class InfileDataBuffer implements InfileRow {
     @Override
     public final InfileRow append(byte[] bytes) {
         this.appendTabIfNeeded();
+        this.ensureRowCapacity(bytes.length);
         this.rowBuffer.put(bytes);
         return this;
     }
@@ -174,27 +473,135 @@ public class InfileDataBuffer implements InfileRow {
             return this.appendNull();
         }
         this.appendTabIfNeeded();
-        // MySQL interprets backslashes as an escape character.  We want it to treat a backslash as a backslash so
-        // we escape it.
-        String escapedStr = s.replace("\\", "\\\\");
-        CoderResult result = this.encoder.encode(CharBuffer.wrap(escapedStr), this.rowBuffer, false);
-        if(!result.isUnderflow()) {
-            try {
-                result.throwException();
+        this.encode(s);
+        return this;
+    }
+
+    /**
+     * Sets whether non-zero fractions of a second are written for datetimes and times. Only enable this when the
+     * target columns are declared with fractional seconds precision, e.g. <code>DATETIME(6)</code>. Off by default.
+     *
+     * @param fractionalSeconds true to write fractional seconds with microsecond precision
+     */
+    public void setFractionalSeconds(boolean fractionalSeconds) {
+        this.dateEncoder.setFractionalSeconds(fractionalSeconds);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public final InfileRow append(Date d) {
+        return this.append(d, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public final InfileRow append(Date d, TemporalType temporalType) {
+        if(d == null) {
+            return this.appendNull();
+        }
+        if(temporalType == null) {
+            if(d instanceof java.sql.Date) {
+                temporalType = TemporalType.DATE;
             }
-            catch(CharacterCodingException e) {
-                throw new Error(e);
+            else if(d instanceof Time) {
+                temporalType = TemporalType.TIME;
+            }
+            else {
+                temporalType = TemporalType.TIMESTAMP;
             }
         }
-        return this;
+        long millis = d.getTime();
+        int nanos = d instanceof Timestamp ? ((Timestamp) d).getNanos() : InfileDateEncoder.nanosOf(millis);
+        ByteBuffer out = this.beginTemporal();
+        this.dateEncoder.encode(millis, nanos, temporalType, out);
+        return this.endTemporal(out);
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    public final InfileRow append(Date d) {
-        return (d == null) ? this.appendNull() : this.append(dateTimeFormatter.print(new DateTime(d.getTime())));
+    public final InfileRow append(ReadableInstant instant) {
+        if(instant == null) {
+            return this.appendNull();
+        }
+        long millis = instant.getMillis();
+        ByteBuffer out = this.beginTemporal();
+        this.dateEncoder.encode(millis, InfileDateEncoder.nanosOf(millis), TemporalType.TIMESTAMP, out);
+        return this.endTemporal(out);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public final InfileRow append(LocalDate date) {
+        if(date == null) {
+            return this.appendNull();
+        }
+        ByteBuffer out = this.beginTemporal();
+        this.dateEncoder.encodeDate(date.getYear(), date.getMonthOfYear(), date.getDayOfMonth(), out);
+        return this.endTemporal(out);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public final InfileRow append(LocalDateTime dateTime) {
+        if(dateTime == null) {
+            return this.appendNull();
+        }
+        ByteBuffer out = this.beginTemporal();
+        this.dateEncoder.encodeDate(dateTime.getYear(), dateTime.getMonthOfYear(), dateTime.getDayOfMonth(), out);
+        out.put((byte) ' ');
+        this.dateEncoder.encodeTime(dateTime.getHourOfDay(), dateTime.getMinuteOfHour(), dateTime.getSecondOfMinute(),
+                                    InfileDateEncoder.nanosOf(dateTime.getMillisOfSecond()), out);
+        return this.endTemporal(out);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public final InfileRow append(LocalTime time) {
+        if(time == null) {
+            return this.appendNull();
+        }
+        ByteBuffer out = this.beginTemporal();
+        this.dateEncoder.encodeTime(time.getHourOfDay(), time.getMinuteOfHour(), time.getSecondOfMinute(),
+                                    InfileDateEncoder.nanosOf(time.getMillisOfSecond()), out);
+        return this.endTemporal(out);
+    }
+
+    /**
+     * Starts a field for the date encoder, which writes ASCII. That is the row buffer itself unless the charset is not
+     * ASCII compatible, in which case the field goes through a scratch buffer and the string path.
+     *
+     * @return the buffer the date encoder should write to
+     */
+    private ByteBuffer beginTemporal() {
+        if(this.isAsciiCompatible()) {
+            this.appendTabIfNeeded();
+            this.ensureRowCapacity(MAX_TEMPORAL_LENGTH);
+            return this.rowBuffer;
+        }
+        if(this.temporalScratch == null) {
+            this.temporalScratch = ByteBuffer.allocate(MAX_TEMPORAL_LENGTH);
+        }
+        this.temporalScratch.clear();
+        return this.temporalScratch;
+    }
+
+    private InfileRow endTemporal(ByteBuffer out) {
+        if(out != this.rowBuffer) {
+            this.append(new String(out.array(), 0, out.position(), Charsets.US_ASCII));
+        }
+        return this;
     }
 
     /**
@@ -202,7 +609,78 @@ public class InfileDataBuffer implements InfileRow {
      */
     @Override
     public final InfileRow append(Boolean b) {
-        return (b == null) ? this.appendNull() : this.append(b ? 1 : 0);
+        return (b == null) ? this.appendNull() : this.appendInt(b ? 1 : 0);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public final InfileRow appendLong(long l) {
+        if(!this.isAsciiCompatible()) {
+            return this.append(Long.toString(l));
+        }
+        this.appendTabIfNeeded();
+        this.writeLong(l);
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public final InfileRow appendInt(int i) {
+        return this.appendLong(i);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public final InfileRow appendDouble(double d) {
+        if(!this.isAsciiCompatible()) {
+            return this.append(Double.toString(d));
+        }
+        this.appendTabIfNeeded();
+        if(Math.abs(d) < MAX_PLAIN_INTEGRAL_DOUBLE && d == (long) d) {
+            // Room for a sign, seven digits and ".0"
+            this.ensureRowCapacity(10);
+            if(d == 0 && 1 / d < 0) {
+                // Negative zero
+                this.rowBuffer.put((byte) '-');
+            }
+            this.writeLong((long) d);
+            this.rowBuffer.put((byte) '.');
+            this.rowBuffer.put((byte) '0');
+        }
+        else {
+            this.writeAscii(Double.toString(d));
+        }
+        return this;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public final InfileRow appendDecimal(BigDecimal d) {
+        if(d == null) {
+            return this.appendNull();
+        }
+        if(!this.isAsciiCompatible()) {
+            return this.append(d.toPlainString());
+        }
+        this.appendTabIfNeeded();
+        int scale = d.scale();
+        long unscaled;
+        if(scale >= 0 && d.unscaledValue().bitLength() < 64
+           && (unscaled = d.unscaledValue().longValue()) != Long.MIN_VALUE) {
+            this.writeDecimal(unscaled, scale);
+        }
+        else {
+            this.writeAscii(d.toPlainString());
+        }
+        return this;
     }
 
     /**
@@ -230,12 +708,252 @@ public class InfileDataBuffer implements InfileRow {
     }
 
     /**
-     * Clears the current row and returns this buffer as row view.
+     * Encodes a string into the row buffer, escaping backslash, tab, newline and NUL on the way so that MySQL reads
+     * them back literally. Characters the charset maps to the identical single byte are written directly; the charset
+     * encoder is only used from the first character that needs it onwards.
+     *
+     * @param s to encode
+     */
+    private void encode(String s) {
+        int length = s.length();
+        int i = 0;
+        for(; i < length; i++) {
+            char c = s.charAt(i);
+            if(c > this.maxDirectChar) {
+                break;
+            }
+            byte escape = c < ESCAPE_SEQUENCES.length ? ESCAPE_SEQUENCES[c] : 0;
+            this.ensureRowCapacity(2);
+            if(escape != 0) {
+                this.rowBuffer.put(MYSQL_ESCAPE_CHAR);
+                this.rowBuffer.put(escape);
+            }
+            else {
+                this.rowBuffer.put((byte) c);
+            }
+        }
+        if(i < length) {
+            this.encodeWithEncoder(s, i);
+        }
+    }
+
+    /**
+     * Escapes the remainder of a string into the reusable char buffer and runs it through the charset encoder in
+     * chunks, so no intermediate strings or buffers are created.
+     *
+     * @param s     to encode
+     * @param start index of the first character to encode
+     */
+    private void encodeWithEncoder(String s, int start) {
+        CharBuffer chars = this.charBuffer;
+        chars.clear();
+        this.encoder.reset();
+        for(int i = start, length = s.length(); i < length; i++) {
+            // Leave room for a complete escape sequence
+            if(chars.remaining() < 2) {
+                chars.flip();
+                this.encodeChars(chars, false);
+                chars.compact();
+            }
+            char c = s.charAt(i);
+            byte escape = c < ESCAPE_SEQUENCES.length ? ESCAPE_SEQUENCES[c] : 0;
+            if(escape != 0) {
+                chars.put((char) MYSQL_ESCAPE_CHAR);
+                chars.put((char) escape);
+            }
+            else {
+                chars.put(c);
+            }
+        }
+        chars.flip();
+        this.encodeChars(chars, true);
+        CoderResult result;
+        while((result = this.encoder.flush(this.rowBuffer)).isOverflow()) {
+            this.growRowBuffer(16);
+        }
+        this.checkResult(result);
+    }
+
+    /**
+     * Runs chars through the encoder into the row buffer, growing the row buffer whenever it runs out of room.
+     *
+     * @param chars      to encode
+     * @param endOfInput true if these are the last chars of the value
+     */
+    private void encodeChars(CharBuffer chars, boolean endOfInput) {
+        CoderResult result;
+        while((result = this.encoder.encode(chars, this.rowBuffer, endOfInput)).isOverflow()) {
+            this.growRowBuffer(Math.max(16, (int) (chars.remaining() * this.encoder.maxBytesPerChar())));
+        }
+        this.checkResult(result);
+    }
+
+    private void checkResult(CoderResult result) {
+        if(!result.isUnderflow()) {
+            try {
+                result.throwException();
+            }
+            catch(CharacterCodingException e) {
+                throw new Error(e);
+            }
+        }
+    }
+
+    /**
+     * Makes sure the row buffer has room for a number of bytes, growing it if needed.
+     *
+     * @param bytes about to be written
+     */
+    private void ensureRowCapacity(int bytes) {
+        if(this.rowBuffer.remaining() < bytes) {
+            this.growRowBuffer(bytes);
+        }
+    }
+
+    /**
+     * Grows the row buffer to make room for at least a number of bytes beyond the current position, at least
+     * doubling its size so that growing a row is amortized over its length.
+     *
+     * @param bytes needed beyond the current position
+     */
+    private void growRowBuffer(int bytes) {
+        int needed = this.rowBuffer.position() + bytes;
+        if(needed > this.maxRowBufferSize) {
+            throw new IllegalStateException(String.format(
+                    "Row needs more than the maximum row buffer size of %d bytes", this.maxRowBufferSize));
+        }
+        int capacity = (int) Math.min(this.maxRowBufferSize, Math.max(needed, 2L * this.rowBuffer.capacity()));
+        ByteBuffer grown = ByteBuffer.allocate(capacity);
+        this.rowBuffer.flip();
+        grown.put(this.rowBuffer);
+        this.rowBuffer = grown;
+    }
+
+    /**
+     * Digits can only be written as raw bytes when the charset encodes ASCII as itself.
+     *
+     * @return true if ASCII characters can be written directly
+     */
+    private boolean isAsciiCompatible() {
+        return this.maxDirectChar >= 0x7F;
+    }
+
+    /**
+     * Writes a string known to contain only ASCII characters that need no escaping, such as a formatted number.
+     *
+     * @param s to write
+     */
+    private void writeAscii(String s) {
+        this.ensureRowCapacity(s.length());
+        for(int i = 0, length = s.length(); i < length; i++) {
+            this.rowBuffer.put((byte) s.charAt(i));
+        }
+    }
+
+    private void writeLong(long value) {
+        if(value == Long.MIN_VALUE) {
+            this.writeAscii(Long.toString(value));
+            return;
+        }
+        boolean negative = value < 0;
+        int start = this.fillDigits(negative ? -value : value);
+        this.ensureRowCapacity((negative ? 1 : 0) + this.digits.length - start);
+        if(negative) {
+            this.rowBuffer.put((byte) '-');
+        }
+        this.rowBuffer.put(this.digits, start, this.digits.length - start);
+    }
+
+    /**
+     * Writes <code>unscaled * 10^-scale</code> in plain notation, the same text as
+     * <code>BigDecimal.toPlainString()</code>.
+     *
+     * @param unscaled the unscaled value, cannot be {@link Long#MIN_VALUE}
+     * @param scale    number of digits after the decimal point, cannot be negative
+     */
+    private void writeDecimal(long unscaled, int scale) {
+        boolean negative = unscaled < 0;
+        int start = this.fillDigits(negative ? -unscaled : unscaled);
+        int count = this.digits.length - start;
+        // Sign, then either the digits alone, "0." with leading zeros and digits, or the digits and a point
+        this.ensureRowCapacity((negative ? 1 : 0) + (scale == 0 ? count : count <= scale ? scale + 2 : count + 1));
+        if(negative) {
+            this.rowBuffer.put((byte) '-');
+        }
+        if(scale == 0) {
+            this.rowBuffer.put(this.digits, start, count);
+        }
+        else if(count <= scale) {
+            this.rowBuffer.put((byte) '0');
+            this.rowBuffer.put((byte) '.');
+            for(int i = count; i < scale; i++) {
+                this.rowBuffer.put((byte) '0');
+            }
+            this.rowBuffer.put(this.digits, start, count);
+        }
+        else {
+            this.rowBuffer.put(this.digits, start, count - scale);
+            this.rowBuffer.put((byte) '.');
+            this.rowBuffer.put(this.digits, start + count - scale, scale);
+        }
+    }
+
+    /**
+     * Fills the end of the digit scratch array with the ASCII digits of a non-negative value.
+     *
+     * @param value to convert, cannot be negative
+     * @return the index of the first digit
+     */
+    private int fillDigits(long value) {
+        byte[] buf = this.digits;
+        int position = buf.length;
+        while(value >= 100) {
+            int pair = (int) (value % 100);
+            value /= 100;
+            buf[--position] = DIGIT_ONES[pair];
+            buf[--position] = DIGIT_TENS[pair];
+        }
+        int pair = (int) value;
+        buf[--position] = DIGIT_ONES[pair];
+        if(pair >= 10) {
+            buf[--position] = DIGIT_TENS[pair];
+        }
+        return position;
+    }
+
+    /**
+     * Finds the highest character for which the charset produces the single byte of the same value. This is 0x7F for
+     * ASCII compatible charsets such as UTF-8, 0xFF for ISO-8859-1 and -1 for charsets like UTF-16.
+     *
+     * @param charset to inspect
+     * @return the highest directly encodable character, or -1
+     */
+    private static int maxDirectChar(Charset charset) {
+        if(!charset.canEncode()) {
+            return -1;
+        }
+        int max = -1;
+        for(char c = 0; c <= 0xFF; c++) {
+            byte[] bytes = String.valueOf(c).getBytes(charset);
+            if(bytes.length != 1 || (bytes[0] & 0xFF) != c) {
+                break;
+            }
+            max = c;
+        }
+        return max;
+    }
+
+    /**
+     * Clears the current row and returns this buffer as row view. A row buffer that grew beyond the infile buffer to
+     * hold an oversized row goes back to its initial size, so one large row does not pin that memory.
      *
      * @return this
      */
     @Override
     public final InfileRow newRow() {
+        if(this.rowBuffer.capacity() > this.infileBufferSize) {
+            this.rowBuffer = ByteBuffer.allocate(this.initialRowBufferSize);
+        }
         this.rowBuffer.clear();
         return this;
     }
@@ -0,0 +1,169 @@
+package com.opower.persistence.jpile.infile;
+
+import java.nio.ByteBuffer;
+import javax.persistence.TemporalType;
+import com.google.common.base.Preconditions;
+import org.joda.time.Chronology;
+import org.joda.time.DateTimeZone;
+import org.joda.time.chrono.ISOChronology;
+
+/**
+ * Writes dates and times in MySQL's literal formats (<code>yyyy-MM-dd</code>, <code>HH:mm:ss</code> and
+ * <code>yyyy-MM-dd HH:mm:ss[.ffffff]</code>) as ASCII bytes straight into a buffer.
+ * <p>
+ * Instants are converted to wall time in the encoder's time zone. The encoded <code>yyyy-MM-dd</code> prefix of the
+ * last day seen is cached, so consecutive values that fall on the same day only need integer arithmetic for the time
+ * of day. This is the common case for bulk loads where most rows are stamped with the same day.
+ * <p>
+ * Instances of this class are not safe for use by multiple threads.
+ *
+ * @author s-m
+ * @since 1.0
+ */
+class InfileDateEncoder {
+    private static final long MILLIS_PER_SECOND = 1000;
+    private static final long MILLIS_PER_DAY = 24 * 60 * 60 * MILLIS_PER_SECOND;
+    private static final int NANOS_PER_MICRO = 1000;
+    private static final int NANOS_PER_MILLI = 1000 * 1000;
+
+    private final DateTimeZone zone;
+    private final Chronology utcChronology = ISOChronology.getInstanceUTC();
+    private boolean fractionalSeconds = false;
+
+    // Day (counted from the epoch in local time) whose encoded date is held in cachedDate
+    private long cachedDay = Long.MIN_VALUE;
+    private final byte[] cachedDate = new byte[10];
+
+    InfileDateEncoder(DateTimeZone zone) {
+        this.zone = Preconditions.checkNotNull(zone, "zone cannot be null");
+    }
+
+    /**
+     * When enabled, non-zero fractions of a second are written with microsecond precision. MySQL only stores them in
+     * <code>DATETIME(fsp)</code> and <code>TIMESTAMP(fsp)</code> columns, so this is off by default.
+     *
+     * @param fractionalSeconds true to write fractional seconds
+     */
+    void setFractionalSeconds(boolean fractionalSeconds) {
+        this.fractionalSeconds = fractionalSeconds;
+    }
+
+    /**
+     * Encodes an instant as wall time in this encoder's zone.
+     *
+     * @param millis       since the epoch
+     * @param nanos        nanoseconds within the second, used for fractional seconds
+     * @param temporalType which parts to write
+     * @param out          to write to
+     */
+    void encode(long millis, int nanos, TemporalType temporalType, ByteBuffer out) {
+        long local = millis + this.zone.getOffset(millis);
+        long day = local / MILLIS_PER_DAY;
+        if(local % MILLIS_PER_DAY < 0) {
+            day--;
+        }
+        if(temporalType != TemporalType.TIME) {
+            if(day != this.cachedDay) {
+                long startOfDay = day * MILLIS_PER_DAY;
+                fillDate(this.cachedDate,
+                         this.utcChronology.year().get(startOfDay),
+                         this.utcChronology.monthOfYear().get(startOfDay),
+                         this.utcChronology.dayOfMonth().get(startOfDay));
+                this.cachedDay = day;
+            }
+            out.put(this.cachedDate);
+            if(temporalType == TemporalType.DATE) {
+                return;
+            }
+            out.put((byte) ' ');
+        }
+        int secondOfDay = (int) ((local - day * MILLIS_PER_DAY) / MILLIS_PER_SECOND);
+        this.writeTime(secondOfDay / 3600, secondOfDay / 60 % 60, secondOfDay % 60, nanos, out);
+    }
+
+    /**
+     * Encodes a date from its fields.
+     *
+     * @param year       the year
+     * @param month      month of year, 1 to 12
+     * @param dayOfMonth day of month, 1 to 31
+     * @param out        to write to
+     */
+    void encodeDate(int year, int month, int dayOfMonth, ByteBuffer out) {
+        checkYear(year);
+        writeDigits(year, 4, out);
+        out.put((byte) '-');
+        writeDigits(month, 2, out);
+        out.put((byte) '-');
+        writeDigits(dayOfMonth, 2, out);
+    }
+
+    /**
+     * Encodes a time from its fields.
+     *
+     * @param hour   hour of day
+     * @param minute minute of hour
+     * @param second second of minute
+     * @param nanos  nanoseconds within the second, used for fractional seconds
+     * @param out    to write to
+     */
+    void encodeTime(int hour, int minute, int second, int nanos, ByteBuffer out) {
+        this.writeTime(hour, minute, second, nanos, out);
+    }
+
+    /**
+     * Converts the millisecond part of an instant to nanoseconds within the second.
+     *
+     * @param millis since the epoch
+     * @return nanoseconds within the second
+     */
+    static int nanosOf(long millis) {
+        int millisOfSecond = (int) (millis % MILLIS_PER_SECOND);
+        if(millisOfSecond < 0) {
+            millisOfSecond += MILLIS_PER_SECOND;
+        }
+        return millisOfSecond * NANOS_PER_MILLI;
+    }
+
+    private void writeTime(int hour, int minute, int second, int nanos, ByteBuffer out) {
+        writeDigits(hour, 2, out);
+        out.put((byte) ':');
+        writeDigits(minute, 2, out);
+        out.put((byte) ':');
+        writeDigits(second, 2, out);
+        if(this.fractionalSeconds && nanos >= NANOS_PER_MICRO) {
+            out.put((byte) '.');
+            writeDigits(nanos / NANOS_PER_MICRO, 6, out);
+        }
+    }
+
+    private static void fillDate(byte[] date, int year, int month, int dayOfMonth) {
+        checkYear(year);
+        fillDigits(date, 0, year, 4);
+        date[4] = '-';
+        fillDigits(date, 5, month, 2);
+        date[7] = '-';
+        fillDigits(date, 8, dayOfMonth, 2);
+    }
+
+    private static void checkYear(int year) {
+        Preconditions.checkArgument(year >= 0 && year <= 9999, "Year %s cannot be written as a MySQL date", year);
+    }
+
+    private static void fillDigits(byte[] bytes, int offset, int value, int width) {
+        for(int i = offset + width - 1; i >= offset; i--) {
+            bytes[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    private static void writeDigits(int value, int width, ByteBuffer out) {
+        int divisor = 1;
+        for(int i = 1; i < width; i++) {
+            divisor *= 10;
+        }
+        for(; divisor > 0; divisor /= 10) {
+            out.put((byte) ('0' + value / divisor % 10));
+        }
+    }
+}
@@ -1,6 +1,12 @@
 package com.opower.persistence.jpile.infile;
 
+import java.math.BigDecimal;
 import java.util.Date;
+import javax.persistence.TemporalType;
+import org.joda.time.LocalDate;
+import org.joda.time.LocalDateTime;
+import org.joda.time.LocalTime;
+import org.joda.time.ReadableInstant;
 
 /**
  * A chaining interface for adding data to a row. Implementations handle encoding objects for use in an infile stream.
@@ -35,7 +41,8 @@ public interface InfileRow {
     InfileRow append(byte[] bytes);
 
     /**
-     * Adds a String to this row before returning said row. Implementations are responsible for handling encoding.
+     * Adds a String to this row before returning said row. Implementations are responsible for handling encoding and
+     * for escaping backslash, tab, newline and NUL characters so that MySQL reads them back literally.
      *
      * @param s to add
      * @return this row
@@ -43,18 +50,96 @@ public interface InfileRow {
     InfileRow append(String s);
 
     /**
-     * Adds a date to this row before returning said row. Dates should be formatted in the MySQL date format (yyyy-MM-dd).
+     * Adds a date to this row before returning said row. The format depends on the type of the date:
+     * {@link java.sql.Date} is written as a MySQL date (yyyy-MM-dd), {@link java.sql.Time} as a time (HH:mm:ss) and any
+     * other date, including {@link java.sql.Timestamp}, as a datetime (yyyy-MM-dd HH:mm:ss).
      *
      * @param d to add
      * @return this row
      */
     InfileRow append(Date d);
 
+    /**
+     * Adds a date to this row using the format for a {@link javax.persistence.Temporal &#064;Temporal} type before
+     * returning said row.
+     *
+     * @param d            to add
+     * @param temporalType the format to use, or <code>null</code> to choose it from the type of the date
+     * @return this row
+     */
+    InfileRow append(Date d, TemporalType temporalType);
+
+    /**
+     * Adds an instant to this row as a MySQL datetime (yyyy-MM-dd HH:mm:ss) before returning said row.
+     *
+     * @param instant to add
+     * @return this row
+     */
+    InfileRow append(ReadableInstant instant);
+
+    /**
+     * Adds a local date to this row as a MySQL date (yyyy-MM-dd) before returning said row.
+     *
+     * @param date to add
+     * @return this row
+     */
+    InfileRow append(LocalDate date);
+
+    /**
+     * Adds a local date and time to this row as a MySQL datetime (yyyy-MM-dd HH:mm:ss) before returning said row.
+     *
+     * @param dateTime to add
+     * @return this row
+     */
+    InfileRow append(LocalDateTime dateTime);
+
+    /**
+     * Adds a local time to this row as a MySQL time (HH:mm:ss) before returning said row.
+     *
+     * @param time to add
+     * @return this row
+     */
+    InfileRow append(LocalTime time);
+
     /**
      * Adds a boolean to this row before returning said row.
      */
     InfileRow append(Boolean b);
 
+    /**
+     * Adds a long to this row before returning said row. Implementations should write the digits directly rather than
+     * going through <code>Long.toString()</code>.
+     *
+     * @param l to add
+     * @return this row
+     */
+    InfileRow appendLong(long l);
+
+    /**
+     * Adds an int to this row before returning said row.
+     *
+     * @param i to add
+     * @return this row
+     */
+    InfileRow appendInt(int i);
+
+    /**
+     * Adds a double to this row before returning said row. The text written is the same as
+     * <code>Double.toString(d)</code>.
+     *
+     * @param d to add
+     * @return this row
+     */
+    InfileRow appendDouble(double d);
+
+    /**
+     * Adds a decimal to this row in plain (non scientific) notation before returning said row.
+     *
+     * @param d to add, <code>null</code> adds the null sequence
+     * @return this row
+     */
+    InfileRow appendDecimal(BigDecimal d);
+
     /**
      * Adds an arbitrary object to this row before returning said row. Equivalent of calling
      * <code>this.append(o.toString());</code>
@@ -46,6 +46,8 @@ public class InfileStatementCallback implements StatementCallback<List<Exception
     private String loadInfileSql;
     // Source of data.
     private InputStream inputStream;
+    // Rows affected by the statement, once executed
+    private volatile int updateCount = -1;
 
     /**
      * Constructs a callback from a SQL statement and a data stream from which to read.
@@ -71,6 +73,7 @@ public class InfileStatementCallback implements StatementCallback<List<Exception
                 mysqlStatement.setLocalInfileInputStream(this.inputStream);
             }
             statement.execute(loadInfileSql);
+            this.updateCount = statement.getUpdateCount();
             return extractWarnings(statement.getWarnings());
         }
         catch(NoSuchMethodException e) {
@@ -84,6 +87,15 @@ public class InfileStatementCallback implements StatementCallback<List<Exception
         }
     }
 
+    /**
+     * Gets the number of rows the statement loaded, as reported by the database.
+     *
+     * @return rows affected by the statement, or -1 if it has not been executed
+     */
+    public int getUpdateCount() {
+        return this.updateCount;
+    }
+
     /**
      * Adds all of the warnings in the chain of a passed warning to a collection.
      *
@@ -0,0 +1,169 @@
+package com.opower.persistence.jpile.infile;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import com.google.common.base.Preconditions;
+
+/**
+ * An input stream fed with infile segments detached from an {@link InfileDataBuffer} while it is being read. This lets
+ * one long running <code>LOAD DATA</code> statement consume rows as they are produced, instead of running a statement
+ * per full buffer. Segments are separated by a newline and recycled into the buffer as soon as they have been read.
+ * The stream ends once {@link #finish()} has been called and every queued segment has been read.
+ * <p>
+ * The queue of segments is bounded, so {@link #put(ByteBuffer)} blocks while the reader is behind. One thread may put
+ * segments while another reads.
+ *
+ * @author s-m
+ * @since 1.0
+ */
+public class SegmentQueueInputStream extends InputStream {
+    // Marks the end of the stream in the queue
+    private static final ByteBuffer END_OF_STREAM = ByteBuffer.allocate(0);
+    private static final long OFFER_TIMEOUT_MILLIS = 100;
+
+    private final InfileDataBuffer source;
+    private final BlockingQueue<ByteBuffer> segments;
+    private final ByteBuffer separator;
+
+    // Only accessed by the reading thread
+    private final byte[] singleByte = new byte[1];
+    private ByteBuffer current;
+    private boolean firstSegment = true;
+
+    private volatile boolean ended = false;
+    private volatile boolean closed = false;
+
+    /**
+     * @param source            buffer the segments are detached from and recycled into
+     * @param maxQueuedSegments number of segments that can wait to be read
+     */
+    public SegmentQueueInputStream(InfileDataBuffer source, int maxQueuedSegments) {
+        Preconditions.checkArgument(maxQueuedSegments > 0, "There must be room for at least one segment");
+        this.source = source;
+        this.segments = new ArrayBlockingQueue<ByteBuffer>(maxQueuedSegments + 1);
+        this.separator = ByteBuffer.wrap(source.getNewlineBytes()).asReadOnlyBuffer();
+        this.separator.position(this.separator.limit());
+    }
+
+    /**
+     * Queues a segment returned by {@link InfileDataBuffer#detachInfile()}, waiting while the queue is full.
+     *
+     * @param segment to queue
+     * @return false if the reader closed the stream before reaching its end, in which case the segment has been
+     *         recycled
+     */
+    public boolean put(ByteBuffer segment) {
+        try {
+            while(!this.segments.offer(segment, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                if(this.closed) {
+                    this.source.recycle(segment);
+                    return false;
+                }
+            }
+        }
+        catch(InterruptedException e) {
+            this.source.recycle(segment);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while queueing an infile segment", e);
+        }
+        if(this.closed) {
+            // The reader may have drained the queue just before the segment was added
+            this.recycleQueued();
+            return this.ended;
+        }
+        return true;
+    }
+
+    /**
+     * Ends the stream after the segments queued so far.
+     *
+     * @return false if the stream was closed by the reader
+     */
+    public boolean finish() {
+        return this.put(END_OF_STREAM);
+    }
+
+    @Override
+    public int read() {
+        return this.read(this.singleByte, 0, 1) == -1 ? -1 : this.singleByte[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) {
+        if(length == 0) {
+            return 0;
+        }
+        if(this.separator.hasRemaining()) {
+            int count = Math.min(length, this.separator.remaining());
+            this.separator.get(bytes, offset, count);
+            return count;
+        }
+        while(this.current == null || !this.current.hasRemaining()) {
+            if(!this.nextSegment()) {
+                return -1;
+            }
+            if(this.separator.hasRemaining()) {
+                return this.read(bytes, offset, length);
+            }
+        }
+        int count = Math.min(length, this.current.remaining());
+        this.current.get(bytes, offset, count);
+        return count;
+    }
+
+    private boolean nextSegment() {
+        if(this.current != null) {
+            this.source.recycle(this.current);
+            this.current = null;
+        }
+        if(this.ended) {
+            return false;
+        }
+        ByteBuffer segment;
+        try {
+            segment = this.segments.take();
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for an infile segment", e);
+        }
+        if(segment == END_OF_STREAM) {
+            this.ended = true;
+            return false;
+        }
+        if(segment.hasRemaining()) {
+            if(!this.firstSegment) {
+                this.separator.rewind();
+            }
+            this.firstSegment = false;
+        }
+        this.current = segment;
+        return true;
+    }
+
+    /**
+     * Closes the stream from the reading side. Queued segments are recycled, and any further {@link #put(ByteBuffer)}
+     * returns false instead of waiting for a reader that is gone.
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+        if(this.current != null) {
+            this.source.recycle(this.current);
+            this.current = null;
+        }
+        this.recycleQueued();
+    }
+
+    private void recycleQueued() {
+        ByteBuffer segment;
+        while((segment = this.segments.poll()) != null) {
+            if(segment != END_OF_STREAM) {
+                this.source.recycle(segment);
+            }
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package com.opower.persistence.jpile.loader;
+
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.List;
+import javax.persistence.TemporalType;
+import com.google.common.base.Preconditions;
+import com.google.common.primitives.Primitives;
+import com.opower.persistence.jpile.infile.InfileRow;
+import com.opower.persistence.jpile.reflection.PersistenceAnnotationInspector;
+import com.opower.persistence.jpile.reflection.PropertyAccessor;
+import com.opower.persistence.jpile.reflection.PropertyAccessors;
+import org.joda.time.LocalDate;
+import org.joda.time.LocalDateTime;
+import org.joda.time.LocalTime;
+import org.joda.time.ReadableInstant;
+
+/**
+ * Writes one column of an entity to an infile row. Writers are resolved once by {@link SingleInfileObjectLoaderBuilder}
+ * from the declared return type of the column's getter, so writing a row is a loop over a fixed array of writers
+ * without any map lookups, annotation lookups or <code>instanceof</code> checks. Columns of embedded objects are
+ * flattened into the same array: their writers first follow the getters that lead to the embedded object, and write
+ * null if any of them returns null.
+ * <p>
+ * Getters declared to return a type that does not match one of the typed writers, such as {@link Object}, fall back to
+ * inspecting each value.
+ *
+ * @author amir.raminfar
+ * @since 1.0
+ */
+abstract class ColumnWriter {
+    private final PropertyAccessor[] path;
+    private final PropertyAccessor accessor;
+
+    private ColumnWriter(List<PropertyAccessor> path, PropertyAccessor accessor) {
+        this.path = path.toArray(new PropertyAccessor[path.size()]);
+        this.accessor = accessor;
+    }
+
+    /**
+     * Creates the writer for a column
+     *
+     * @param path                           getters leading from the entity to the embedded object holding the column,
+     *                                       empty for columns of the entity itself
+     * @param getter                         the column's getter
+     * @param temporalType                   from <code>@Temporal</code> on the getter, or null
+     * @param persistenceAnnotationInspector to find ids of referenced entities
+     * @return the writer
+     */
+    static ColumnWriter forColumn(List<PropertyAccessor> path,
+                                  Method getter,
+                                  final TemporalType temporalType,
+                                  final PersistenceAnnotationInspector persistenceAnnotationInspector) {
+        PropertyAccessor accessor = PropertyAccessors.forGetter(getter);
+        Class<?> type = Primitives.wrap(getter.getReturnType());
+        if(persistenceAnnotationInspector.hasTableAnnotation(type)) {
+            Method idGetter = persistenceAnnotationInspector.idGetter(type);
+            if(idGetter != null) {
+                final PropertyAccessor idAccessor = PropertyAccessors.forGetter(idGetter);
+                return new ColumnWriter(path, accessor) {
+                    @Override
+                    protected void writeValue(Object value, InfileRow infileRow) {
+                        Long id = (Long) idAccessor.get(value);
+                        Preconditions.checkState(id != null, "@Id for [%s] is null", value);
+                        infileRow.appendLong(id);
+                    }
+                };
+            }
+        }
+        else if(type == Long.class) {
+            return new ColumnWriter(path, accessor) {
+                @Override
+                protected void writeValue(Object value, InfileRow infileRow) {
+                    infileRow.appendLong((Long) value);
+                }
+            };
+        }
+        else if(type == Integer.class || type == Short.class || type == Byte.class) {
+            return new ColumnWriter(path, accessor) {
+                @Override
+                protected void writeValue(Object value, InfileRow infileRow) {
+                    infileRow.appendInt(((Number) value).intValue());
+                }
+            };
+        }
+        else if(type == Double.class) {
+            return new ColumnWriter(path, accessor) {
+                @Override
+                protected void writeValue(Object value, InfileRow infileRow) {
+                    infileRow.appendDouble((Double) value);
+                }
+            };
+        }
+        else if(type == BigDecimal.class) {
+            return new ColumnWriter(path, accessor) {
+                @Override
+                protected void writeValue(Object value, InfileRow infileRow) {
+                    infileRow.appendDecimal((BigDecimal) value);
+                }
+            };
+        }
+        else if(Date.class.isAssignableFrom(type)) {
+            return new ColumnWriter(path, accessor) {
+                @Override
+                protected void writeValue(Object value, InfileRow infileRow) {
+                    infileRow.append((Date) value, temporalType);
+                }
+            };
+        }
+        else if(ReadableInstant.class.isAssignableFrom(type)) {
+            return new ColumnWriter(path, accessor) {
+                @Override
+                protected void writeValue(Object value, InfileRow infileRow) {
+                    infileRow.append((ReadableInstant) value);
+                }
+            };
+        }
+        else if(type == LocalDate.class) {
+            return new ColumnWriter(path, accessor) {
+                @Override
+                protected void writeValue(Object value, InfileRow infileRow) {
+                    infileRow.append((LocalDate) value);
+                }
+            };
+        }
+        else if(type == LocalDateTime.class) {
+            return new ColumnWriter(path, accessor) {
+                @Override
+                protected void writeValue(Object value, InfileRow infileRow) {
+                    infileRow.append((LocalDateTime) value);
+                }
+            };
+        }
+        else if(type == LocalTime.class) {
+            return new ColumnWriter(path, accessor) {
+                @Override
+                protected void writeValue(Object value, InfileRow infileRow) {
+                    infileRow.append((LocalTime) value);
+                }
+            };
+        }
+        else if(type == Boolean.class) {
+            return new ColumnWriter(path, accessor) {
+                @Override
+                protected void writeValue(Object value, InfileRow infileRow) {
+                    infileRow.append((Boolean) value);
+                }
+            };
+        }
+        else if(type == String.class) {
+            return new ColumnWriter(path, accessor) {
+                @Override
+                protected void writeValue(Object value, InfileRow infileRow) {
+                    infileRow.append((String) value);
+                }
+            };
+        }
+        else if(type == byte[].class) {
+            return new ColumnWriter(path, accessor) {
+                @Override
+                protected void writeValue(Object value, InfileRow infileRow) {
+                    infileRow.append((byte[]) value);
+                }
+            };
+        }
+        return new ColumnWriter(path, accessor) {
+            @Override
+            protected void writeValue(Object value, InfileRow infileRow) {
+                appendValue(persistenceAnnotationInspector, value, temporalType, infileRow);
+            }
+        };
+    }
+
+    /**
+     * Writes this column of an entity, or null if the entity or any embedded object leading to the column is null
+     *
+     * @param entity    to read the column from
+     * @param infileRow to write to
+     */
+    final void write(Object entity, InfileRow infileRow) {
+        Object target = entity;
+        for(int i = 0; i < this.path.length && target != null; i++) {
+            target = this.path[i].get(target);
+        }
+        Object value = target != null ? this.accessor.get(target) : null;
+        if(value != null) {
+            this.writeValue(value, infileRow);
+        }
+        else {
+            infileRow.appendNull();
+        }
+    }
+
+    /**
+     * @param value     the non-null value of the column
+     * @param infileRow to write to
+     */
+    protected abstract void writeValue(Object value, InfileRow infileRow);
+
+    /**
+     * Writes a value whose type is only known at runtime
+     */
+    private static void appendValue(PersistenceAnnotationInspector persistenceAnnotationInspector,
+                                    Object object,
+                                    TemporalType temporalType,
+                                    InfileRow infileRow) {
+        if(persistenceAnnotationInspector.hasTableAnnotation(object.getClass())) {
+            Long id = (Long) persistenceAnnotationInspector.getIdValue(object);
+            Preconditions.checkState(id != null, "@Id for [%s] is null", object);
+            object = id;
+        }
+        if(object instanceof Long) {
+            infileRow.appendLong((Long) object);
+        }
+        else if(object instanceof Integer || object instanceof Short || object instanceof Byte) {
+            infileRow.appendInt(((Number) object).intValue());
+        }
+        else if(object instanceof Double) {
+            infileRow.appendDouble((Double) object);
+        }
+        else if(object instanceof BigDecimal) {
+            infileRow.appendDecimal((BigDecimal) object);
+        }
+        else if(object instanceof Date) {
+            infileRow.append((Date) object, temporalType);
+        }
+        else if(object instanceof ReadableInstant) {
+            infileRow.append((ReadableInstant) object);
+        }
+        else if(object instanceof LocalDate) {
+            infileRow.append((LocalDate) object);
+        }
+        else if(object instanceof LocalDateTime) {
+            infileRow.append((LocalDateTime) object);
+        }
+        else if(object instanceof LocalTime) {
+            infileRow.append((LocalTime) object);
+        }
+        else if(object instanceof Boolean) {
+            infileRow.append((Boolean) object);
+        }
+        else if(object instanceof byte[]) {
+            infileRow.append((byte[]) object);
+        }
+        else {
+            infileRow.append(object);
+        }
+    }
+}
@@ -0,0 +1,299 @@
+package com.opower.persistence.jpile.loader;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.sql.SQLException;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.sql.DataSource;
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.opower.persistence.jpile.infile.InfileBufferArena;
+import com.opower.persistence.jpile.metrics.LoaderMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+
+import static com.google.common.base.Throwables.*;
+
+/**
+ * A {@link HierarchicalInfileObjectLoader} that many threads can persist objects with at the same time. Every thread
+ * encodes rows into infile buffers of its own, so encoding scales with the number of threads. Full buffers are handed
+ * to a flusher per table, which loads them on a connection of its own, taken from the data source with foreign key
+ * checks disabled. Threads only wait for each other when they hand buffers to the same table faster than it can load
+ * them.
+ * <pre>
+ *     ConcurrentHierarchicalInfileObjectLoader objectLoader = new ConcurrentHierarchicalInfileObjectLoader(dataSource);
+ *     try {
+ *         // From any number of threads
+ *         objectLoader.persist(foo, bar);
+ *     } finally {
+ *         // Once every thread is done persisting
+ *         objectLoader.close();
+ *     }
+ * </pre>
+ * The plan for walking the objects of each class is shared by all threads, and ids are allocated by one
+ * {@link IdAllocator} for all of them. {@link #flush()} and {@link #close()} must only be called once all threads have
+ * returned from {@link #persist(Object, Object...)}.
+ *
+ * @author amir.raminfar
+ * @since 1.0
+ */
+public class ConcurrentHierarchicalInfileObjectLoader implements Flushable, Closeable {
+    private static Logger logger = LoggerFactory.getLogger(ConcurrentHierarchicalInfileObjectLoader.class);
+
+    private final DataSource dataSource;
+    private final HierarchicalInfileObjectLoader plan = new HierarchicalInfileObjectLoader();
+    private final Queue<SingleConnectionDataSource> connections = new ConcurrentLinkedQueue<SingleConnectionDataSource>();
+    private final Queue<HierarchicalInfileObjectLoader> workers = new ConcurrentLinkedQueue<HierarchicalInfileObjectLoader>();
+    private final ThreadLocal<HierarchicalInfileObjectLoader> worker = new ThreadLocal<HierarchicalInfileObjectLoader>() {
+        @Override
+        protected HierarchicalInfileObjectLoader initialValue() {
+            return ConcurrentHierarchicalInfileObjectLoader.this.newWorker();
+        }
+    };
+    private final Cache<String, TableFlusher> tableFlushers = CacheBuilder.newBuilder().build(
+            new CacheLoader<String, TableFlusher>() {
+                @Override
+                public TableFlusher load(String tableName) {
+                    return new TableFlusher(tableName, newTableJdbcTemplate(tableName));
+                }
+            });
+
+    private volatile boolean closed = false;
+    private volatile boolean started = false;
+    private IdAllocator idAllocator;
+    private InfileBufferArena bufferArena = null;
+    private int buffersPerTable = 2;
+    private HierarchicalInfileObjectLoader.CallBack eventCallback = null;
+    private LoaderMetrics metrics = null;
+    private int encodeSampleInterval = 1;
+    private Set<Class> classesToIgnore = ImmutableSet.of();
+    private Set<String> secondaryClassesToIgnore = ImmutableSet.of();
+
+    /**
+     * @param dataSource to take a connection per table from, and to seed ids from
+     */
+    public ConcurrentHierarchicalInfileObjectLoader(DataSource dataSource) {
+        this.dataSource = Preconditions.checkNotNull(dataSource, "dataSource cannot be null");
+        this.idAllocator = LocalIdAllocator.shared(new JdbcTemplate(dataSource));
+    }
+
+    /**
+     * Saves each object using the calling thread's buffers. Safe to call from many threads at once.
+     *
+     * @param firstObject the first object to save
+     * @param moreObjects optional more objects
+     */
+    public void persist(Object firstObject, Object... moreObjects) {
+        Preconditions.checkState(!closed, "Cannot persist after closing");
+        started = true;
+        worker.get().persist(firstObject, moreObjects);
+    }
+
+    /**
+     * Flushes the buffers of every thread and waits until all rows have been loaded. Must only be called while no
+     * thread is persisting.
+     */
+    @Override
+    public void flush() {
+        logger.debug("Flushing the object loaders of {} threads.", workers.size());
+        RuntimeException error = null;
+        for(HierarchicalInfileObjectLoader workerLoader : workers) {
+            try {
+                workerLoader.flush();
+            }
+            catch(RuntimeException e) {
+                if(error == null) {
+                    error = e;
+                }
+            }
+        }
+        if(error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Flushes the buffers of every thread and closes the connection of every table. Must only be called while no
+     * thread is persisting.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            flush();
+        }
+        finally {
+            for(HierarchicalInfileObjectLoader workerLoader : workers) {
+                workerLoader.close();
+            }
+            workers.clear();
+            for(TableFlusher tableFlusher : tableFlushers.asMap().values()) {
+                tableFlusher.executor.shutdown();
+            }
+            tableFlushers.invalidateAll();
+            for(SingleConnectionDataSource connection : connections) {
+                connection.destroy();
+            }
+            connections.clear();
+        }
+    }
+
+    /**
+     * Sets where ids come from, shared by all threads. By default ids are allocated in memory by a
+     * {@link LocalIdAllocator#shared(JdbcTemplate) shared} allocator, continuing from the highest id already in each
+     * table. Nothing is reserved in the database, so when several processes load into the same tables use a
+     * {@link SequenceTableIdAllocator}. This must be set before anything is persisted.
+     *
+     * @param idAllocator to allocate ids
+     */
+    public void setIdAllocator(IdAllocator idAllocator) {
+        checkNotStarted();
+        this.idAllocator = Preconditions.checkNotNull(idAllocator, "idAllocator cannot be null");
+    }
+
+    /**
+     * Makes every thread take its infile buffers from a shared arena, which bounds the memory used by all threads
+     * together. This must be set before anything is persisted.
+     *
+     * @param bufferArena the arena to take infile segments from, or null to allocate buffers per thread and table
+     */
+    public void setBufferArena(InfileBufferArena bufferArena) {
+        checkNotStarted();
+        this.bufferArena = bufferArena;
+    }
+
+    /**
+     * Sets how many infile buffers each thread gets per table. While the table's flusher loads full buffers, the
+     * thread keeps encoding into a spare. This must be set before anything is persisted.
+     *
+     * @param buffersPerTable number of buffers per thread and table, at least 2 (the default)
+     */
+    public void setBuffersPerTable(int buffersPerTable) {
+        Preconditions.checkArgument(buffersPerTable > 1, "There must be a spare buffer to encode into while flushing");
+        checkNotStarted();
+        this.buffersPerTable = buffersPerTable;
+    }
+
+    /**
+     * Sets the callback for every saved object. The callback is called from the threads persisting, so it must be safe
+     * for use by multiple threads. This must be set before anything is persisted.
+     *
+     * @param eventCallback the callback
+     */
+    public void setEventCallback(HierarchicalInfileObjectLoader.CallBack eventCallback) {
+        checkNotStarted();
+        this.eventCallback = eventCallback;
+    }
+
+    /**
+     * Reports the measurements of every thread's loaders into the same metrics, see
+     * {@link HierarchicalInfileObjectLoader#setMetrics(LoaderMetrics)}. This must be set before anything is persisted.
+     *
+     * @param metrics to report to, or null to take no measurements
+     */
+    public void setMetrics(LoaderMetrics metrics) {
+        checkNotStarted();
+        this.metrics = metrics;
+    }
+
+    /**
+     * @param encodeSampleInterval number of rows per timed row, see
+     *                             {@link HierarchicalInfileObjectLoader#setEncodeSampleInterval(int)}
+     */
+    public void setEncodeSampleInterval(int encodeSampleInterval) {
+        Preconditions.checkArgument(encodeSampleInterval > 0, "encodeSampleInterval must be positive");
+        checkNotStarted();
+        this.encodeSampleInterval = encodeSampleInterval;
+    }
+
+    public void setClassesToIgnore(Set<Class> classesToIgnore) {
+        checkNotStarted();
+        this.classesToIgnore = classesToIgnore;
+    }
+
+    public void setSecondaryClassesToIgnore(Set<String> secondaryClassesToIgnore) {
+        checkNotStarted();
+        this.secondaryClassesToIgnore = secondaryClassesToIgnore;
+    }
+
+    private void checkNotStarted() {
+        Preconditions.checkState(!started, "Cannot change settings after persisting");
+    }
+
+    /**
+     * Opens the connection a table is loaded on, with foreign key checks disabled.
+     *
+     * @param tableName the table
+     * @return the template for the table's flusher
+     */
+    JdbcTemplate newTableJdbcTemplate(String tableName) {
+        SingleConnectionDataSource connection;
+        try {
+            connection = new SingleConnectionDataSource(dataSource.getConnection(), true);
+        }
+        catch(SQLException e) {
+            throw propagate(e);
+        }
+        connections.add(connection);
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(connection);
+        jdbcTemplate.execute("SET FOREIGN_KEY_CHECKS = 0;");
+        return jdbcTemplate;
+    }
+
+    private HierarchicalInfileObjectLoader newWorker() {
+        HierarchicalInfileObjectLoader workerLoader = new HierarchicalInfileObjectLoader(plan) {
+            @Override
+            JdbcTemplate newLoaderJdbcTemplate(String tableName) {
+                return tableFlushers.getUnchecked(tableName).jdbcTemplate;
+            }
+
+            @Override
+            void initFlushing(SingleInfileObjectLoader<Object> loader, String tableName) {
+                loader.setFlushExecutor(tableFlushers.getUnchecked(tableName).executor, buffersPerTable - 1);
+            }
+
+            @Override
+            boolean flushesInBackground() {
+                return true;
+            }
+        };
+        // Every table loads on the connection of its flusher, this only satisfies the connection check of persist()
+        workerLoader.setJdbcTemplate(new JdbcTemplate(dataSource));
+        workerLoader.setIdAllocator(idAllocator);
+        workerLoader.setBufferArena(bufferArena);
+        workerLoader.setClassesToIgnore(classesToIgnore);
+        workerLoader.setSecondaryClassesToIgnore(secondaryClassesToIgnore);
+        workerLoader.setMetrics(metrics);
+        workerLoader.setEncodeSampleInterval(encodeSampleInterval);
+        if(eventCallback != null) {
+            workerLoader.setEventCallback(eventCallback);
+        }
+        workers.add(workerLoader);
+        return workerLoader;
+    }
+
+    /**
+     * Loads the full buffers of one table, from every thread, one at a time on a connection of its own
+     */
+    private static final class TableFlusher {
+        private final JdbcTemplate jdbcTemplate;
+        private final ExecutorService executor;
+
+        private TableFlusher(String tableName, JdbcTemplate jdbcTemplate) {
+            this.jdbcTemplate = jdbcTemplate;
+            this.executor = Executors.newSingleThreadExecutor(
+                    new ThreadFactoryBuilder().setDaemon(true).setNameFormat("jpile-" + tableName + "-%d").build()
+            );
+        }
+    }
+}
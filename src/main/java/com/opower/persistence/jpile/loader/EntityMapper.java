@@ -0,0 +1,58 @@
+package com.opower.persistence.jpile.loader;
+
+import java.util.List;
+import com.opower.persistence.jpile.infile.InfileRow;
+
+/**
+ * Writes the columns of an entity's primary table with direct getter calls. Mappers are generated at build time by
+ * {@link com.opower.persistence.jpile.processor.EntityMapperProcessor} as a class named after the entity with
+ * {@link #CLASS_NAME_SUFFIX} appended, in the entity's package. {@link SingleInfileObjectLoaderBuilder} uses the
+ * generated mapper of a class when there is one whose columns and column types match the annotations found at runtime,
+ * and otherwise writes rows through reflection, so a mapper that was not generated again after its entity changed is
+ * not used.
+ * <p>
+ * Implementations must be stateless and safe for use by multiple threads.
+ *
+ * @param <E> the entity type
+ * @author amir.raminfar
+ * @since 1.0
+ */
+public interface EntityMapper<E> {
+    /**
+     * Appended to the name of an entity class to get the name of its generated mapper
+     */
+    String CLASS_NAME_SUFFIX = "_EntityMapper";
+
+    /**
+     * @return the primary table of the entity
+     */
+    String getTableName();
+
+    /**
+     * @return the columns of the table, in the order {@link #writeRow(Object, InfileRow)} writes them
+     */
+    List<String> getColumns();
+
+    /**
+     * Describes how every column is written: the canonical name of the getter's return type, followed by
+     * <code>@</code> and the {@link javax.persistence.TemporalType} of the getter's
+     * {@link javax.persistence.Temporal &#064;Temporal} annotation if it has one.
+     *
+     * @return the type of every column, in the order of {@link #getColumns()}
+     */
+    List<String> getColumnTypes();
+
+    /**
+     * @return the statement that loads the columns into the table
+     */
+    String getLoadInfileSql();
+
+    /**
+     * Writes every column of an entity, ids of referenced entities included. The id of the entity must already be set
+     * if it is generated.
+     *
+     * @param entity    the entity
+     * @param infileRow to write to
+     */
+    void writeRow(E entity, InfileRow infileRow);
+}
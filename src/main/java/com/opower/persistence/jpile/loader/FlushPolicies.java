@@ -0,0 +1,115 @@
+package com.opower.persistence.jpile.loader;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * The built in {@link FlushPolicy flush policies}, and a way to combine them. For example, to flush a table at least
+ * every minute and whenever it has buffered a thousand rows:
+ *
+ * <pre>
+ *     objectLoader.setFlushPolicy("lookup", FlushPolicies.anyOf(FlushPolicies.maxRows(1000),
+ *                                                                FlushPolicies.maxAge(1, TimeUnit.MINUTES)));
+ *     objectLoader.setFlushCheckInterval(1, TimeUnit.SECONDS);
+ * </pre>
+ *
+ * @author amir.raminfar
+ * @since 1.0
+ */
+public final class FlushPolicies {
+
+    private FlushPolicies() {
+    }
+
+    /**
+     * @param maxBytes size of the buffered rows at which to flush
+     * @return a policy that flushes once the buffered rows reach a size in infile format
+     */
+    public static FlushPolicy maxBytes(final int maxBytes) {
+        Preconditions.checkArgument(maxBytes > 0, "maxBytes must be positive");
+        return new FlushPolicy() {
+            @Override
+            public boolean shouldFlush(int rows, int bytes, long oldestRowMillis) {
+                return bytes >= maxBytes;
+            }
+        };
+    }
+
+    /**
+     * @param maxRows number of buffered rows at which to flush
+     * @return a policy that flushes once a number of rows are buffered
+     */
+    public static FlushPolicy maxRows(final int maxRows) {
+        Preconditions.checkArgument(maxRows > 0, "maxRows must be positive");
+        return new FlushPolicy() {
+            @Override
+            public boolean shouldFlush(int rows, int bytes, long oldestRowMillis) {
+                return rows >= maxRows;
+            }
+        };
+    }
+
+    /**
+     * Bounds how long a row waits to be loaded. Rows of a loader that no more rows are added to are only flushed if
+     * {@link HierarchicalInfileObjectLoader#setFlushCheckInterval} is set.
+     *
+     * @param maxAge   how long the oldest buffered row may wait
+     * @param timeUnit unit of the age
+     * @return a policy that flushes once the oldest buffered row has waited for a time
+     */
+    public static FlushPolicy maxAge(long maxAge, TimeUnit timeUnit) {
+        Preconditions.checkArgument(maxAge >= 0, "maxAge cannot be negative");
+        final long maxAgeMillis = timeUnit.toMillis(maxAge);
+        return new FlushPolicy() {
+            @Override
+            public boolean shouldFlush(int rows, int bytes, long oldestRowMillis) {
+                return System.currentTimeMillis() - oldestRowMillis >= maxAgeMillis;
+            }
+        };
+    }
+
+    /**
+     * Flushes every loader with buffered rows while the heap is almost full, so that buffered rows can be collected
+     * instead of running out of memory. The heap is measured through {@link Runtime}, including garbage that has not
+     * been collected yet.
+     *
+     * @param maxUsedHeapFraction fraction of the maximum heap size in use at which to flush, between 0 and 1
+     * @return a policy that flushes while more than a fraction of the heap is used
+     */
+    public static FlushPolicy memoryPressure(final double maxUsedHeapFraction) {
+        Preconditions.checkArgument(maxUsedHeapFraction > 0 && maxUsedHeapFraction <= 1,
+                                    "maxUsedHeapFraction must be between 0 and 1");
+        return new FlushPolicy() {
+            private final Runtime runtime = Runtime.getRuntime();
+
+            @Override
+            public boolean shouldFlush(int rows, int bytes, long oldestRowMillis) {
+                long used = runtime.totalMemory() - runtime.freeMemory();
+                return used >= maxUsedHeapFraction * runtime.maxMemory();
+            }
+        };
+    }
+
+    /**
+     * @param policies to combine
+     * @return a policy that flushes as soon as any of the policies would
+     */
+    public static FlushPolicy anyOf(FlushPolicy... policies) {
+        final List<FlushPolicy> all = ImmutableList.copyOf(Arrays.asList(policies));
+        Preconditions.checkArgument(!all.isEmpty(), "There must be at least one policy");
+        return new FlushPolicy() {
+            @Override
+            public boolean shouldFlush(int rows, int bytes, long oldestRowMillis) {
+                for(FlushPolicy policy : all) {
+                    if(policy.shouldFlush(rows, bytes, oldestRowMillis)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+        };
+    }
+}
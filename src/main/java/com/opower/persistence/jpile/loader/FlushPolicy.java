@@ -0,0 +1,24 @@
+package com.opower.persistence.jpile.loader;
+
+/**
+ * Decides when a loader flushes the rows it has buffered, in addition to flushing whenever its infile buffer is full.
+ * A policy is asked after every row is added, and, if {@link HierarchicalInfileObjectLoader#setFlushCheckInterval}
+ * is set, periodically while no rows are added. Policies are combined with {@link FlushPolicies#anyOf}. A policy may
+ * be shared by any number of loaders and threads.
+ *
+ * @author amir.raminfar
+ * @see FlushPolicies
+ * @since 1.0
+ */
+public interface FlushPolicy {
+
+    /**
+     * Decides whether the buffered rows of a loader should be flushed now. Only asked while rows are buffered.
+     *
+     * @param rows            number of rows buffered
+     * @param bytes           size of the buffered rows in infile format
+     * @param oldestRowMillis time the oldest buffered row was added, as returned by {@link System#currentTimeMillis()}
+     * @return true to flush the buffered rows
+     */
+    boolean shouldFlush(int rows, int bytes, long oldestRowMillis);
+}
@@ -2,36 +2,53 @@ package com.opower.persistence.jpile.loader;
 
 import java.io.Closeable;
 import java.io.Flushable;
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.ParameterizedType;
 import java.sql.Connection;
+import java.sql.SQLException;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import javax.persistence.ManyToOne;
 import javax.persistence.OneToMany;
 import javax.persistence.OneToOne;
 import javax.persistence.PrimaryKeyJoinColumn;
 import javax.persistence.SecondaryTable;
+import javax.sql.DataSource;
+import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableSet;
-import com.opower.persistence.jpile.config.JPileApplicationConfig;
+import com.google.common.collect.Lists;
+import com.google.common.collect.MapMaker;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.opower.persistence.jpile.infile.InfileBufferArena;
 import com.opower.persistence.jpile.infile.InfileDataBuffer;
-import com.opower.persistence.jpile.reflection.CacheablePersistenceAnnotationInspector;
+import com.opower.persistence.jpile.metrics.LoaderMetrics;
+import com.opower.persistence.jpile.reflection.ClassMetadataPersistenceAnnotationInspector;
 import com.opower.persistence.jpile.reflection.PersistenceAnnotationInspector;
+import com.opower.persistence.jpile.reflection.PropertyAccessor;
+import com.opower.persistence.jpile.reflection.PropertyAccessors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.context.ApplicationContext;
-import org.springframework.context.annotation.AnnotationConfigApplicationContext;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.datasource.SingleConnectionDataSource;
 
 import static com.google.common.base.Throwables.*;
 import static com.google.common.collect.ImmutableList.*;
 import static com.google.common.collect.Iterables.*;
+import static com.google.common.collect.Lists.*;
 import static com.google.common.collect.Maps.*;
 import static com.google.common.collect.Sets.*;
 
@@ -51,41 +68,140 @@ import static com.google.common.collect.Sets.*;
  * </pre>
  * Note that because the connection is passed in, it is up to the caller to close the connection correctly. Otherwise the
  * connection will never be closed.
+ * <p>
+ * A closed loader can be used again after {@link #setConnection(Connection)}, keeping its buffers and the columns of
+ * every class it has seen, which saves rebuilding them for every job. See
+ * {@link com.opower.persistence.jpile.factory.PooledHierarchicalInfileObjectLoaderFactory} to pool loaders.
  *
  *
  * @author amir.raminfar
  * @since 1.0
  */
 public class HierarchicalInfileObjectLoader implements Flushable, Closeable {
-    private static ApplicationContext applicationContext;
     private static Logger logger = LoggerFactory.getLogger(HierarchicalInfileObjectLoader.class);
 
-    static {
-        applicationContext = new AnnotationConfigApplicationContext(JPileApplicationConfig.class);
-    }
+    // Shared by every loader, so the metadata of a class is only resolved once
+    private static final PersistenceAnnotationInspector ANNOTATION_INSPECTOR
+            = new ClassMetadataPersistenceAnnotationInspector();
 
-
-    /**
-     * This is bad practice because it is breaking dependency injection guidelines. I don't have a better solution as of now
-     * but I will revisit to see if I can improve this without needing an application context.
-     */
-    private PersistenceAnnotationInspector persistenceAnnotationInspector =
-            applicationContext.getBean(PersistenceAnnotationInspector.class);
+    private final PersistenceAnnotationInspector persistenceAnnotationInspector;
 
     private CallBack eventCallback = new NoOpCallBack();
     private JdbcTemplate jdbcTemplate = null;
+    private InfileBufferArena bufferArena = null;
+    private int buffersPerTable = 1;
+    private ExecutorService flushExecutor = null;
+    private DataSource streamingDataSource = null;
+    private int maxQueuedSegments;
+    private ExecutorService streamExecutor = null;
+    private DataSource parallelFlushDataSource = null;
+    private int maxParallelFlushes;
+    // Connections of loaders that do not share the connection passed to setConnection()
+    private List<SingleConnectionDataSource> loaderConnections = newArrayList();
+    // Initial and maximum row buffer size per table name
+    private Map<String, int[]> rowBufferSizes = newHashMap();
+    private Map<String, Integer> tableParallelism = newHashMap();
+    private ExecutorService laneExecutor = null;
+    private IdAllocator idAllocator = null;
+    // True if idAllocator was created by this loader rather than set, in which case close() discards it so that the
+    // next job seeds the counters again from its own connection, see LocalIdAllocator.shared()
+    private boolean ownIdAllocator = false;
+    private boolean foreignKeyChecks = false;
+    private FlushPolicy flushPolicy = null;
+    private LoaderMetrics metrics = null;
+    private int encodeSampleInterval = 1;
+    private Map<String, FlushPolicy> tableFlushPolicies = newHashMap();
+    private ScheduledExecutorService flushPolicyScheduler = null;
+    private long flushCheckInterval = 0;
+    private TimeUnit flushCheckTimeUnit = null;
+    // First error of a flush started by the scheduler, rethrown by the next flush()
+    private RuntimeException scheduledFlushError = null;
+    // Rows added to each loader when the arena last ran out of segments, see reclaimSegments()
+    private Map<SingleInfileObjectLoader<Object>, Long> rowsAddedAtReclaim = newHashMap();
+    // Rows added to each loader at the last flush, see releaseIdleBuffers()
+    private Map<SingleInfileObjectLoader<Object>, Long> rowsAddedAtFlush = newHashMap();
+    // Buffers of the loaders of each table kept by close(), reused by the loaders created after it
+    private Map<String, List<InfileDataBuffer>> idleBuffers = newHashMap();
+    private final Runnable segmentReclaimer = new Runnable() {
+        @Override
+        public void run() {
+            reclaimSegments();
+        }
+    };
+    // Loaders grouped into waves that are flushed one after another, rebuilt when a loader is added
+    private List<List<SingleInfileObjectLoader<Object>>> flushWaves = null;
 
     // linked for consistent error message
     private Map<Class<?>, SingleInfileObjectLoader<Object>> primaryObjectLoaders = newLinkedHashMap();
     private Map<Class<?>, SingleInfileObjectLoader<Object>> secondaryTableObjectLoaders = newLinkedHashMap();
-    private Map<Class<?>, Set<Method>> parentDependent = newHashMap();
-    private Map<Class<?>, Set<Method>> childDependent = newHashMap();
+    // The plan for walking entities, safe to read and extend concurrently so it can be shared between instances
+    private final ConcurrentMap<Class<?>, Set<Method>> parentDependent;
+    private final ConcurrentMap<Class<?>, Set<Method>> childDependent;
+    private final ConcurrentMap<Method, PropertyAccessor> dependentAccessors;
+    // Loaders of each class, primary table first, that the loaders of instances sharing the plan are copied from
+    private final ConcurrentMap<Class<?>, List<SingleInfileObjectLoader<Object>>> loaderTemplates;
     private Set<Class> classesToIgnore = ImmutableSet.of();
     private Set<String> secondaryClassesToIgnore = ImmutableSet.of();
 
 
+    /**
+     * Creates a loader that reads the persistence annotations through an inspector shared by every loader created this
+     * way. No application context is needed.
+     */
     public HierarchicalInfileObjectLoader() {
-        this.persistenceAnnotationInspector = applicationContext.getBean(PersistenceAnnotationInspector.class);
+        this(ANNOTATION_INSPECTOR);
+    }
+
+    /**
+     * Creates a loader that reads the persistence annotations through a given inspector, such as the one configured by
+     * {@link com.opower.persistence.jpile.config.JPileApplicationConfig}.
+     *
+     * @param persistenceAnnotationInspector to read the persistence annotations with
+     */
+    public HierarchicalInfileObjectLoader(PersistenceAnnotationInspector persistenceAnnotationInspector) {
+        Preconditions.checkNotNull(persistenceAnnotationInspector, "persistenceAnnotationInspector cannot be null");
+        this.persistenceAnnotationInspector = persistenceAnnotationInspector;
+        this.parentDependent = new MapMaker().makeMap();
+        this.childDependent = new MapMaker().makeMap();
+        this.dependentAccessors = new MapMaker().makeMap();
+        this.loaderTemplates = new MapMaker().makeMap();
+    }
+
+    /**
+     * Creates a loader that shares the plan for walking entities with another loader, so that the dependents and the
+     * columns of each class are only looked up once. A plan warmed with {@link #prepare(Class[])} can be shared this
+     * way by loaders created later on. The loaders can be used by different threads, but each one has its own
+     * settings, connection and buffers.
+     *
+     * @param planSource the loader to share the plan with
+     */
+    public HierarchicalInfileObjectLoader(HierarchicalInfileObjectLoader planSource) {
+        Preconditions.checkNotNull(planSource, "planSource cannot be null");
+        this.persistenceAnnotationInspector = planSource.persistenceAnnotationInspector;
+        this.parentDependent = planSource.parentDependent;
+        this.childDependent = planSource.childDependent;
+        this.dependentAccessors = planSource.dependentAccessors;
+        this.loaderTemplates = planSource.loaderTemplates;
+    }
+
+    /**
+     * Creates the loaders of some classes, and of every class their relations reach, before any entity is persisted.
+     * Otherwise this happens when the first entity of each class is persisted. The columns of the classes are looked
+     * up in parallel, and every class that cannot be mapped is reported at once. Call this after the connection and
+     * the other settings are set, since they are applied to the loaders it creates.
+     *
+     * @param classes the classes of the entities that will be persisted
+     * @throws IllegalStateException if any of the classes cannot be mapped
+     */
+    public synchronized void prepare(Class<?>... classes) {
+        Set<Class<?>> reachable = newLinkedHashSet();
+        for(Class<?> aClass : classes) {
+            findReachableClasses(aClass, reachable);
+        }
+        createLoaderTemplates(reachable);
+        for(Class<?> aClass : reachable) {
+            createObjectLoader(aClass);
+        }
     }
 
     /**
@@ -94,10 +210,18 @@ public class HierarchicalInfileObjectLoader implements Flushable, Closeable {
      * @param firstObject the first object to save
      * @param moreObjects optional more objects
      */
-    public void persist(Object firstObject, Object... moreObjects) {
-        Preconditions.checkNotNull("Connection is null, did you call setConnection()?", jdbcTemplate);
+    public synchronized void persist(Object firstObject, Object... moreObjects) {
+        Preconditions.checkNotNull(jdbcTemplate, "Connection is null, did you call setConnection()?");
         for(Object o : concat(of(firstObject), copyOf(moreObjects))) {
-            persistWithCyclicCheck(o, new HashSet<Object>());
+            Set<Object> cyclicCheck = new HashSet<Object>();
+            if(metrics != null) {
+                long start = System.nanoTime();
+                persistWithCyclicCheck(o, cyclicCheck);
+                metrics.entityGraphPersisted(o.getClass(), cyclicCheck.size(), System.nanoTime() - start);
+            }
+            else {
+                persistWithCyclicCheck(o, cyclicCheck);
+            }
         }
     }
 
@@ -138,7 +262,7 @@ public class HierarchicalInfileObjectLoader implements Flushable, Closeable {
         callOnAfterEvent(entity);
 
         // Get generated id
-        Object id = CacheablePersistenceAnnotationInspector.getIdValue(persistenceAnnotationInspector, entity);
+        Object id = persistenceAnnotationInspector.getIdValue(entity);
 
         // Find all objects that depend entity's id being generated and save these now
         for(Method dependent : parentDependent.get(entity.getClass())) {
@@ -150,7 +274,7 @@ public class HierarchicalInfileObjectLoader implements Flushable, Closeable {
                     }
                 }
                 else {
-                    CacheablePersistenceAnnotationInspector.setIdValue(persistenceAnnotationInspector, o, id);
+                    persistenceAnnotationInspector.setIdValue(o, id);
                     persistWithCyclicCheck(o, cyclicCheck);
                 }
             }
@@ -180,31 +304,275 @@ public class HierarchicalInfileObjectLoader implements Flushable, Closeable {
         if(primaryObjectLoaders.containsKey(aClass)) {
             return;
         }
-        @SuppressWarnings("unchecked")
-        SingleInfileObjectLoader<Object> primaryLoader = new SingleInfileObjectLoaderBuilder<Object>((Class<Object>) aClass)
-                .withBuffer(newInfileDataBuffer())
-                .withDefaultTableName()
-                .withJdbcTemplate(jdbcTemplate)
-                .usingHibernateBeanUtils(persistenceAnnotationInspector)
-                .build();
+        List<SingleInfileObjectLoader<Object>> templates = loaderTemplates(aClass);
+        if(flushPolicyScheduler == null && flushCheckInterval > 0) {
+            startFlushCheck();
+        }
+        primaryObjectLoaders.put(aClass, newObjectLoader(templates.get(0)));
 
-        primaryObjectLoaders.put(aClass, primaryLoader);
+        for(SingleInfileObjectLoader<Object> secondaryTemplate : templates.subList(1, templates.size())) {
+            if(!secondaryClassesToIgnore.contains(secondaryTemplate.tableName)) {
+                secondaryTableObjectLoaders.put(aClass, newObjectLoader(secondaryTemplate));
+            }
+        }
+
+        flushWaves = null;
+        if(foreignKeyChecks) {
+            initDependencies();
+        }
+    }
+
+    /**
+     * Copies a template into a loader with its own connection and buffer, set up with the settings of this loader.
+     *
+     * @param template built by {@link #loaderTemplates(Class)}
+     * @return the new loader
+     */
+    private SingleInfileObjectLoader<Object> newObjectLoader(SingleInfileObjectLoader<Object> template) {
+        String tableName = template.tableName;
+        SingleInfileObjectLoader<Object> loader
+                = template.newLane(newLoaderJdbcTemplate(tableName), newTableBuffer(tableName));
+        loader.idAllocator = idAllocator();
+        initFlushing(loader, tableName);
+        initLanes(loader, tableName);
+        initFlushPolicy(loader, tableName);
+        loader.setMetrics(metrics, tableName);
+        loader.setEncodeSampleInterval(encodeSampleInterval);
+        return loader;
+    }
 
+    /**
+     * Builds the loaders of a class once per plan. They are only used as templates: they never get rows, and their
+     * buffers are not allocated until a row is added.
+     *
+     * @param aClass the class
+     * @return the loader of the primary table followed by the loaders of every secondary table
+     */
+    private List<SingleInfileObjectLoader<Object>> loaderTemplates(Class<?> aClass) {
+        List<SingleInfileObjectLoader<Object>> templates = loaderTemplates.get(aClass);
+        if(templates != null) {
+            return templates;
+        }
+        List<SingleInfileObjectLoader<Object>> loaders = newArrayList();
+        @SuppressWarnings("unchecked")
+        Class<Object> objectClass = (Class<Object>) aClass;
+        loaders.add(new SingleInfileObjectLoaderBuilder<Object>(objectClass)
+                            .withBuffer(new InfileDataBuffer())
+                            .withDefaultTableName()
+                            .withJdbcTemplate(new JdbcTemplate())
+                            .usingHibernateBeanUtils(persistenceAnnotationInspector)
+                            .build());
         for(SecondaryTable secondaryTable : persistenceAnnotationInspector.findSecondaryTables(aClass)) {
-            if(!secondaryClassesToIgnore.contains(secondaryTable.name())) {
-                @SuppressWarnings("unchecked")
-                SingleInfileObjectLoader<Object> secondaryLoader
-                        = new SingleInfileObjectLoaderBuilder<Object>((Class<Object>) aClass)
-                        .withBuffer(newInfileDataBuffer())
-                        .withDefaultTableName()
-                        .usingSecondaryTable(secondaryTable)
-                        .withJdbcTemplate(jdbcTemplate)
-                        .usingHibernateBeanUtils(persistenceAnnotationInspector)
-                        .build();
+            loaders.add(new SingleInfileObjectLoaderBuilder<Object>(objectClass)
+                                .withBuffer(new InfileDataBuffer())
+                                .withDefaultTableName()
+                                .usingSecondaryTable(secondaryTable)
+                                .withJdbcTemplate(new JdbcTemplate())
+                                .usingHibernateBeanUtils(persistenceAnnotationInspector)
+                                .build());
+        }
+        // Another thread may have built them in the meantime
+        templates = loaderTemplates.putIfAbsent(aClass, copyOf(loaders));
+        return templates != null ? templates : loaderTemplates.get(aClass);
+    }
+
+    /**
+     * Builds the missing templates of classes on a thread per available processor, and reports every class that
+     * cannot be mapped.
+     *
+     * @param classes the classes
+     * @throws IllegalStateException if any of the classes cannot be mapped
+     */
+    private void createLoaderTemplates(Collection<Class<?>> classes) {
+        List<Class<?>> missing = newArrayList();
+        for(Class<?> aClass : classes) {
+            if(!loaderTemplates.containsKey(aClass)) {
+                missing.add(aClass);
+            }
+        }
+        if(missing.isEmpty()) {
+            return;
+        }
+        Map<Class<?>, Future<?>> builds = newLinkedHashMap();
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(missing.size(), Runtime.getRuntime().availableProcessors()),
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("jpile-prepare-%d").build()
+        );
+        try {
+            for(final Class<?> aClass : missing) {
+                builds.put(aClass, executor.submit(new Callable<List<SingleInfileObjectLoader<Object>>>() {
+                    @Override
+                    public List<SingleInfileObjectLoader<Object>> call() {
+                        return loaderTemplates(aClass);
+                    }
+                }));
+            }
+            List<String> errors = newArrayList();
+            Throwable cause = null;
+            for(Map.Entry<Class<?>, Future<?>> build : builds.entrySet()) {
+                try {
+                    build.getValue().get();
+                }
+                catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while preparing loaders", e);
+                }
+                catch(ExecutionException e) {
+                    errors.add(String.format("[%s] %s", build.getKey().getName(), e.getCause()));
+                    cause = cause == null ? e.getCause() : cause;
+                }
+            }
+            if(!errors.isEmpty()) {
+                throw new IllegalStateException("Cannot map " + Joiner.on(", ").join(errors), cause);
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Adds a class, and every class its relations reach, to a set unless they are ignored. Their dependents are added
+     * to the plan on the way.
+     */
+    private void findReachableClasses(Class<?> aClass, Set<Class<?>> reachable) {
+        if(classesToIgnore.contains(aClass) || !reachable.add(aClass)) {
+            return;
+        }
+        findParentDependents(aClass);
+        findChildDependents(aClass);
+        for(Method m : concat(childDependent.get(aClass), parentDependent.get(aClass))) {
+            findReachableClasses(getReturnType(m), reachable);
+        }
+    }
+
+    /**
+     * Makes every loader flush the tables it references before it flushes a full buffer, so that no row is loaded
+     * before the rows it references.
+     *
+     * @throws IllegalStateException if tables reference each other in a cycle
+     */
+    private void initDependencies() {
+        TableDependencyGraph graph = dependencyGraph();
+        for(SingleInfileObjectLoader<Object> loader : allLoaders()) {
+            List<SingleInfileObjectLoader<Object>> dependencies = newArrayList();
+            for(String tableName : graph.dependenciesOf(loader.tableName)) {
+                dependencies.addAll(loadersByTable().get(tableName));
+            }
+            loader.setDependencies(dependencies);
+        }
+    }
+
+    /**
+     * Builds the graph of tables referencing each other from the dependents of every class with a loader. The side of
+     * a relation that holds the foreign key references the other side: the class of a {@link ManyToOne}, the class of
+     * a {@link OneToOne} without <code>mappedBy</code> and the element class of a {@link OneToMany}. A secondary table
+     * references the primary table of its class.
+     *
+     * @return the graph of all tables with a loader
+     */
+    TableDependencyGraph dependencyGraph() {
+        TableDependencyGraph graph = new TableDependencyGraph();
+        for(Map.Entry<Class<?>, SingleInfileObjectLoader<Object>> entry : primaryObjectLoaders.entrySet()) {
+            String tableName = entry.getValue().tableName;
+            graph.addTable(tableName);
+            for(Method m : concat(childDependent.get(entry.getKey()), parentDependent.get(entry.getKey()))) {
+                SingleInfileObjectLoader<Object> other = primaryObjectLoaders.get(getReturnType(m));
+                if(other == null) {
+                    continue;
+                }
+                if(holdsForeignKey(m)) {
+                    graph.addReference(tableName, other.tableName);
+                }
+                else {
+                    graph.addReference(other.tableName, tableName);
+                }
+            }
+        }
+        for(Map.Entry<Class<?>, SingleInfileObjectLoader<Object>> entry : secondaryTableObjectLoaders.entrySet()) {
+            graph.addReference(entry.getValue().tableName, primaryObjectLoaders.get(entry.getKey()).tableName);
+        }
+        return graph;
+    }
+
+    /**
+     * @param m getter of a relation
+     * @return true if the table of the class declaring the getter holds the foreign key of the relation
+     */
+    private boolean holdsForeignKey(Method m) {
+        OneToOne oneToOne = persistenceAnnotationInspector.findAnnotation(m, OneToOne.class);
+        if(oneToOne != null) {
+            return oneToOne.mappedBy().isEmpty();
+        }
+        return persistenceAnnotationInspector.hasAnnotation(m, ManyToOne.class);
+    }
+
+    /**
+     * With foreign key checks enabled, every wave only holds tables whose referenced tables were flushed by earlier
+     * waves. Otherwise there is a single wave in which referenced tables come first, unless tables reference each
+     * other in a cycle.
+     *
+     * @return the loaders in the order they are flushed
+     */
+    private List<List<SingleInfileObjectLoader<Object>>> flushWaves() {
+        if(flushWaves == null) {
+            TableDependencyGraph graph = dependencyGraph();
+            flushWaves = newArrayList();
+            if(foreignKeyChecks) {
+                for(List<String> wave : graph.waves()) {
+                    flushWaves.add(loadersOf(wave));
+                }
+            }
+            else if(graph.hasCycle()) {
+                logger.debug("Tables reference each other in a cycle, flushing them in the order they were added.");
+                flushWaves.add(newArrayList(allLoaders()));
+            }
+            else {
+                flushWaves.add(loadersOf(concat(graph.waves())));
+            }
+        }
+        return flushWaves;
+    }
+
+    private List<SingleInfileObjectLoader<Object>> loadersOf(Iterable<String> tableNames) {
+        Map<String, List<SingleInfileObjectLoader<Object>>> loadersByTable = loadersByTable();
+        List<SingleInfileObjectLoader<Object>> loaders = newArrayList();
+        for(String tableName : tableNames) {
+            loaders.addAll(loadersByTable.get(tableName));
+        }
+        return loaders;
+    }
 
-                secondaryTableObjectLoaders.put(aClass, secondaryLoader);
+    private Map<String, List<SingleInfileObjectLoader<Object>>> loadersByTable() {
+        Map<String, List<SingleInfileObjectLoader<Object>>> loadersByTable = newHashMap();
+        for(SingleInfileObjectLoader<Object> loader : allLoaders()) {
+            if(!loadersByTable.containsKey(loader.tableName)) {
+                loadersByTable.put(loader.tableName, Lists.<SingleInfileObjectLoader<Object>>newArrayList());
             }
+            loadersByTable.get(loader.tableName).add(loader);
+        }
+        return loadersByTable;
+    }
+
+    private Iterable<SingleInfileObjectLoader<Object>> allLoaders() {
+        return concat(primaryObjectLoaders.values(), secondaryTableObjectLoaders.values());
+    }
+
+    /**
+     * Unless one was set, ids are allocated in memory from counters shared by every loader on the same schema, which
+     * this job raises to the highest id already in each table.
+     *
+     * @return the allocator shared by all loaders
+     */
+    private IdAllocator idAllocator() {
+        if(idAllocator == null) {
+            DataSource loaderDataSource = loaderDataSource();
+            idAllocator = LocalIdAllocator.shared(jdbcTemplate == null && loaderDataSource != null
+                                                 ? new JdbcTemplate(loaderDataSource)
+                                                 : jdbcTemplate);
+            ownIdAllocator = true;
         }
+        return idAllocator;
     }
 
 
@@ -215,6 +583,8 @@ public class HierarchicalInfileObjectLoader implements Flushable, Closeable {
         Set<Method> methods = newHashSet(persistenceAnnotationInspector.methodsAnnotatedWith(aClass, OneToMany.class));
         methods.addAll(persistenceAnnotationInspector.methodsAnnotatedWith(aClass, OneToOne.class,
                                                                            PrimaryKeyJoinColumn.class));
+        // Accessors first, so that another thread that finds the class in the plan can use them
+        createAccessors(methods);
         parentDependent.put(aClass, methods.size() > 0 ? methods : ImmutableSet.<Method>of());
 
         // Do all children again
@@ -238,6 +608,7 @@ public class HierarchicalInfileObjectLoader implements Flushable, Closeable {
             }
         }));
 
+        createAccessors(methods);
         childDependent.put(aClass, methods.size() > 0 ? methods : ImmutableSet.<Method>of());
 
         // Do all children again
@@ -259,56 +630,615 @@ public class HierarchicalInfileObjectLoader implements Flushable, Closeable {
         return returnType;
     }
 
-    private InfileDataBuffer newInfileDataBuffer() {
-        return new InfileDataBuffer();
+    /**
+     * Sets up how a new loader flushes full buffers.
+     *
+     * @param loader    the new loader
+     * @param tableName the table it loads into
+     */
+    void initFlushing(SingleInfileObjectLoader<Object> loader, String tableName) {
+        if(streamingDataSource != null) {
+            if(streamExecutor == null) {
+                streamExecutor = Executors.newCachedThreadPool(
+                        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("jpile-stream-%d").build()
+                );
+            }
+            loader.setStreaming(streamExecutor, maxQueuedSegments);
+        }
+        else if(buffersPerTable > 1) {
+            loader.setFlushExecutor(flushExecutor(), buffersPerTable - 1);
+        }
     }
 
-    private Object invoke(Method method, Object target) {
+    /**
+     * Spreads the rows of a table over several lanes if parallelism was set for it. The first lane loads over the
+     * loader's own connection and buffer, which the loader no longer uses itself, and every other lane takes a
+     * connection and a buffer of its own.
+     *
+     * @param loader    the new loader
+     * @param tableName the table it loads into
+     */
+    private void initLanes(SingleInfileObjectLoader<Object> loader, String tableName) {
+        Integer laneCount = tableParallelism.get(tableName);
+        if(laneCount == null) {
+            return;
+        }
+        List<SingleInfileObjectLoader<Object>> lanes = newArrayList();
+        for(int i = 0; i < laneCount; i++) {
+            SingleInfileObjectLoader<Object> lane = i == 0
+                    ? loader.newLane(loader.jdbcTemplate, loader.infileDataBuffer)
+                    : loader.newLane(newLoaderJdbcTemplate(tableName), newTableBuffer(tableName));
+            if(streamingDataSource != null) {
+                lane.setStreaming(streamExecutor, maxQueuedSegments);
+            }
+            else {
+                // Lanes always load in the background, otherwise they would load one after another
+                lane.setFlushExecutor(laneExecutor(), Math.max(1, buffersPerTable - 1));
+            }
+            lanes.add(lane);
+        }
+        loader.setStreaming(null, 0);
+        loader.setFlushExecutor(null, 0);
+        loader.setLanes(lanes);
+    }
+
+    private void initFlushPolicy(SingleInfileObjectLoader<Object> loader, String tableName) {
+        FlushPolicy tableFlushPolicy = tableFlushPolicies.get(tableName);
+        loader.setFlushPolicy(tableFlushPolicy != null ? tableFlushPolicy : flushPolicy);
+    }
+
+    /**
+     * Flushes the loaders whose flush policy says so, so that rows are flushed by age while none are added. An error
+     * is kept for the next {@link #flush()} to rethrow.
+     */
+    synchronized void flushDueLoaders() {
         try {
-            return method.invoke(target);
+            for(SingleInfileObjectLoader<Object> loader : allLoaders()) {
+                loader.flushIfDue();
+            }
         }
-        catch(InvocationTargetException e) {
-            throw propagate(e);
+        catch(RuntimeException e) {
+            logger.debug("Flush started by the flush policy failed.", e);
+            if(scheduledFlushError == null) {
+                scheduledFlushError = e;
+            }
+        }
+    }
+
+    private ExecutorService laneExecutor() {
+        if(laneExecutor == null) {
+            laneExecutor = Executors.newCachedThreadPool(
+                    new ThreadFactoryBuilder().setDaemon(true).setNameFormat("jpile-lane-%d").build()
+            );
+        }
+        return laneExecutor;
+    }
+
+    /**
+     * @return a buffer for a loader of a table, kept from an earlier loader of the table if there is one
+     */
+    private InfileDataBuffer newTableBuffer(String tableName) {
+        List<InfileDataBuffer> buffers = idleBuffers.get(tableName);
+        InfileDataBuffer buffer = buffers != null && !buffers.isEmpty()
+                                  ? buffers.remove(buffers.size() - 1)
+                                  : newInfileDataBuffer();
+        int[] sizes = rowBufferSizes.get(tableName);
+        if(sizes != null) {
+            buffer.setRowBufferSize(sizes[0], sizes[1]);
+        }
+        return buffer;
+    }
+
+    private ExecutorService flushExecutor() {
+        if(flushExecutor == null) {
+            ThreadFactory threadFactory
+                    = new ThreadFactoryBuilder().setDaemon(true).setNameFormat("jpile-flush-%d").build();
+            // Unless every loader has a connection of its own, a single thread, because they share the one connection
+            flushExecutor = parallelFlushDataSource != null
+                            ? Executors.newFixedThreadPool(maxParallelFlushes, threadFactory)
+                            : Executors.newSingleThreadExecutor(threadFactory);
+        }
+        return flushExecutor;
+    }
+
+    /**
+     * @return true if loaders hand full buffers to an executor, see {@link #initFlushing}
+     */
+    boolean flushesInBackground() {
+        return streamingDataSource == null && buffersPerTable > 1;
+    }
+
+    /**
+     * When streaming, every loader keeps a statement open and needs a connection of its own, and when flushing in
+     * parallel every loader loads on a connection of its own. Otherwise all loaders share the connection passed to
+     * {@link #setConnection(Connection)}.
+     *
+     * @param tableName the table the loader loads into
+     * @return the template for a new loader
+     */
+    JdbcTemplate newLoaderJdbcTemplate(String tableName) {
+        DataSource loaderDataSource = loaderDataSource();
+        if(loaderDataSource == null) {
+            return jdbcTemplate;
+        }
+        Connection connection;
+        try {
+            connection = loaderDataSource.getConnection();
         }
-        catch(IllegalAccessException e) {
+        catch(SQLException e) {
             throw propagate(e);
         }
+        SingleConnectionDataSource dataSource = new SingleConnectionDataSource(connection, true);
+        loaderConnections.add(dataSource);
+        JdbcTemplate template = new JdbcTemplate(dataSource);
+        initForeignKeyChecks(template);
+        return template;
+    }
+
+    /**
+     * @return the data source to take a connection per loader from, or null if loaders share one connection
+     */
+    private DataSource loaderDataSource() {
+        return streamingDataSource != null ? streamingDataSource : parallelFlushDataSource;
+    }
+
+    private InfileDataBuffer newInfileDataBuffer() {
+        if(bufferArena == null) {
+            return new InfileDataBuffer();
+        }
+        InfileDataBuffer buffer = new InfileDataBuffer(bufferArena);
+        buffer.setSegmentReclaimer(segmentReclaimer);
+        return buffer;
+    }
+
+    /**
+     * Called when the arena has no segment left for a table that needs one. Tables that have not been given a row
+     * since the last time this happened give their segment back first, and of the others the table with the most rows
+     * waiting is flushed. If those segments are still being loaded, the table waits for them.
+     */
+    private void reclaimSegments() {
+        SingleInfileObjectLoader<Object> fullest = null;
+        for(SingleInfileObjectLoader<Object> loader : allLoaders()) {
+            Long rowsAddedBefore = rowsAddedAtReclaim.put(loader, loader.getRowsAdded());
+            if(loader.getBufferedBytes() == 0) {
+                continue;
+            }
+            if(rowsAddedBefore != null && rowsAddedBefore == loader.getRowsAdded()) {
+                logger.debug("Releasing the infile buffer of idle table [{}].", loader.tableName);
+                loader.flushBuffered();
+            }
+            else if(fullest == null || loader.getBufferedBytes() > fullest.getBufferedBytes()) {
+                fullest = loader;
+            }
+        }
+        if(fullest != null) {
+            logger.debug("Memory budget exhausted, flushing table [{}].", fullest.tableName);
+            fullest.flushBuffered();
+        }
+    }
+
+    private Object invoke(Method method, Object target) {
+        return dependentAccessors.get(method).get(target);
+    }
+
+    private void createAccessors(Set<Method> methods) {
+        for(Method method : methods) {
+            if(!dependentAccessors.containsKey(method)) {
+                dependentAccessors.putIfAbsent(method, PropertyAccessors.forGetter(method));
+            }
+        }
     }
 
     /**
-     * Flushes all object loaders
+     * Flushes all object loaders, referenced tables first. When flushing in the background, all loaders hand over their
+     * buffers first and then this waits for every load to complete. With foreign key checks enabled this is done wave by
+     * wave, see {@link #setForeignKeyChecks(boolean)}. Tables that have not been given a row since the last flush give
+     * up their infile buffers until they get rows again. If a flush started by {@link #setFlushCheckInterval} failed
+     * since the last flush, its error is rethrown.
      */
     @Override
-    public void flush() {
+    public synchronized void flush() {
         logger.debug("Flushing all object loaders.");
-        for(SingleInfileObjectLoader<?> loader : primaryObjectLoaders.values()) {
-            loader.flush();
+        for(List<SingleInfileObjectLoader<Object>> wave : flushWaves()) {
+            flush(wave);
+        }
+        releaseIdleBuffers();
+        if(scheduledFlushError != null) {
+            RuntimeException error = scheduledFlushError;
+            scheduledFlushError = null;
+            throw error;
+        }
+    }
+
+    /**
+     * Tables that have not been given a row since the last flush give up their infile buffers, which are allocated
+     * again when they get rows.
+     */
+    private void releaseIdleBuffers() {
+        for(SingleInfileObjectLoader<Object> loader : allLoaders()) {
+            Long rowsAddedBefore = rowsAddedAtFlush.put(loader, loader.getRowsAdded());
+            if(rowsAddedBefore != null && rowsAddedBefore == loader.getRowsAdded()) {
+                loader.releaseBuffer();
+            }
+        }
+    }
+
+    private void flush(List<SingleInfileObjectLoader<Object>> loaders) {
+        if(streamExecutor != null) {
+            for(SingleInfileObjectLoader<?> loader : loaders) {
+                loader.streamInfile();
+            }
+            for(SingleInfileObjectLoader<?> loader : loaders) {
+                loader.endStream();
+            }
+        }
+        else if(flushesInBackground()) {
+            for(SingleInfileObjectLoader<?> loader : loaders) {
+                loader.flushInBackground();
+            }
+            for(SingleInfileObjectLoader<?> loader : loaders) {
+                loader.awaitFlushes();
+            }
+        }
+        else if(parallelFlushDataSource != null) {
+            flushInParallel(loaders);
+        }
+        else {
+            for(SingleInfileObjectLoader<?> loader : loaders) {
+                loader.flush();
+            }
+        }
+    }
+
+    /**
+     * Flushes every loader on the flush executor, each on its own connection, and waits for all of them. If any of them
+     * failed, the first error is rethrown once all of them are done.
+     */
+    private void flushInParallel(List<SingleInfileObjectLoader<Object>> loaders) {
+        List<Future<?>> flushes = newArrayList();
+        for(final SingleInfileObjectLoader<?> loader : loaders) {
+            flushes.add(flushExecutor().submit(new Runnable() {
+                @Override
+                public void run() {
+                    loader.flush();
+                }
+            }));
+        }
+        RuntimeException error = null;
+        for(Future<?> flush : flushes) {
+            try {
+                flush.get();
+            }
+            catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for a flush", e);
+            }
+            catch(ExecutionException e) {
+                if(error == null) {
+                    error = propagate(e.getCause());
+                }
+            }
         }
-        for(SingleInfileObjectLoader<?> loader : secondaryTableObjectLoaders.values()) {
-            loader.flush();
+        if(error != null) {
+            throw error;
         }
     }
 
     /**
-     * Closes all object loaders
+     * Flushes and closes all object loaders, and stops the threads and closes the connections they use. The plan for
+     * walking entities and the buffers of the loaders are kept, and so are the settings of this loader: it has to be
+     * bound to another connection with {@link #setConnection(Connection)} before it is used for the next job. The
+     * default id allocator is discarded, so the next job seeds ids again from the highest id in each table.
      */
     @Override
-    public void close() {
-        flush();
-        logger.debug("Closing all object loaders.");
-        primaryObjectLoaders.clear();
-        secondaryTableObjectLoaders.clear();
+    public synchronized void close() {
+        try {
+            flush();
+        }
+        finally {
+            if(flushPolicyScheduler != null) {
+                flushPolicyScheduler.shutdown();
+                flushPolicyScheduler = null;
+            }
+            logger.debug("Closing all object loaders.");
+            keepIdleBuffers();
+            primaryObjectLoaders.clear();
+            secondaryTableObjectLoaders.clear();
+            flushWaves = null;
+            rowsAddedAtReclaim.clear();
+            rowsAddedAtFlush.clear();
+            if(flushExecutor != null) {
+                flushExecutor.shutdown();
+                flushExecutor = null;
+            }
+            if(streamExecutor != null) {
+                streamExecutor.shutdown();
+                streamExecutor = null;
+            }
+            if(laneExecutor != null) {
+                laneExecutor.shutdown();
+                laneExecutor = null;
+            }
+            for(SingleConnectionDataSource dataSource : loaderConnections) {
+                dataSource.destroy();
+            }
+            loaderConnections.clear();
+            // The connection belongs to the caller, who may close it once this loader is released
+            jdbcTemplate = null;
+            // The next job seeds the counters again, from the highest ids in the tables of its own connection
+            if(ownIdAllocator) {
+                idAllocator = null;
+                ownIdAllocator = false;
+            }
+        }
+    }
+
+    /**
+     * Keeps the buffers of every loader, emptied, for the loaders created after {@link #close()}.
+     */
+    private void keepIdleBuffers() {
+        for(SingleInfileObjectLoader<Object> loader : allLoaders()) {
+            if(!idleBuffers.containsKey(loader.tableName)) {
+                idleBuffers.put(loader.tableName, Lists.<InfileDataBuffer>newArrayList());
+            }
+            List<InfileDataBuffer> buffers = idleBuffers.get(loader.tableName);
+            for(InfileDataBuffer buffer : loader.getInfileDataBuffers()) {
+                // The first lane shares the buffer of its loader
+                if(!buffers.contains(buffer)) {
+                    buffer.reset();
+                    buffers.add(buffer);
+                }
+            }
+        }
     }
 
     /**
      * Wraps the connection in a {@link SingleConnectionDataSource} because foreign keys need to be disabled. With
-     * multiple connections foreign keys and not guaranteed to be always disabled.
+     * multiple connections foreign keys and not guaranteed to be always disabled. Foreign key checks are left as they
+     * are if {@link #setForeignKeyChecks(boolean)} enabled them.
      *
      * @param connection the connection use for the database
      */
     public void setConnection(Connection connection) {
         this.jdbcTemplate = new JdbcTemplate(new SingleConnectionDataSource(connection, true));
-        this.jdbcTemplate.execute("SET FOREIGN_KEY_CHECKS = 0;");
+        initForeignKeyChecks(this.jdbcTemplate);
+    }
+
+    private void initForeignKeyChecks(JdbcTemplate template) {
+        if(!foreignKeyChecks) {
+            template.execute("SET FOREIGN_KEY_CHECKS = 0;");
+        }
+    }
+
+    /**
+     * Reports the rows, flushes and statements of every table, and how long encoding and loading took. Use
+     * {@link com.opower.persistence.jpile.metrics.JmxLoaderMetrics} to watch the tables over JMX. The same metrics can
+     * be given to several instances of this class. This must be set before anything is persisted.
+     *
+     * @param metrics to report to, or null to take no measurements
+     */
+    public void setMetrics(LoaderMetrics metrics) {
+        Preconditions.checkState(primaryObjectLoaders.isEmpty(), "Cannot change metrics after persisting");
+        this.metrics = metrics;
+    }
+
+    /**
+     * Times only one in every so many rows encoded for the metrics, see
+     * {@link InfileObjectLoader#setEncodeSampleInterval(int)}. This must be set before anything is persisted.
+     *
+     * @param encodeSampleInterval number of rows per timed row, 1 to time every row
+     */
+    public void setEncodeSampleInterval(int encodeSampleInterval) {
+        Preconditions.checkArgument(encodeSampleInterval > 0, "encodeSampleInterval must be positive");
+        Preconditions.checkState(primaryObjectLoaders.isEmpty(), "Cannot change metrics after persisting");
+        this.encodeSampleInterval = encodeSampleInterval;
+    }
+
+    /**
+     * Flushes the rows of every table before its infile buffer is full whenever the policy says so, unless the table
+     * has a policy of its own. This must be set before anything is persisted.
+     *
+     * @param flushPolicy when to flush, or null to only flush full buffers
+     * @see FlushPolicies
+     */
+    public void setFlushPolicy(FlushPolicy flushPolicy) {
+        Preconditions.checkState(primaryObjectLoaders.isEmpty(), "Cannot change the flush policy after persisting");
+        this.flushPolicy = flushPolicy;
+    }
+
+    /**
+     * Flushes the rows of one table before its infile buffer is full whenever the policy says so, so small and large
+     * tables can be flushed differently. This must be set before anything is persisted.
+     *
+     * @param tableName   the table, primary or secondary
+     * @param flushPolicy when to flush the table
+     */
+    public void setFlushPolicy(String tableName, FlushPolicy flushPolicy) {
+        Preconditions.checkNotNull(tableName, "tableName cannot be null");
+        Preconditions.checkNotNull(flushPolicy, "flushPolicy cannot be null");
+        Preconditions.checkState(primaryObjectLoaders.isEmpty(), "Cannot change a flush policy after persisting");
+        tableFlushPolicies.put(tableName, flushPolicy);
+    }
+
+    /**
+     * Asks the flush policies of all tables whether to flush at a fixed interval on a thread of its own, so that
+     * {@link FlushPolicies#maxAge} is honoured while no rows are added. While the check runs, persisting waits.
+     * The thread is stopped by {@link #close()}, and started again when entities are persisted after that.
+     *
+     * @param interval between checks
+     * @param timeUnit unit of the interval
+     */
+    public synchronized void setFlushCheckInterval(long interval, TimeUnit timeUnit) {
+        Preconditions.checkArgument(interval > 0, "interval must be positive");
+        Preconditions.checkNotNull(timeUnit, "timeUnit cannot be null");
+        if(flushPolicyScheduler != null) {
+            flushPolicyScheduler.shutdown();
+        }
+        flushCheckInterval = interval;
+        flushCheckTimeUnit = timeUnit;
+        startFlushCheck();
+    }
+
+    private void startFlushCheck() {
+        flushPolicyScheduler = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("jpile-flush-policy-%d").build()
+        );
+        flushPolicyScheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                flushDueLoaders();
+            }
+        }, flushCheckInterval, flushCheckInterval, flushCheckTimeUnit);
+    }
+
+    /**
+     * Keeps foreign key checks enabled on every connection instead of disabling them. Tables are then flushed in
+     * waves: a table is only flushed once every table it references has been flushed, and before a full buffer is
+     * flushed the tables it references are flushed. Tables of the same wave are flushed at the same time when flushing
+     * in parallel or in the background. Tables that reference each other in a cycle cannot be loaded this way, and
+     * persisting them throws an {@link IllegalStateException} naming the cycle.
+     * <p>
+     * This must be set before {@link #setConnection(Connection)} and before anything is persisted.
+     *
+     * @param foreignKeyChecks true to leave foreign key checks enabled
+     */
+    public void setForeignKeyChecks(boolean foreignKeyChecks) {
+        Preconditions.checkState(jdbcTemplate == null && primaryObjectLoaders.isEmpty(),
+                                 "Foreign key checks must be set before the connection");
+        this.foreignKeyChecks = foreignKeyChecks;
+    }
+
+    /**
+     * Makes every object loader created from now on take its infile buffer from a shared arena instead of allocating
+     * its own. Segments are only held by tables that have rows waiting to be flushed and go back to the arena after
+     * every flush. The arena can be shared by several instances of this class.
+     *
+     * @param bufferArena the arena to take infile segments from, or null to allocate a buffer per table
+     */
+    public void setBufferArena(InfileBufferArena bufferArena) {
+        this.bufferArena = bufferArena;
+    }
+
+    /**
+     * Caps the memory taken by infile buffers of all tables, however many tables are loaded. Tables take segments of
+     * <code>segmentSize</code> bytes from an arena of direct buffers holding at most <code>budgetBytes</code>, see
+     * {@link #setBufferArena(InfileBufferArena)}. When the budget is exhausted, tables that have not been given rows
+     * recently are flushed to release their segments, and then the table with the most rows waiting. When those
+     * segments are still being loaded, persisting waits for them. This must be set before anything is persisted.
+     *
+     * @param budgetBytes maximum number of bytes in infile buffers, at least one segment
+     * @param segmentSize size in bytes of the infile buffer of a table
+     */
+    public void setMemoryBudget(long budgetBytes, int segmentSize) {
+        Preconditions.checkState(primaryObjectLoaders.isEmpty(), "Cannot change the memory budget after persisting");
+        setBufferArena(new InfileBufferArena(segmentSize, budgetBytes));
+    }
+
+    /**
+     * Sets how many infile buffers each table gets. With more than one, a full buffer is loaded on a background
+     * thread while rows keep being encoded into a spare, so encoding and MySQL's ingestion overlap. Errors from
+     * background loads are rethrown by {@link #persist(Object, Object...)}, {@link #flush()} or {@link #close()}.
+     * This must be set before anything is persisted.
+     *
+     * @param buffersPerTable number of buffers per table, 1 (the default) flushes on the calling thread
+     */
+    public void setBuffersPerTable(int buffersPerTable) {
+        Preconditions.checkArgument(buffersPerTable > 0, "There must be at least one buffer per table");
+        Preconditions.checkState(primaryObjectLoaders.isEmpty(), "Cannot change buffers after persisting");
+        this.buffersPerTable = buffersPerTable;
+    }
+
+    /**
+     * Streams every table through one long running <code>LOAD DATA</code> statement instead of running a statement
+     * per full buffer. Each table keeps a statement open on a connection of its own, taken from the data source and
+     * with foreign key checks disabled, from its first full buffer until {@link #flush()}. Memory stays bounded by
+     * <code>maxQueuedSegments</code> full buffers per table. The connections are closed by {@link #close()}. Streaming
+     * takes precedence over {@link #setBuffersPerTable(int)}. This must be set before anything is persisted.
+     *
+     * @param dataSource        to take a connection per table from, or null to stop streaming
+     * @param maxQueuedSegments maximum number of full buffers per table waiting to be read by its statement
+     */
+    public void setStreaming(DataSource dataSource, int maxQueuedSegments) {
+        Preconditions.checkArgument(dataSource == null || maxQueuedSegments > 0,
+                                    "There must be room for at least one queued segment");
+        Preconditions.checkState(primaryObjectLoaders.isEmpty(), "Cannot change streaming after persisting");
+        this.streamingDataSource = dataSource;
+        this.maxQueuedSegments = maxQueuedSegments;
+    }
+
+    /**
+     * Sizes the row buffer of a table. Tables with large TEXT or BLOB columns can start with a larger row buffer, and
+     * allow rows to grow beyond the infile buffer, in which case such rows are loaded on their own. This must be set
+     * before the table's first object is persisted.
+     *
+     * @param tableName        name of the primary or secondary table
+     * @param rowBufferSize    initial size in bytes of the row buffer
+     * @param maxRowBufferSize size in bytes up to which the row buffer may grow
+     */
+    public void setRowBufferSize(String tableName, int rowBufferSize, int maxRowBufferSize) {
+        Preconditions.checkNotNull(tableName, "tableName cannot be null");
+        Preconditions.checkArgument(rowBufferSize > 0, "Row buffer size must be positive");
+        Preconditions.checkArgument(maxRowBufferSize >= rowBufferSize,
+                                    "Maximum row buffer size cannot be smaller than the initial size");
+        rowBufferSizes.put(tableName, new int[]{rowBufferSize, maxRowBufferSize});
+    }
+
+    /**
+     * Sets where ids come from for entities with an auto generated id that is not set yet. By default ids are
+     * allocated in memory by a {@link LocalIdAllocator#shared(JdbcTemplate) shared} allocator, from counters shared by
+     * every loader on the same schema and raised to the highest id in each table at the start of every job. Loaders
+     * running in parallel in one JVM therefore never hand out the same id, but nothing is reserved in the database:
+     * when several processes load into the same tables, or rows are added while loading, use a
+     * {@link SequenceTableIdAllocator}. This must be set before anything is persisted.
+     *
+     * @param idAllocator to allocate ids, shared by every table
+     */
+    public void setIdAllocator(IdAllocator idAllocator) {
+        Preconditions.checkState(primaryObjectLoaders.isEmpty(), "Cannot change the id allocator after persisting");
+        this.idAllocator = idAllocator;
+        this.ownIdAllocator = false;
+    }
+
+    /**
+     * Flushes the tables in parallel, each on a connection of its own taken from the data source with foreign key
+     * checks disabled. With foreign key checks off the tables are independent, so a flush takes about as long as the
+     * largest table instead of all tables one after another. At most <code>maxParallelFlushes</code> tables are loaded
+     * at once. With {@link #setBuffersPerTable(int)} background loads run in parallel as well. The connections are
+     * closed by {@link #close()}. This must be set before anything is persisted.
+     *
+     * @param dataSource         to take a connection per table from, or null to flush on the shared connection
+     * @param maxParallelFlushes maximum number of tables loaded at once
+     */
+    public void setParallelFlush(DataSource dataSource, int maxParallelFlushes) {
+        Preconditions.checkArgument(dataSource == null || maxParallelFlushes > 0,
+                                    "There must be at least one flush at a time");
+        Preconditions.checkState(primaryObjectLoaders.isEmpty(), "Cannot change parallel flushing after persisting");
+        this.parallelFlushDataSource = dataSource;
+        this.maxParallelFlushes = maxParallelFlushes;
+    }
+
+    /**
+     * Loads a table over several connections at once. Rows are spread round-robin over <code>lanes</code> buffers,
+     * each loaded by statements of its own on a connection of its own, while rows keep being encoded. Warnings and row
+     * counts of all lanes are reported by the table's loader. This needs connections per loader, so either
+     * {@link #setParallelFlush(DataSource, int)} or streaming must be set, and it must be set before anything is
+     * persisted.
+     *
+     * @param tableName the table to load in parallel
+     * @param lanes     number of connections to load the table over, 1 to load over a single connection
+     */
+    public void setTableParallelism(String tableName, int lanes) {
+        Preconditions.checkNotNull(tableName, "tableName cannot be null");
+        Preconditions.checkArgument(lanes > 0, "There must be at least one lane");
+        Preconditions.checkState(loaderDataSource() != null,
+                                 "Loading a table in parallel needs a data source to take connections from");
+        Preconditions.checkState(primaryObjectLoaders.isEmpty(), "Cannot change table parallelism after persisting");
+        if(lanes == 1) {
+            tableParallelism.remove(tableName);
+        }
+        else {
+            tableParallelism.put(tableName, lanes);
+        }
     }
 
     public void setClassesToIgnore(Set<Class> classToIgnore) {
@@ -0,0 +1,22 @@
+package com.opower.persistence.jpile.loader;
+
+/**
+ * Hands out ids for entities whose <code>@Id</code> is <code>@GeneratedValue(strategy = AUTO)</code> and not set yet.
+ * Ids are loaded with the rows, so the allocator, rather than MySQL, decides them. An allocator may be shared by any
+ * number of loaders and threads, and must never hand out the same id twice for a table.
+ *
+ * @author amir.raminfar
+ * @see LocalIdAllocator
+ * @see SequenceTableIdAllocator
+ * @since 1.0
+ */
+public interface IdAllocator {
+
+    /**
+     * Allocates the next id for a table
+     *
+     * @param tableName the table the entity is loaded into
+     * @return a new id, never handed out before for this table
+     */
+    long nextId(String tableName);
+}
@@ -1,12 +1,27 @@
 package com.opower.persistence.jpile.loader;
 
 import java.io.Flushable;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.io.CountingInputStream;
+import com.opower.persistence.jpile.infile.ByteBufferInputStream;
 import com.opower.persistence.jpile.infile.InfileDataBuffer;
 import com.opower.persistence.jpile.infile.InfileRow;
 import com.opower.persistence.jpile.infile.InfileStatementCallback;
+import com.opower.persistence.jpile.infile.SegmentQueueInputStream;
+import com.opower.persistence.jpile.metrics.LoaderMetrics;
 import org.springframework.jdbc.core.JdbcTemplate;
 
 /**
@@ -20,6 +35,13 @@ import org.springframework.jdbc.core.JdbcTemplate;
  * {@link #add(Object)} method. This will ensure that any objects that were not auto-flushed as a result of a full buffer
  * are pushed as well.
  * <p>
+ * By default a full buffer is flushed on the calling thread. With {@link #setFlushExecutor(ExecutorService, int)} full
+ * buffers are instead loaded in the background while rows keep being encoded into a spare buffer. {@link #flush()}
+ * then waits for all background loads, and any error they raised is rethrown to the caller.
+ * <p>
+ * With {@link #setStreaming(ExecutorService, int)} a single statement is kept open from the first full buffer until
+ * {@link #flush()}, and full buffers are streamed into it through a bounded queue.
+ * <p>
  * Instances of this class are not safe for use by multiple threads.
  *
  * @param <E> entity to be converted to infile row
@@ -37,6 +59,41 @@ public abstract class InfileObjectLoader<E> implements Flushable {
     // build a very large one if needed.
     private List<Exception> warnings;
 
+    // Background flushing, see setFlushExecutor()
+    private ExecutorService flushExecutor;
+    private int maxPendingFlushes;
+    private final Queue<Future<List<Exception>>> pendingFlushes = new LinkedList<Future<List<Exception>>>();
+
+    // Streaming into one open statement, see setStreaming()
+    private ExecutorService streamExecutor;
+    private int maxQueuedSegments;
+    private SegmentQueueInputStream stream;
+    private Future<List<Exception>> streamLoad;
+
+    // Loaders that rows are spread over round-robin, see setLanes()
+    private List<? extends InfileObjectLoader<E>> lanes;
+    private int nextLane;
+
+    // Loaders of referenced tables, flushed before a full buffer of this loader, see setDependencies()
+    private List<? extends InfileObjectLoader<?>> dependencies = Collections.emptyList();
+
+    // Flushing before the buffer is full, see setFlushPolicy(). Rows are only counted if there is a policy.
+    private FlushPolicy flushPolicy;
+    private int bufferedRows;
+    private long oldestRowMillis;
+
+    // Measurements, only taken if there are metrics, see setMetrics()
+    private LoaderMetrics metrics;
+    private String metricsTableName;
+    private int encodeSampleInterval = 1;
+    private int rowsUntilSample = 1;
+
+    // Rows added so far, including rows spread over lanes
+    private long rowsAdded;
+
+    // Rows reported as loaded by the database, updated by background loads
+    private final AtomicLong rowsLoaded = new AtomicLong();
+
     /**
      * Creates a loader with a template for executing JDBC call, an infile SQL statement, and a data buffer.
      *
@@ -65,15 +122,87 @@ public abstract class InfileObjectLoader<E> implements Flushable {
     public void add(E entity) {
         Preconditions.checkNotNull(entity, "Entity to add cannot be null");
 
-        this.convertToInfileRow(entity, this.infileDataBuffer.newRow());
+        this.rowsAdded++;
+        if(this.lanes != null) {
+            this.lanes.get(this.nextLane).add(entity);
+            this.nextLane = (this.nextLane + 1) % this.lanes.size();
+            return;
+        }
+        if(this.metrics == null) {
+            this.convertToInfileRow(entity, this.infileDataBuffer.newRow());
+        }
+        else if(--this.rowsUntilSample == 0) {
+            this.rowsUntilSample = this.encodeSampleInterval;
+            long start = System.nanoTime();
+            this.convertToInfileRow(entity, this.infileDataBuffer.newRow());
+            this.metrics.rowEncoded(this.metricsTableName, System.nanoTime() - start);
+        }
+        else {
+            this.convertToInfileRow(entity, this.infileDataBuffer.newRow());
+            this.metrics.rowEncoded(this.metricsTableName, LoaderMetrics.NOT_SAMPLED);
+        }
+        if(this.infileDataBuffer.isRowLargerThanInfile()) {
+            // The row can never fit into the infile buffer, so load the rows before it and then load it on its own.
+            // This also ends any open stream, since the connection can only run one statement at a time.
+            this.flushDependencies();
+            if(this.streamExecutor != null || this.flushExecutor != null || !this.infileDataBuffer.isEmpty()) {
+                this.flush();
+            }
+            this.addWarnings(this.load(this.infileDataBuffer.rowAsInputStream()));
+            return;
+        }
         if(!this.infileDataBuffer.addRowToInfile()) {
-            this.flush();
+            this.flushFullBuffer();
             if(!this.infileDataBuffer.addRowToInfile()) {
                 // This should be impossible, as the buffer asserts that an empty infile can accept
                 // any valid row.
                 throw new IllegalStateException("Cannot add row to infile, even though infile has been flushed.");
             }
         }
+        if(this.flushPolicy != null) {
+            if(this.bufferedRows++ == 0) {
+                this.oldestRowMillis = System.currentTimeMillis();
+            }
+            this.flushIfDue();
+        }
+    }
+
+    /**
+     * Flushes the buffered rows if the flush policy says so. Lets rows be flushed by age while none are added.
+     *
+     * @return true if rows were flushed
+     */
+    boolean flushIfDue() {
+        if(this.lanes != null) {
+            boolean flushed = false;
+            for(InfileObjectLoader<E> lane : this.lanes) {
+                flushed |= lane.flushIfDue();
+            }
+            return flushed;
+        }
+        if(this.flushPolicy == null || this.bufferedRows == 0
+           || !this.flushPolicy.shouldFlush(this.bufferedRows, this.infileDataBuffer.size(), this.oldestRowMillis)) {
+            return false;
+        }
+        this.flushFullBuffer();
+        return true;
+    }
+
+    /**
+     * Flushes the buffered rows before the infile buffer is full whenever the policy says so. Rows are flushed the way
+     * a full buffer is, so in the background or into the open stream if this loader does that.
+     *
+     * @param flushPolicy when to flush, or null to only flush full buffers
+     */
+    public void setFlushPolicy(FlushPolicy flushPolicy) {
+        this.flushPolicy = flushPolicy;
+        this.bufferedRows = this.infileDataBuffer == null || this.infileDataBuffer.isEmpty() ? 0 : 1;
+        this.oldestRowMillis = System.currentTimeMillis();
+        if(this.lanes != null) {
+            for(InfileObjectLoader<E> lane : this.lanes) {
+                lane.setFlushPolicy(flushPolicy);
+            }
+        }
     }
 
     /**
@@ -82,18 +211,471 @@ public abstract class InfileObjectLoader<E> implements Flushable {
      * @return errors that occurred during flushes
      */
     public List<Exception> getWarnings() {
+        if(this.lanes != null) {
+            List<Exception> allWarnings = new ArrayList<Exception>(this.getOwnWarnings());
+            for(InfileObjectLoader<E> lane : this.lanes) {
+                allWarnings.addAll(lane.getWarnings());
+            }
+            return allWarnings;
+        }
+        return this.getOwnWarnings();
+    }
+
+    private List<Exception> getOwnWarnings() {
         return this.warnings == null ? Collections.<Exception>emptyList() : this.warnings;
     }
 
     /**
-     * Flushes the current contents of the infile buffer to the database, and then clears the buffer for writing.
+     * Reports rows encoded, buffers flushed and statements run by this loader, and by its lanes, under a table name.
+     *
+     * @param metrics   to report to, or null to take no measurements
+     * @param tableName the table to report under
+     */
+    public void setMetrics(LoaderMetrics metrics, String tableName) {
+        Preconditions.checkArgument(metrics == null || tableName != null, "tableName cannot be null");
+        this.metrics = metrics;
+        this.metricsTableName = tableName;
+        if(this.lanes != null) {
+            for(InfileObjectLoader<E> lane : this.lanes) {
+                lane.setMetrics(metrics, tableName);
+            }
+        }
+    }
+
+    /**
+     * Times only one in every so many rows encoded, which keeps the cost of metrics on encoding close to nothing. Every
+     * row is still counted.
+     *
+     * @param encodeSampleInterval number of rows per timed row, 1 to time every row
+     */
+    public void setEncodeSampleInterval(int encodeSampleInterval) {
+        Preconditions.checkArgument(encodeSampleInterval > 0, "encodeSampleInterval must be positive");
+        this.encodeSampleInterval = encodeSampleInterval;
+        this.rowsUntilSample = 1;
+        if(this.lanes != null) {
+            for(InfileObjectLoader<E> lane : this.lanes) {
+                lane.setEncodeSampleInterval(encodeSampleInterval);
+            }
+        }
+    }
+
+    private void reportBufferFlushed(int bytes) {
+        if(this.metrics != null) {
+            this.metrics.bufferFlushed(this.metricsTableName, bytes, this.infileDataBuffer.getInfileBufferSize());
+        }
+    }
+
+    /**
+     * Gets the number of rows the database reported as loaded by all flushes of this loader so far.
+     *
+     * @return rows loaded
+     */
+    public long getRowsLoaded() {
+        long rows = this.rowsLoaded.get();
+        if(this.lanes != null) {
+            for(InfileObjectLoader<E> lane : this.lanes) {
+                rows += lane.getRowsLoaded();
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Spreads rows round-robin over several loaders into the same table, instead of encoding them into this loader's
+     * buffer. Each lane should load over a connection of its own and flush in the background or stream, so that one
+     * table is loaded by several statements at once. Flushing this loader flushes every lane, and the warnings and row
+     * counts of the lanes are merged into this loader's.
+     *
+     * @param lanes loaders to spread rows over, or null to encode rows into this loader again
+     */
+    void setLanes(List<? extends InfileObjectLoader<E>> lanes) {
+        Preconditions.checkArgument(lanes == null || !lanes.isEmpty(), "There must be at least one lane");
+        Preconditions.checkState(this.infileDataBuffer == null || this.infileDataBuffer.isEmpty(),
+                                 "Cannot change lanes with rows waiting to be flushed");
+        this.lanes = lanes;
+        this.nextLane = 0;
+        if(lanes != null) {
+            for(InfileObjectLoader<E> lane : lanes) {
+                lane.setDependencies(this.dependencies);
+                lane.setFlushPolicy(this.flushPolicy);
+                lane.setMetrics(this.metrics, this.metricsTableName);
+                lane.setEncodeSampleInterval(this.encodeSampleInterval);
+            }
+        }
+    }
+
+    /**
+     * Sets loaders to flush before a full buffer of this loader is flushed, so that rows referenced by the buffer are in
+     * the database before it is loaded with foreign key checks enabled. Flushing this loader itself does not flush
+     * them.
+     *
+     * @param dependencies loaders of referenced tables, in the order to flush them
+     */
+    void setDependencies(List<? extends InfileObjectLoader<?>> dependencies) {
+        this.dependencies = Preconditions.checkNotNull(dependencies, "dependencies cannot be null");
+        if(this.lanes != null) {
+            for(InfileObjectLoader<E> lane : this.lanes) {
+                lane.setDependencies(dependencies);
+            }
+        }
+    }
+
+    /**
+     * @return number of rows added to this loader so far
+     */
+    long getRowsAdded() {
+        return this.rowsAdded;
+    }
+
+    /**
+     * @return size in infile format of the rows waiting to be flushed, including the rows of lanes
+     */
+    int getBufferedBytes() {
+        if(this.lanes != null) {
+            int bytes = 0;
+            for(InfileObjectLoader<E> lane : this.lanes) {
+                bytes += lane.getBufferedBytes();
+            }
+            return bytes;
+        }
+        return this.infileDataBuffer.size();
+    }
+
+    /**
+     * Flushes the rows waiting to be flushed the way a full buffer is, without waiting for background loads.
+     */
+    void flushBuffered() {
+        if(this.getBufferedBytes() > 0) {
+            this.flushFullBuffer();
+        }
+    }
+
+    /**
+     * Gives up the memory of the infile buffer until the next row is added, unless rows are waiting to be flushed or
+     * loads are still pending.
+     */
+    void releaseBuffer() {
+        if(this.lanes != null) {
+            for(InfileObjectLoader<E> lane : this.lanes) {
+                lane.releaseBuffer();
+            }
+        }
+        else if(this.infileDataBuffer.isEmpty() && this.pendingFlushes.isEmpty() && this.stream == null) {
+            this.infileDataBuffer.releaseInfileBuffer();
+        }
+    }
+
+    /**
+     * @return the buffer of this loader, or the buffers of its lanes if rows are spread over lanes
+     */
+    List<InfileDataBuffer> getInfileDataBuffers() {
+        if(this.lanes == null) {
+            return Collections.singletonList(this.infileDataBuffer);
+        }
+        List<InfileDataBuffer> buffers = new ArrayList<InfileDataBuffer>();
+        for(InfileObjectLoader<E> lane : this.lanes) {
+            buffers.addAll(lane.getInfileDataBuffers());
+        }
+        return buffers;
+    }
+
+    /**
+     * Flushes a full buffer, after the tables it references.
+     */
+    private void flushFullBuffer() {
+        this.flushDependencies();
+        this.handOff();
+    }
+
+    private void flushDependencies() {
+        for(InfileObjectLoader<?> dependency : this.dependencies) {
+            dependency.flush();
+        }
+    }
+
+    /**
+     * Flushes the current contents of the infile buffer to the database, and then clears the buffer for writing. When
+     * flushing in the background, this waits until every pending load has completed.
      */
     @Override
     public void flush() {
-        this.warnings = this.jdbcTemplate.execute(
-                new InfileStatementCallback(this.loadInfileSql, this.infileDataBuffer.asInputStream())
-        );
-        this.infileDataBuffer.clear();
+        if(this.lanes != null) {
+            this.flushInBackground();
+            this.awaitFlushes();
+        }
+        else if(this.streamExecutor != null) {
+            this.streamInfile();
+            this.endStream();
+        }
+        else if(this.flushExecutor != null) {
+            this.flushInBackground();
+            this.awaitFlushes();
+        }
+        else {
+            this.reportBufferFlushed(this.infileDataBuffer.size());
+            this.addWarnings(this.load(this.infileDataBuffer.asInputStream()));
+            this.infileDataBuffer.clear();
+            this.bufferedRows = 0;
+        }
+    }
+
+    /**
+     * Streams rows into one long running statement instead of running a statement per full buffer. The statement
+     * is started on the given executor when the first buffer fills up, and full buffers are queued for it while rows
+     * keep being encoded. {@link #flush()} ends the stream and waits for the statement to complete. At most
+     * <code>maxQueuedSegments</code> buffers wait in the queue, and adding a row waits while the queue is full.
+     * <p>
+     * The statement holds this loader's connection for as long as it is open, so the {@link JdbcTemplate} must not be
+     * shared with another loader.
+     *
+     * @param streamExecutor    to run the statement on, or null to stop streaming
+     * @param maxQueuedSegments maximum number of full buffers waiting to be read by the statement
+     */
+    public void setStreaming(ExecutorService streamExecutor, int maxQueuedSegments) {
+        Preconditions.checkArgument(streamExecutor == null || maxQueuedSegments > 0,
+                                    "There must be room for at least one queued segment");
+        Preconditions.checkState(this.stream == null, "Cannot change streaming while a stream is open");
+        Preconditions.checkState(streamExecutor == null || this.flushExecutor == null,
+                                 "Cannot stream and flush in the background at the same time");
+        this.streamExecutor = streamExecutor;
+        this.maxQueuedSegments = maxQueuedSegments;
+    }
+
+    /**
+     * Queues the contents of the infile buffer on the open stream, starting a statement if there is none.
+     */
+    void streamInfile() {
+        if(this.lanes != null) {
+            this.flushInBackground();
+            return;
+        }
+        if(this.infileDataBuffer.isEmpty()) {
+            return;
+        }
+        if(this.stream == null) {
+            final SegmentQueueInputStream newStream
+                    = new SegmentQueueInputStream(this.infileDataBuffer, this.maxQueuedSegments);
+            this.streamLoad = this.streamExecutor.submit(new Callable<List<Exception>>() {
+                @Override
+                public List<Exception> call() {
+                    try {
+                        return InfileObjectLoader.this.load(newStream);
+                    }
+                    finally {
+                        newStream.close();
+                    }
+                }
+            });
+            this.stream = newStream;
+        }
+        this.bufferedRows = 0;
+        this.reportBufferFlushed(this.infileDataBuffer.size());
+        if(!this.stream.put(this.infileDataBuffer.detachInfile())) {
+            this.endStream();
+            throw new IllegalStateException("Infile statement stopped reading before the end of the stream");
+        }
+    }
+
+    /**
+     * Ends the open stream, if any, and waits for its statement to complete.
+     */
+    void endStream() {
+        if(this.lanes != null) {
+            this.awaitFlushes();
+            return;
+        }
+        if(this.stream == null) {
+            return;
+        }
+        SegmentQueueInputStream finished = this.stream;
+        Future<List<Exception>> load = this.streamLoad;
+        this.stream = null;
+        this.streamLoad = null;
+        finished.finish();
+        this.addWarnings(this.await(load));
+    }
+
+    /**
+     * Loads full buffers on the given executor instead of the calling thread. While up to
+     * <code>maxPendingFlushes</code> buffers are being loaded, rows are encoded into a spare buffer, so a loader holds
+     * up to <code>maxPendingFlushes + 1</code> infile buffers. When that many loads are pending, adding a row waits for
+     * the oldest to complete.
+     * <p>
+     * Loads go through this loader's {@link JdbcTemplate}. If the template wraps a single connection, all loaders using
+     * it must share an executor with a single thread.
+     *
+     * @param flushExecutor     to run loads on, or null to flush on the calling thread
+     * @param maxPendingFlushes maximum number of buffers being loaded at once
+     */
+    public void setFlushExecutor(ExecutorService flushExecutor, int maxPendingFlushes) {
+        Preconditions.checkArgument(flushExecutor == null || maxPendingFlushes > 0,
+                                    "There must be at least one pending flush allowed");
+        Preconditions.checkState(this.pendingFlushes.isEmpty(), "Cannot change executor with flushes pending");
+        Preconditions.checkState(flushExecutor == null || this.streamExecutor == null,
+                                 "Cannot stream and flush in the background at the same time");
+        this.flushExecutor = flushExecutor;
+        this.maxPendingFlushes = maxPendingFlushes;
+    }
+
+    /**
+     * Hands the contents of the infile buffer to the flush executor and continues with a spare buffer. Waits first if
+     * the maximum number of loads are already pending.
+     */
+    void flushInBackground() {
+        if(this.lanes != null) {
+            for(InfileObjectLoader<E> lane : this.lanes) {
+                lane.handOff();
+            }
+            return;
+        }
+        while(!this.pendingFlushes.isEmpty()
+              && (this.pendingFlushes.size() >= this.maxPendingFlushes || this.pendingFlushes.peek().isDone())) {
+            this.addWarnings(this.await(this.pendingFlushes.poll()));
+        }
+        if(this.infileDataBuffer.isEmpty()) {
+            return;
+        }
+        this.reportBufferFlushed(this.infileDataBuffer.size());
+        final ByteBuffer infile = this.infileDataBuffer.detachInfile();
+        this.bufferedRows = 0;
+        this.pendingFlushes.add(this.flushExecutor.submit(new Callable<List<Exception>>() {
+            @Override
+            public List<Exception> call() {
+                try {
+                    return InfileObjectLoader.this.load(new ByteBufferInputStream(infile));
+                }
+                finally {
+                    InfileObjectLoader.this.infileDataBuffer.recycle(infile);
+                }
+            }
+        }));
+    }
+
+    /**
+     * Waits for all background loads to complete. If any of them failed, the first error is rethrown once all of
+     * them are done.
+     */
+    void awaitFlushes() {
+        if(this.lanes != null) {
+            this.awaitLanes();
+            return;
+        }
+        RuntimeException error = null;
+        while(!this.pendingFlushes.isEmpty()) {
+            try {
+                this.addWarnings(this.await(this.pendingFlushes.poll()));
+            }
+            catch(RuntimeException e) {
+                if(error == null) {
+                    error = e;
+                }
+            }
+        }
+        if(error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Hands the contents of the infile buffer over to be loaded, the way this loader flushes full buffers.
+     */
+    private void handOff() {
+        if(this.lanes != null || this.flushExecutor != null) {
+            this.flushInBackground();
+        }
+        else if(this.streamExecutor != null) {
+            this.streamInfile();
+        }
+        else {
+            this.flush();
+        }
+    }
+
+    /**
+     * Waits for everything handed over by {@link #handOff()} to be loaded.
+     */
+    private void awaitHandOffs() {
+        if(this.lanes != null || this.flushExecutor != null) {
+            this.awaitFlushes();
+        }
+        else if(this.streamExecutor != null) {
+            this.endStream();
+        }
+    }
+
+    /**
+     * Waits for every lane. If any of them failed, the first error is rethrown once all of them are done.
+     */
+    private void awaitLanes() {
+        RuntimeException error = null;
+        for(InfileObjectLoader<E> lane : this.lanes) {
+            try {
+                lane.awaitHandOffs();
+            }
+            catch(RuntimeException e) {
+                if(error == null) {
+                    error = e;
+                }
+            }
+        }
+        if(error != null) {
+            throw error;
+        }
+    }
+
+    private List<Exception> await(Future<List<Exception>> flush) {
+        try {
+            return flush.get();
+        }
+        catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a flush", e);
+        }
+        catch(ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    /**
+     * Executes the infile statement against a stream of rows.
+     *
+     * @param inputStream rows in infile format
+     * @return warnings reported by the database
+     */
+    protected List<Exception> load(InputStream inputStream) {
+        LoaderMetrics loadMetrics = this.metrics;
+        CountingInputStream countingStream = new CountingInputStream(inputStream);
+        InfileStatementCallback statementCallback = new InfileStatementCallback(this.loadInfileSql, countingStream);
+        long start = System.nanoTime();
+        List<Exception> loadWarnings = null;
+        try {
+            loadWarnings = this.jdbcTemplate.execute(statementCallback);
+        }
+        finally {
+            if(loadMetrics != null) {
+                loadMetrics.loaded(this.metricsTableName,
+                                   Math.max(0, statementCallback.getUpdateCount()),
+                                   countingStream.getCount(),
+                                   System.nanoTime() - start,
+                                   loadWarnings == null ? 0 : loadWarnings.size());
+            }
+        }
+        if(statementCallback.getUpdateCount() > 0) {
+            this.rowsLoaded.addAndGet(statementCallback.getUpdateCount());
+        }
+        return loadWarnings;
+    }
+
+    private void addWarnings(List<Exception> newWarnings) {
+        if(newWarnings == null || newWarnings.isEmpty()) {
+            return;
+        }
+        if(this.warnings == null) {
+            this.warnings = new ArrayList<Exception>(newWarnings);
+        }
+        else {
+            this.warnings.addAll(newWarnings);
+        }
     }
 
 
@@ -0,0 +1,173 @@
+package com.opower.persistence.jpile.loader;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.MapMaker;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Allocates ids from a counter per table kept in memory. Every counter is seeded on first use from the highest id
+ * already in the table, when a {@link JdbcTemplate} is given, or from 0 otherwise. Allocation is lock-free, so any
+ * number of threads can share this allocator.
+ * <p>
+ * Allocators created with {@link #shared(JdbcTemplate)} share their counters with every other shared allocator on the
+ * same schema, so that loaders of one JVM running at the same time never hand out the same id. Each of them seeds a
+ * table again the first time it uses it, raising the shared counter to the highest id in the table, so rows added by
+ * other means between jobs are skipped. Nothing is reserved in the database though: when several processes load into
+ * the same tables, or rows are added while loading, use a {@link SequenceTableIdAllocator}, which reserves blocks of
+ * ids in the database.
+ *
+ * @author amir.raminfar
+ * @since 1.0
+ */
+public class LocalIdAllocator implements IdAllocator {
+    // Counters of the allocators created by shared(), per schema
+    private static final ConcurrentMap<String, ConcurrentMap<String, AtomicLong>> SHARED_LAST_IDS
+            = new MapMaker().makeMap();
+
+    private final JdbcTemplate jdbcTemplate;
+    private final boolean shared;
+    // The counters this allocator counts with, resolved on first use for shared allocators
+    private volatile ConcurrentMap<String, AtomicLong> lastIds;
+    // The counters of the tables this allocator has seeded
+    private final ConcurrentMap<String, AtomicLong> seededLastIds = new MapMaker().makeMap();
+
+    /**
+     * Creates an allocator that counts from 0 for every table
+     */
+    public LocalIdAllocator() {
+        this(null);
+    }
+
+    /**
+     * @param jdbcTemplate to read the highest id of each table on first use, or null to count from 0
+     */
+    public LocalIdAllocator(JdbcTemplate jdbcTemplate) {
+        this(jdbcTemplate, false);
+        this.lastIds = new MapMaker().makeMap();
+    }
+
+    private LocalIdAllocator(JdbcTemplate jdbcTemplate, boolean shared) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.shared = shared;
+    }
+
+    /**
+     * Creates an allocator whose counters are shared by every allocator created this way for the same schema, as told
+     * by the URL and catalog of its connection. The allocator seeds each table the first time it uses it, raising the
+     * shared counter to the highest id in the table but never lowering it, so that ids of loaders still running are
+     * not handed out again. Create one per job.
+     *
+     * @param jdbcTemplate to find the schema and read the highest id of each table with
+     * @return the allocator
+     */
+    public static LocalIdAllocator shared(JdbcTemplate jdbcTemplate) {
+        return new LocalIdAllocator(Preconditions.checkNotNull(jdbcTemplate, "jdbcTemplate cannot be null"), true);
+    }
+
+    /**
+     * Forgets the counters shared by the allocators created with {@link #shared(JdbcTemplate)}.
+     */
+    @VisibleForTesting
+    static void resetShared() {
+        SHARED_LAST_IDS.clear();
+    }
+
+    @Override
+    public long nextId(String tableName) {
+        AtomicLong lastId = this.seededLastIds.get(tableName);
+        if(lastId == null) {
+            lastId = this.seed(tableName);
+        }
+        return lastId.incrementAndGet();
+    }
+
+    /**
+     * Raises the counter of a table to the highest id in the table
+     *
+     * @param tableName the table
+     * @return the counter
+     */
+    private AtomicLong seed(String tableName) {
+        long maxId = this.jdbcTemplate != null ? maxId(this.jdbcTemplate, tableName) : 0;
+        ConcurrentMap<String, AtomicLong> counters = this.lastIds();
+        AtomicLong lastId = counters.get(tableName);
+        if(lastId == null) {
+            AtomicLong existing = counters.putIfAbsent(tableName, lastId = new AtomicLong(maxId));
+            if(existing != null) {
+                lastId = existing;
+            }
+        }
+        long current = lastId.get();
+        while(current < maxId && !lastId.compareAndSet(current, maxId)) {
+            current = lastId.get();
+        }
+        this.seededLastIds.putIfAbsent(tableName, lastId);
+        return lastId;
+    }
+
+    private ConcurrentMap<String, AtomicLong> lastIds() {
+        if(this.lastIds == null) {
+            String schema = schema(this.jdbcTemplate);
+            ConcurrentMap<String, AtomicLong> counters = SHARED_LAST_IDS.get(schema);
+            if(counters == null) {
+                ConcurrentMap<String, AtomicLong> existing
+                        = SHARED_LAST_IDS.putIfAbsent(schema, counters = new MapMaker().<String, AtomicLong>makeMap());
+                if(existing != null) {
+                    counters = existing;
+                }
+            }
+            this.lastIds = counters;
+        }
+        return this.lastIds;
+    }
+
+    /**
+     * Names the schema a template connects to
+     *
+     * @param jdbcTemplate to query with
+     * @return the URL and catalog of the connection
+     */
+    static String schema(JdbcTemplate jdbcTemplate) {
+        return jdbcTemplate.execute(new ConnectionCallback<String>() {
+            @Override
+            public String doInConnection(Connection connection) throws SQLException, DataAccessException {
+                return connection.getMetaData().getURL() + "#" + connection.getCatalog();
+            }
+        });
+    }
+
+    /**
+     * Finds the highest id in a table
+     *
+     * @param jdbcTemplate to query with
+     * @param tableName    the table, which must have a single column primary key
+     * @return the highest id, or 0 if the table is empty
+     */
+    static long maxId(JdbcTemplate jdbcTemplate, String tableName) {
+        return jdbcTemplate.queryForLong("SELECT COALESCE(MAX(" + primaryKeyColumn(jdbcTemplate, tableName) + "), 0) "
+                                         + "FROM `" + tableName + "`");
+    }
+
+    /**
+     * Finds the primary key column of a table, quoted for use in SQL
+     *
+     * @param jdbcTemplate to query with
+     * @param tableName    the table, which must have a single column primary key
+     * @return the quoted column name
+     */
+    static String primaryKeyColumn(JdbcTemplate jdbcTemplate, String tableName) {
+        List<Map<String, Object>> keys
+                = jdbcTemplate.queryForList("SHOW KEYS FROM `" + tableName + "` WHERE Key_name = 'PRIMARY'");
+        Preconditions.checkState(keys.size() == 1, "[%s] needs a single column primary key to allocate ids", tableName);
+        return "`" + keys.get(0).get("Column_name") + "`";
+    }
+}
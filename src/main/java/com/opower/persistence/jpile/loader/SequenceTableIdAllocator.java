@@ -0,0 +1,182 @@
+package com.opower.persistence.jpile.loader;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.MapMaker;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * Allocates ids in blocks reserved from a sequence table in the database (hi/lo), so several processes and threads can
+ * load into the same tables without handing out the same id twice. The sequence table holds the next free id of each
+ * table:
+ * <pre>
+ *     CREATE TABLE jpile_sequence (
+ *         table_name VARCHAR(64) NOT NULL PRIMARY KEY,
+ *         next_id BIGINT NOT NULL
+ *     ) ENGINE=InnoDB
+ * </pre>
+ * It is created if it doesn't exist, and a table's row is seeded from the highest id in the table the first time a
+ * block is reserved for it. Reserving a block is a single atomic <code>UPDATE</code>, and ids within a block are handed
+ * out lock-free. Ids of a block that is not used up before the process ends are skipped.
+ * <p>
+ * Reservations must commit right away, so the template should use its own connection in auto-commit mode rather than
+ * a connection that is loading rows.
+ *
+ * @author amir.raminfar
+ * @since 1.0
+ */
+public class SequenceTableIdAllocator implements IdAllocator {
+    public static final String DEFAULT_SEQUENCE_TABLE = "jpile_sequence";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final String sequenceTable;
+    private final int blockSize;
+    private final ConcurrentMap<String, Sequence> sequences = new MapMaker().makeMap();
+    private volatile boolean sequenceTableCreated = false;
+
+    /**
+     * @param jdbcTemplate to reserve blocks with
+     * @param blockSize    number of ids to reserve at a time
+     */
+    public SequenceTableIdAllocator(JdbcTemplate jdbcTemplate, int blockSize) {
+        this(jdbcTemplate, DEFAULT_SEQUENCE_TABLE, blockSize);
+    }
+
+    /**
+     * @param jdbcTemplate  to reserve blocks with
+     * @param sequenceTable name of the sequence table
+     * @param blockSize     number of ids to reserve at a time
+     */
+    public SequenceTableIdAllocator(JdbcTemplate jdbcTemplate, String sequenceTable, int blockSize) {
+        Preconditions.checkArgument(blockSize > 0, "Block size must be positive");
+        this.jdbcTemplate = jdbcTemplate;
+        this.sequenceTable = Preconditions.checkNotNull(sequenceTable, "sequenceTable cannot be null");
+        this.blockSize = blockSize;
+    }
+
+    @Override
+    public long nextId(String tableName) {
+        Sequence sequence = this.sequences.get(tableName);
+        if(sequence == null) {
+            Sequence existing = this.sequences.putIfAbsent(tableName, sequence = new Sequence(tableName));
+            if(existing != null) {
+                sequence = existing;
+            }
+        }
+        return sequence.nextId();
+    }
+
+    /**
+     * Reserves the next block of ids for a table
+     *
+     * @param tableName the table
+     * @param size      number of ids to reserve
+     * @return the id after the last id of the block, so the block is <code>[end - size, end)</code>
+     */
+    protected long reserveBlock(final String tableName, final int size) {
+        this.createSequenceTable();
+        Long end = this.incrementSequence(tableName, size);
+        if(end == null) {
+            // INSERT IGNORE, in case another process seeds the table at the same time
+            this.jdbcTemplate.update("INSERT IGNORE INTO " + this.sequenceTable + " (table_name, next_id) "
+                                     + "SELECT ?, COALESCE(MAX("
+                                     + LocalIdAllocator.primaryKeyColumn(this.jdbcTemplate, tableName)
+                                     + "), 0) + 1 FROM `" + tableName + "`", tableName);
+            end = this.incrementSequence(tableName, size);
+            Preconditions.checkState(end != null, "Cannot seed the sequence for [%s]", tableName);
+        }
+        return end;
+    }
+
+    private void createSequenceTable() {
+        if(!this.sequenceTableCreated) {
+            this.jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + this.sequenceTable + " ("
+                                      + "table_name VARCHAR(64) NOT NULL PRIMARY KEY, "
+                                      + "next_id BIGINT NOT NULL) ENGINE=InnoDB");
+            this.sequenceTableCreated = true;
+        }
+    }
+
+    /**
+     * Moves a table's next free id past a block, using <code>LAST_INSERT_ID(expr)</code> to read the new value back
+     * from the same statement without another round trip that could race with other processes.
+     *
+     * @return the new next free id, or null if the table has no row yet
+     */
+    private Long incrementSequence(final String tableName, final int size) {
+        return this.jdbcTemplate.execute(new ConnectionCallback<Long>() {
+            @Override
+            public Long doInConnection(Connection connection) throws SQLException, DataAccessException {
+                PreparedStatement update = connection.prepareStatement(
+                        "UPDATE " + SequenceTableIdAllocator.this.sequenceTable
+                        + " SET next_id = LAST_INSERT_ID(next_id + ?) WHERE table_name = ?");
+                try {
+                    update.setInt(1, size);
+                    update.setString(2, tableName);
+                    if(update.executeUpdate() == 0) {
+                        return null;
+                    }
+                }
+                finally {
+                    update.close();
+                }
+                Statement select = connection.createStatement();
+                try {
+                    ResultSet resultSet = select.executeQuery("SELECT LAST_INSERT_ID()");
+                    resultSet.next();
+                    return resultSet.getLong(1);
+                }
+                finally {
+                    select.close();
+                }
+            }
+        });
+    }
+
+    /**
+     * The current block of one table. Ids are taken from the block with a compare-and-set, and only a thread that
+     * finds the block used up takes the lock to reserve the next one.
+     */
+    private final class Sequence {
+        private final String tableName;
+        private volatile Block block = new Block(0, 0);
+
+        private Sequence(String tableName) {
+            this.tableName = tableName;
+        }
+
+        long nextId() {
+            while(true) {
+                Block current = this.block;
+                long id = current.next.getAndIncrement();
+                if(id < current.end) {
+                    return id;
+                }
+                synchronized(this) {
+                    if(this.block == current) {
+                        long end = reserveBlock(this.tableName, blockSize);
+                        this.block = new Block(end - blockSize, end);
+                    }
+                }
+            }
+        }
+    }
+
+    private static final class Block {
+        private final AtomicLong next;
+        private final long end;
+
+        private Block(long start, long end) {
+            this.next = new AtomicLong(start);
+            this.end = end;
+        }
+    }
+}
@@ -1,24 +1,22 @@
 package com.opower.persistence.jpile.loader;
 
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.Collection;
-import java.util.Date;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import javax.persistence.TemporalType;
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.base.Preconditions;
 import com.opower.persistence.jpile.infile.InfileDataBuffer;
 import com.opower.persistence.jpile.infile.InfileRow;
 import com.opower.persistence.jpile.reflection.PersistenceAnnotationInspector;
+import com.opower.persistence.jpile.reflection.PropertyAccessor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
 
-import static com.google.common.base.Throwables.*;
 import static com.google.common.collect.Maps.*;
 import static com.google.common.collect.Sets.*;
-import static com.opower.persistence.jpile.reflection.CacheablePersistenceAnnotationInspector.*;
 
 /**
  * An InfileObjectLoader which will update that database using IN FILE format using hibernate annotations.
@@ -29,14 +27,19 @@ import static com.opower.persistence.jpile.reflection.CacheablePersistenceAnnota
 public class SingleInfileObjectLoader<E> extends InfileObjectLoader<E> {
     private static Logger logger = LoggerFactory.getLogger(SingleInfileObjectLoader.class);
 
-    /**
-     * @TODO we may need to make this atomic to be thread safe
-     */
-    protected long autoGeneratedId = 0;
     protected final Map<String, Method> mappings = newTreeMap(String.CASE_INSENSITIVE_ORDER);
     protected final Map<Method, SingleInfileObjectLoader<Object>> embeds = newLinkedHashMap();
+    protected final Map<Method, TemporalType> temporalTypes = newHashMap();
+    // Writers for every column in mappings and in embeds, in the same order, resolved once by the builder
+    ColumnWriter[] columnWriters = new ColumnWriter[0];
+    // Reads the id of the entity, or null if the entity has no table
+    PropertyAccessor idAccessor;
+    // Writes the columns instead of columnWriters when the builder found a generated mapper for the class
+    EntityMapper<E> entityMapper;
 
     protected final Class<E> aClass;
+    protected String tableName;
+    protected IdAllocator idAllocator;
     protected PersistenceAnnotationInspector persistenceAnnotationInspector;
     protected boolean allowNull = false;
     protected boolean autoGenerateId = false;
@@ -52,45 +55,21 @@ public class SingleInfileObjectLoader<E> extends InfileObjectLoader<E> {
     @Override
     public void convertToInfileRow(E entity, InfileRow infileRow) {
         if(entity == null && allowNull) {
-            for(int i = 0; i < mappings.size(); i++) {
+            for(int i = 0; i < columnWriters.length; i++) {
                 infileRow.appendNull();
             }
-            for(SingleInfileObjectLoader<Object> loader : embeds.values()) {
-                loader.convertToInfileRow(null, infileRow);
-            }
         }
         else {
-            if(!embedChild && getIdValue(persistenceAnnotationInspector, entity) == null) {
+            if(!embedChild && (idAccessor == null || idAccessor.get(entity) == null)) {
                 generateAndSetId(entity);
             }
-            for(Method m : mappings.values()) {
-                Object object = invoke(m, entity);
-                if(object != null) {
-                    if(persistenceAnnotationInspector.hasTableAnnotation(object.getClass())) {
-                        Long id = (Long) getIdValue(persistenceAnnotationInspector, object);
-                        Preconditions.checkState(id != null, "@Id for [%s] is null", object);
-                        object = id;
-                    }
-                    if(object instanceof Date) {
-                        infileRow.append((Date) object);
-                    }
-                    else if(object instanceof Boolean) {
-                        infileRow.append((Boolean) object);
-                    }
-                    else if(object instanceof byte[]) {
-                        infileRow.append((byte[]) object);
-                    }
-                    else {
-                        infileRow.append(object);
-                    }
-                }
-                else {
-                    infileRow.appendNull();
-                }
+            if(entityMapper != null) {
+                entityMapper.writeRow(entity, infileRow);
             }
-            for(Map.Entry<Method, SingleInfileObjectLoader<Object>> entry : embeds.entrySet()) {
-                Object object = invoke(entry.getKey(), entity);
-                entry.getValue().convertToInfileRow(object, infileRow);
+            else {
+                for(ColumnWriter columnWriter : columnWriters) {
+                    columnWriter.write(entity, infileRow);
+                }
             }
         }
     }
@@ -103,27 +82,44 @@ public class SingleInfileObjectLoader<E> extends InfileObjectLoader<E> {
                      aClass, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
     }
 
+    /**
+     * Creates a loader into the same table with the same columns, that loads through its own template and buffer. Used
+     * as a lane of this loader, see {@link #setLanes(java.util.List)}, and to copy loaders that were built once per
+     * class by {@link HierarchicalInfileObjectLoader}.
+     *
+     * @param laneJdbcTemplate to load with
+     * @param laneBuffer       to encode rows into
+     * @return the new lane
+     */
+    SingleInfileObjectLoader<E> newLane(JdbcTemplate laneJdbcTemplate, InfileDataBuffer laneBuffer) {
+        SingleInfileObjectLoader<E> lane = new SingleInfileObjectLoader<E>(aClass);
+        lane.jdbcTemplate = laneJdbcTemplate;
+        lane.infileDataBuffer = laneBuffer;
+        lane.loadInfileSql = loadInfileSql;
+        lane.mappings.putAll(mappings);
+        lane.embeds.putAll(embeds);
+        lane.temporalTypes.putAll(temporalTypes);
+        lane.columnWriters = columnWriters;
+        lane.idAccessor = idAccessor;
+        lane.entityMapper = entityMapper;
+        lane.tableName = tableName;
+        lane.idAllocator = idAllocator;
+        lane.persistenceAnnotationInspector = persistenceAnnotationInspector;
+        lane.allowNull = allowNull;
+        lane.autoGenerateId = autoGenerateId;
+        lane.embedChild = embedChild;
+        return lane;
+    }
+
     private void generateAndSetId(E e) {
         if(autoGenerateId) {
-            setIdValue(persistenceAnnotationInspector, e, ++autoGeneratedId);
+            persistenceAnnotationInspector.setIdValue(e, idAllocator.nextId(tableName));
         }
         else {
             throw new IllegalArgumentException(String.format("Illegal state when trying to save [%s]", e));
         }
     }
 
-    private Object invoke(Method method, Object target) {
-        try {
-            return method.invoke(target);
-        }
-        catch(InvocationTargetException e) {
-            throw propagate(e);
-        }
-        catch(IllegalAccessException e) {
-            throw propagate(e);
-        }
-    }
-
     Collection<String> getAllColumns() {
         Set<String> columns = newLinkedHashSet(mappings.keySet());
         for(SingleInfileObjectLoader<Object> loader : embeds.values()) {
@@ -142,6 +138,11 @@ public class SingleInfileObjectLoader<E> extends InfileObjectLoader<E> {
         return embeds;
     }
 
+    @VisibleForTesting
+    Map<Method, TemporalType> getTemporalTypes() {
+        return temporalTypes;
+    }
+
     @VisibleForTesting
     String getLoadInfileSql() {
         return loadInfileSql;
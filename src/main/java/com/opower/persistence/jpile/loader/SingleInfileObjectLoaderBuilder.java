@@ -1,6 +1,8 @@
 package com.opower.persistence.jpile.loader;
 
 import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Map;
 import javax.persistence.Column;
 import javax.persistence.Embedded;
 import javax.persistence.GeneratedValue;
@@ -10,13 +12,21 @@ import javax.persistence.ManyToOne;
 import javax.persistence.OneToOne;
 import javax.persistence.PrimaryKeyJoinColumn;
 import javax.persistence.SecondaryTable;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 import com.opower.persistence.jpile.infile.InfileDataBuffer;
 import com.opower.persistence.jpile.reflection.PersistenceAnnotationInspector;
+import com.opower.persistence.jpile.reflection.PropertyAccessor;
+import com.opower.persistence.jpile.reflection.PropertyAccessors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.jdbc.core.JdbcTemplate;
 
 import static java.lang.String.*;
+import static com.google.common.collect.Lists.*;
 
 
 /**
@@ -27,6 +37,8 @@ import static java.lang.String.*;
  * @see SingleInfileObjectLoader
  */
 public class SingleInfileObjectLoaderBuilder<E> {
+    private static Logger logger = LoggerFactory.getLogger(SingleInfileObjectLoaderBuilder.class);
+
     private Class<E> aClass;
     private JdbcTemplate jdbcTemplate;
     private InfileDataBuffer infileDataBuffer;
@@ -36,7 +48,9 @@ public class SingleInfileObjectLoaderBuilder<E> {
     private boolean allowNull = false;
     private boolean embedded = false;
     private SecondaryTable secondaryTable;
-
+    private IdAllocator idAllocator;
+    private int rowBufferSize = 0;
+    private int maxRowBufferSize = 0;
 
     public SingleInfileObjectLoaderBuilder(Class<E> aClass) {
         Preconditions.checkNotNull(aClass, "Class cannot be null");
@@ -86,6 +100,35 @@ public class SingleInfileObjectLoaderBuilder<E> {
     }
 
 
+    /**
+     * Sets where ids come from for entities with an auto generated id that is not set yet. Without one, ids are
+     * counted by a {@link LocalIdAllocator} of this loader's own, from the highest id already in the table.
+     *
+     * @param idAllocator to allocate ids
+     * @return this builder
+     */
+    public SingleInfileObjectLoaderBuilder<E> withIdAllocator(IdAllocator idAllocator) {
+        this.idAllocator = idAllocator;
+        return this;
+    }
+
+    /**
+     * Sizes the row buffer for this table. Tables with large TEXT or BLOB columns can start with a larger row buffer,
+     * and allow rows to grow beyond the infile buffer, in which case they are loaded on their own.
+     *
+     * @param rowBufferSize    initial size in bytes of the row buffer
+     * @param maxRowBufferSize size in bytes up to which the row buffer may grow
+     * @return this builder
+     */
+    public SingleInfileObjectLoaderBuilder<E> withRowBufferSize(int rowBufferSize, int maxRowBufferSize) {
+        Preconditions.checkArgument(rowBufferSize > 0, "Row buffer size must be positive");
+        Preconditions.checkArgument(maxRowBufferSize >= rowBufferSize,
+                                    "Maximum row buffer size cannot be smaller than the initial size");
+        this.rowBufferSize = rowBufferSize;
+        this.maxRowBufferSize = maxRowBufferSize;
+        return this;
+    }
+
     private SingleInfileObjectLoaderBuilder<E> isEmbedded() {
         this.embedded = true;
         return this;
@@ -100,6 +143,9 @@ public class SingleInfileObjectLoaderBuilder<E> {
         Preconditions.checkNotNull(jdbcTemplate, "jdbcTemplate cannot be null");
         Preconditions.checkNotNull(persistenceAnnotationInspector, "persistenceAnnotationInspector cannot be null");
         Preconditions.checkNotNull(infileDataBuffer, "infileDataBuffer cannot be null");
+        if(rowBufferSize > 0) {
+            infileDataBuffer.setRowBufferSize(rowBufferSize, maxRowBufferSize);
+        }
 
         SingleInfileObjectLoader<E> objectLoader = new SingleInfileObjectLoader<E>(aClass);
         objectLoader.jdbcTemplate = jdbcTemplate;
@@ -113,11 +159,17 @@ public class SingleInfileObjectLoaderBuilder<E> {
                     : persistenceAnnotationInspector.tableName(aClass);
         }
         Preconditions.checkNotNull(tableName, "tableName cannot be null");
+        objectLoader.tableName = tableName;
+        objectLoader.idAllocator = idAllocator != null ? idAllocator : new LocalIdAllocator(jdbcTemplate);
         this.findAnnotations(objectLoader);
         if(!embedded) {
             this.findPrimaryId(objectLoader);
             this.generateLoadInfileSql(objectLoader);
         }
+        this.createColumnWriters(objectLoader);
+        if(!embedded && secondaryTable == null && objectLoader.embeds.isEmpty()) {
+            this.findEntityMapper(objectLoader);
+        }
 
         return objectLoader;
     }
@@ -140,6 +192,12 @@ public class SingleInfileObjectLoaderBuilder<E> {
             else if(column.table().isEmpty() || column.table().equals(this.tableName)) {
                 objectLoader.mappings.put(annotatedMethod.getAnnotation().name(), annotatedMethod.getMethod());
             }
+
+            // @Temporal decides whether a java.util.Date is written as a date, a time or a datetime
+            Temporal temporal = persistenceAnnotationInspector.findAnnotation(annotatedMethod.getMethod(), Temporal.class);
+            if(temporal != null) {
+                objectLoader.temporalTypes.put(annotatedMethod.getMethod(), temporal.value());
+            }
         }
 
 
@@ -175,9 +233,92 @@ public class SingleInfileObjectLoaderBuilder<E> {
         }
     }
 
+    private void createColumnWriters(SingleInfileObjectLoader<E> objectLoader) {
+        List<ColumnWriter> columnWriters = newArrayList();
+        this.addColumnWriters(objectLoader, ImmutableList.<PropertyAccessor>of(), columnWriters);
+        objectLoader.columnWriters = columnWriters.toArray(new ColumnWriter[columnWriters.size()]);
+        if(persistenceAnnotationInspector.hasTableAnnotation(aClass)) {
+            Method idGetter = persistenceAnnotationInspector.idGetter(aClass);
+            objectLoader.idAccessor = idGetter != null ? PropertyAccessors.forGetter(idGetter) : null;
+        }
+    }
+
+    /**
+     * Flattens the columns of a loader and of its embedded loaders into one list of writers, in the same order as
+     * {@link SingleInfileObjectLoader#getAllColumns()}.
+     */
+    private void addColumnWriters(SingleInfileObjectLoader<?> objectLoader,
+                                  List<PropertyAccessor> path,
+                                  List<ColumnWriter> columnWriters) {
+        for(Method method : objectLoader.mappings.values()) {
+            columnWriters.add(ColumnWriter.forColumn(path,
+                                                     method,
+                                                     objectLoader.temporalTypes.get(method),
+                                                     persistenceAnnotationInspector));
+        }
+        for(Map.Entry<Method, SingleInfileObjectLoader<Object>> entry : objectLoader.embeds.entrySet()) {
+            List<PropertyAccessor> embeddedPath = newArrayList(path);
+            embeddedPath.add(PropertyAccessors.forGetter(entry.getKey()));
+            this.addColumnWriters(entry.getValue(), embeddedPath, columnWriters);
+        }
+    }
+
+    /**
+     * Uses the mapper generated for the class by {@link com.opower.persistence.jpile.processor.EntityMapperProcessor},
+     * if there is one and it writes exactly the columns found here with the same types. Otherwise rows are written by
+     * the column writers.
+     */
+    private void findEntityMapper(SingleInfileObjectLoader<E> objectLoader) {
+        String mapperClassName = aClass.getName() + EntityMapper.CLASS_NAME_SUFFIX;
+        EntityMapper<E> entityMapper;
+        try {
+            @SuppressWarnings("unchecked")
+            EntityMapper<E> instance
+                    = (EntityMapper<E>) Class.forName(mapperClassName, true, aClass.getClassLoader())
+                                             .getConstructor()
+                                             .newInstance();
+            entityMapper = instance;
+        }
+        catch(ClassNotFoundException e) {
+            return;
+        }
+        catch(Exception e) {
+            logger.warn(format("Cannot create [%s], using reflection for [%s]", mapperClassName, aClass), e);
+            return;
+        }
+        if(!entityMapper.getColumns().equals(newArrayList(objectLoader.getAllColumns()))) {
+            logger.warn("Columns of [{}] do not match the annotations of [{}], using reflection",
+                        mapperClassName, aClass);
+            return;
+        }
+        if(!entityMapper.getColumnTypes().equals(columnTypes(objectLoader))) {
+            logger.warn("Column types of [{}] do not match the getters of [{}], using reflection",
+                        mapperClassName, aClass);
+            return;
+        }
+        objectLoader.entityMapper = entityMapper;
+        if(entityMapper.getTableName().equals(tableName)) {
+            objectLoader.loadInfileSql = entityMapper.getLoadInfileSql();
+        }
+    }
+
+    /**
+     * @return the type of every column of a loader without embedded objects, as described by
+     *         {@link EntityMapper#getColumnTypes()}
+     */
+    private static List<String> columnTypes(SingleInfileObjectLoader<?> objectLoader) {
+        List<String> columnTypes = newArrayList();
+        for(Method getter : objectLoader.mappings.values()) {
+            TemporalType temporalType = objectLoader.temporalTypes.get(getter);
+            columnTypes.add(getter.getReturnType().getCanonicalName()
+                            + (temporalType != null ? "@" + temporalType.name() : ""));
+        }
+        return columnTypes;
+    }
+
     private void findPrimaryId(SingleInfileObjectLoader<E> objectLoader) {
         Method primaryIdGetter = persistenceAnnotationInspector.idGetter(aClass);
-        Preconditions.checkNotNull(format("Primary id with @Id annotation is not found on [%s]", aClass), primaryIdGetter);
+        Preconditions.checkNotNull(primaryIdGetter, "Primary id with @Id annotation is not found on [%s]", aClass);
         Column column = persistenceAnnotationInspector.findAnnotation(primaryIdGetter, Column.class);
         String name = persistenceAnnotationInspector.fieldFromGetter(primaryIdGetter).getName();
         if(secondaryTable != null) {
@@ -0,0 +1,158 @@
+package com.opower.persistence.jpile.loader;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+
+import static com.google.common.collect.Lists.*;
+import static com.google.common.collect.Maps.*;
+import static com.google.common.collect.Sets.*;
+
+/**
+ * The tables being loaded and the tables each of them references through foreign keys. Tables are flushed in waves:
+ * every table in a wave only references tables of earlier waves, so with foreign key checks enabled the tables of one
+ * wave can be loaded at the same time once the waves before them are done. A table that references itself does not
+ * depend on itself, since rows are written parents first.
+ * <p>
+ * Instances of this class are not safe for use by multiple threads.
+ *
+ * @author amir.raminfar
+ * @since 1.0
+ */
+class TableDependencyGraph {
+    // Table to the tables it references, in the order tables were added
+    private final Map<String, Set<String>> references = newLinkedHashMap();
+
+    /**
+     * @param tableName a table being loaded
+     */
+    void addTable(String tableName) {
+        Preconditions.checkNotNull(tableName, "tableName cannot be null");
+        if(!references.containsKey(tableName)) {
+            Set<String> referenced = newLinkedHashSet();
+            references.put(tableName, referenced);
+        }
+    }
+
+    /**
+     * Records that rows of one table reference rows of another, so the other table has to be flushed first.
+     *
+     * @param tableName           the referencing table
+     * @param referencedTableName the referenced table
+     */
+    void addReference(String tableName, String referencedTableName) {
+        addTable(tableName);
+        addTable(referencedTableName);
+        if(!tableName.equals(referencedTableName)) {
+            references.get(tableName).add(referencedTableName);
+        }
+    }
+
+    /**
+     * @return true if there are tables that reference each other, directly or through other tables
+     */
+    boolean hasCycle() {
+        return findCycle() != null;
+    }
+
+    /**
+     * Groups the tables into waves, each of which only references tables in the waves before it. Within a wave tables
+     * keep the order they were added in.
+     *
+     * @return the waves in flush order
+     * @throws IllegalStateException if tables reference each other in a cycle
+     */
+    List<List<String>> waves() {
+        List<String> cycle = findCycle();
+        if(cycle != null) {
+            throw new IllegalStateException(
+                    "Tables reference each other in a cycle, they cannot be loaded with foreign key checks enabled: "
+                    + Joiner.on(" -> ").join(cycle));
+        }
+        List<List<String>> waves = newArrayList();
+        Set<String> flushed = newHashSet();
+        while(flushed.size() < references.size()) {
+            List<String> wave = newArrayList();
+            for(Map.Entry<String, Set<String>> table : references.entrySet()) {
+                if(!flushed.contains(table.getKey()) && flushed.containsAll(table.getValue())) {
+                    wave.add(table.getKey());
+                }
+            }
+            flushed.addAll(wave);
+            waves.add(wave);
+        }
+        return waves;
+    }
+
+    /**
+     * Gets every table that has to be flushed before a table, directly or through other tables.
+     *
+     * @param tableName the table
+     * @return the tables it depends on, in flush order
+     * @throws IllegalStateException if tables reference each other in a cycle
+     */
+    List<String> dependenciesOf(String tableName) {
+        Set<String> dependencies = newHashSet();
+        collectDependencies(tableName, dependencies);
+        List<String> ordered = newArrayList();
+        for(List<String> wave : waves()) {
+            for(String table : wave) {
+                if(dependencies.contains(table)) {
+                    ordered.add(table);
+                }
+            }
+        }
+        return ordered;
+    }
+
+    private void collectDependencies(String tableName, Set<String> dependencies) {
+        Set<String> referenced = references.get(tableName);
+        if(referenced == null) {
+            return;
+        }
+        for(String table : referenced) {
+            if(dependencies.add(table)) {
+                collectDependencies(table, dependencies);
+            }
+        }
+    }
+
+    /**
+     * @return the tables of a cycle starting and ending with the same table, or null if there is none
+     */
+    private List<String> findCycle() {
+        Set<String> done = newHashSet();
+        for(String table : references.keySet()) {
+            List<String> path = newArrayList();
+            List<String> cycle = findCycle(table, path, done);
+            if(cycle != null) {
+                return cycle;
+            }
+        }
+        return null;
+    }
+
+    private List<String> findCycle(String table, List<String> path, Set<String> done) {
+        int index = path.indexOf(table);
+        if(index >= 0) {
+            List<String> cycle = newArrayList(path.subList(index, path.size()));
+            cycle.add(table);
+            return cycle;
+        }
+        if(done.contains(table)) {
+            return null;
+        }
+        path.add(table);
+        for(String referenced : references.get(table)) {
+            List<String> cycle = findCycle(referenced, path, done);
+            if(cycle != null) {
+                return cycle;
+            }
+        }
+        path.remove(path.size() - 1);
+        done.add(table);
+        return null;
+    }
+}
@@ -0,0 +1,101 @@
+package com.opower.persistence.jpile.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of non-negative values that records without locks. Values below 8 get a bucket of their own, and every
+ * power of two above is split into 4 buckets, so percentiles are accurate to within 25% whatever the range of values.
+ * Negative values are recorded as 0.
+ * <p>
+ * Instances of this class are safe for use by multiple threads. Reads are not atomic with respect to concurrent
+ * records, so the count, sum and percentiles may be off by the values being recorded at that moment.
+ *
+ * @author s-m
+ * @since 1.0
+ */
+public class Histogram {
+    private static final int EXACT_BUCKETS = 8;
+    private static final int SUB_BUCKETS = 4;
+    private static final int BUCKETS = EXACT_BUCKETS + (63 - 3) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * @param value to record
+     */
+    public void record(long value) {
+        long recorded = Math.max(0, value);
+        this.buckets.incrementAndGet(bucketOf(recorded));
+        this.count.incrementAndGet();
+        this.sum.addAndGet(recorded);
+        long currentMax = this.max.get();
+        while(recorded > currentMax && !this.max.compareAndSet(currentMax, recorded)) {
+            currentMax = this.max.get();
+        }
+    }
+
+    public long getCount() {
+        return this.count.get();
+    }
+
+    public long getSum() {
+        return this.sum.get();
+    }
+
+    public long getMax() {
+        return this.max.get();
+    }
+
+    /**
+     * @return the mean of the recorded values, or 0 if there are none
+     */
+    public double getMean() {
+        long n = this.count.get();
+        return n == 0 ? 0 : (double) this.sum.get() / n;
+    }
+
+    /**
+     * Gets an upper bound of the value below which a fraction of the recorded values fall.
+     *
+     * @param fraction between 0 and 1, for example 0.99 for the 99th percentile
+     * @return the upper bound of the bucket holding the percentile, at most the maximum, or 0 if nothing was recorded
+     */
+    public long getPercentile(double fraction) {
+        long n = this.count.get();
+        if(n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(fraction * n));
+        long seen = 0;
+        for(int i = 0; i < BUCKETS; i++) {
+            seen += this.buckets.get(i);
+            if(seen >= rank) {
+                return Math.min(upperBoundOf(i), this.max.get());
+            }
+        }
+        return this.max.get();
+    }
+
+    static int bucketOf(long value) {
+        if(value < EXACT_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - 2)) & (SUB_BUCKETS - 1);
+        return EXACT_BUCKETS + (exponent - 3) * SUB_BUCKETS + subBucket;
+    }
+
+    static long upperBoundOf(int bucket) {
+        if(bucket < EXACT_BUCKETS) {
+            return bucket;
+        }
+        int exponent = (bucket - EXACT_BUCKETS) / SUB_BUCKETS + 3;
+        int subBucket = (bucket - EXACT_BUCKETS) % SUB_BUCKETS;
+        long lowerBound = (long) (SUB_BUCKETS + subBucket) << (exponent - 2);
+        return lowerBound + (1L << (exponent - 2)) - 1;
+    }
+}
@@ -0,0 +1,93 @@
+package com.opower.persistence.jpile.metrics;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentMap;
+import com.google.common.collect.MapMaker;
+
+/**
+ * Keeps the measurements of every table in memory, in {@link TableMetrics} created when a table is first reported, and
+ * the size and persist time of entity graphs over all root classes. Recording only uses atomic operations, so loaders
+ * on many threads do not wait for each other.
+ * <p>
+ * Instances of this class are safe for use by multiple threads.
+ *
+ * @author s-m
+ * @since 1.0
+ */
+public class InMemoryLoaderMetrics implements LoaderMetrics {
+    private final ConcurrentMap<String, TableMetrics> tables = new MapMaker().makeMap();
+    private final Histogram graphEntities = new Histogram();
+    private final Histogram graphPersistNanos = new Histogram();
+
+    @Override
+    public void rowEncoded(String tableName, long encodeNanos) {
+        this.tableMetrics(tableName).rowEncoded(encodeNanos);
+    }
+
+    @Override
+    public void bufferFlushed(String tableName, int bytes, int capacity) {
+        this.tableMetrics(tableName).bufferFlushed(bytes, capacity);
+    }
+
+    @Override
+    public void loaded(String tableName, long rows, long bytes, long latencyNanos, int warnings) {
+        this.tableMetrics(tableName).loaded(rows, bytes, latencyNanos, warnings);
+    }
+
+    @Override
+    public void entityGraphPersisted(Class<?> rootClass, int entities, long persistNanos) {
+        this.graphEntities.record(entities);
+        this.graphPersistNanos.record(persistNanos);
+    }
+
+    /**
+     * @return number of objects visited per persisted entity graph
+     */
+    public Histogram getGraphEntities() {
+        return this.graphEntities;
+    }
+
+    /**
+     * @return time taken to persist an entity graph, in nanoseconds
+     */
+    public Histogram getGraphPersistNanos() {
+        return this.graphPersistNanos;
+    }
+
+    /**
+     * @param tableName the table
+     * @return the measurements of the table, or null if nothing was reported for it
+     */
+    public TableMetrics getTableMetrics(String tableName) {
+        return this.tables.get(tableName);
+    }
+
+    /**
+     * @return the measurements of every table reported so far
+     */
+    public Collection<TableMetrics> getAllTableMetrics() {
+        return Collections.unmodifiableCollection(this.tables.values());
+    }
+
+    /**
+     * Called once for every table, when it is first reported.
+     *
+     * @param tableMetrics of the new table
+     */
+    protected void tableAdded(TableMetrics tableMetrics) {
+    }
+
+    private TableMetrics tableMetrics(String tableName) {
+        TableMetrics tableMetrics = this.tables.get(tableName);
+        if(tableMetrics == null) {
+            TableMetrics newTableMetrics = new TableMetrics(tableName);
+            tableMetrics = this.tables.putIfAbsent(tableName, newTableMetrics);
+            if(tableMetrics == null) {
+                tableMetrics = newTableMetrics;
+                this.tableAdded(tableMetrics);
+            }
+        }
+        return tableMetrics;
+    }
+}
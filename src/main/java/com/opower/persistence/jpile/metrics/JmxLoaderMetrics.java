@@ -0,0 +1,86 @@
+package com.opower.persistence.jpile.metrics;
+
+import java.io.Closeable;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static java.lang.String.format;
+
+/**
+ * Keeps measurements in memory like {@link InMemoryLoaderMetrics} and exports every table as an MBean named
+ * <code>&lt;domain&gt;:type=Table,name=&lt;table name&gt;</code>, so that a slow table can be found with any JMX
+ * console while loading. {@link #close()} unregisters the MBeans. Failing to register or unregister an MBean, for
+ * example because another instance in the JVM already exported the table under the same domain, is logged and never
+ * fails the load.
+ * <p>
+ * Instances of this class are safe for use by multiple threads.
+ *
+ * @author s-m
+ * @since 1.0
+ */
+public class JmxLoaderMetrics extends InMemoryLoaderMetrics implements Closeable {
+    private static Logger logger = LoggerFactory.getLogger(JmxLoaderMetrics.class);
+
+    /**
+     * Default domain of the MBeans.
+     */
+    public static final String DEFAULT_DOMAIN = "com.opower.persistence.jpile";
+
+    private final MBeanServer mBeanServer;
+    private final String domain;
+    private final Set<ObjectName> registered = new CopyOnWriteArraySet<ObjectName>();
+
+    /**
+     * @param mBeanServer to register the MBeans with, usually the platform MBean server
+     * @param domain      of the MBean names
+     */
+    public JmxLoaderMetrics(MBeanServer mBeanServer, String domain) {
+        this.mBeanServer = Preconditions.checkNotNull(mBeanServer, "mBeanServer cannot be null");
+        this.domain = Preconditions.checkNotNull(domain, "domain cannot be null");
+    }
+
+    @Override
+    protected void tableAdded(TableMetrics tableMetrics) {
+        ObjectName name = this.objectName(tableMetrics.getTableName());
+        try {
+            this.mBeanServer.registerMBean(tableMetrics, name);
+            this.registered.add(name);
+        }
+        catch(JMException e) {
+            logger.warn(format("Cannot export the metrics of [%s] as [%s]", tableMetrics.getTableName(), name), e);
+        }
+    }
+
+    /**
+     * @param tableName the table
+     * @return the name of the MBean of the table
+     */
+    public ObjectName objectName(String tableName) {
+        try {
+            return new ObjectName(this.domain + ":type=Table,name=" + ObjectName.quote(tableName));
+        }
+        catch(JMException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        for(ObjectName name : this.registered) {
+            try {
+                this.mBeanServer.unregisterMBean(name);
+            }
+            catch(JMException e) {
+                logger.warn(format("Cannot unregister [%s]", name), e);
+            }
+            this.registered.remove(name);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.opower.persistence.jpile.metrics;
+
+/**
+ * Receives measurements from object loaders, per table, and from hierarchical loaders, per persisted entity graph.
+ * Loaders only take measurements when they have been given metrics, so without them no time is spent on timing.
+ * Implementations are called from the threads adding rows and from the threads loading them, so they must be safe for
+ * use by multiple threads and should return quickly.
+ * <p>
+ * Encoding a row takes about as long as reading the clock twice, so loaders can be told to only time a sample of the
+ * rows. Every row is still reported, rows that were not timed with {@link #NOT_SAMPLED} as encode time.
+ *
+ * @author s-m
+ * @see InMemoryLoaderMetrics
+ * @since 1.0
+ */
+public interface LoaderMetrics {
+    /**
+     * Encode time reported for rows that were not timed
+     */
+    long NOT_SAMPLED = -1;
+
+    /**
+     * Called for every row converted into infile format.
+     *
+     * @param tableName   the table of the row
+     * @param encodeNanos time taken to encode the row, or {@link #NOT_SAMPLED}
+     */
+    void rowEncoded(String tableName, long encodeNanos);
+
+    /**
+     * Called when the infile buffer of a table is handed over to be loaded.
+     *
+     * @param tableName the table
+     * @param bytes     size of the rows in the buffer
+     * @param capacity  size in bytes the buffer can hold
+     */
+    void bufferFlushed(String tableName, int bytes, int capacity);
+
+    /**
+     * Called when an infile statement has completed, successfully or not.
+     *
+     * @param tableName    the table
+     * @param rows         rows the database reported as loaded
+     * @param bytes        bytes read by the statement
+     * @param latencyNanos time the statement took
+     * @param warnings     number of warnings reported by the database
+     */
+    void loaded(String tableName, long rows, long bytes, long latencyNanos, int warnings);
+
+    /**
+     * Called when an object passed to a hierarchical loader has been persisted along with every object it leads to.
+     *
+     * @param rootClass    class of the object passed to the loader
+     * @param entities     number of objects visited, including the root
+     * @param persistNanos time taken to persist them, which includes any flushes they caused
+     */
+    void entityGraphPersisted(Class<?> rootClass, int entities, long persistNanos);
+}
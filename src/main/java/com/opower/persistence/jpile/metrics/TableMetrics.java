@@ -0,0 +1,137 @@
+package com.opower.persistence.jpile.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and histograms of one table, kept by {@link InMemoryLoaderMetrics}.
+ * <p>
+ * Instances of this class are safe for use by multiple threads.
+ *
+ * @author s-m
+ * @since 1.0
+ */
+public class TableMetrics implements TableMetricsMBean {
+    private final String tableName;
+    private final AtomicLong rowsEncoded = new AtomicLong();
+    private final AtomicLong rowsLoaded = new AtomicLong();
+    private final AtomicLong bytesLoaded = new AtomicLong();
+    private final AtomicLong warnings = new AtomicLong();
+    private final Histogram encodeNanos = new Histogram();
+    private final Histogram loadNanos = new Histogram();
+    private final Histogram fillPercent = new Histogram();
+
+    TableMetrics(String tableName) {
+        this.tableName = tableName;
+    }
+
+    void rowEncoded(long nanos) {
+        this.rowsEncoded.incrementAndGet();
+        if(nanos != LoaderMetrics.NOT_SAMPLED) {
+            this.encodeNanos.record(nanos);
+        }
+    }
+
+    void bufferFlushed(int bytes, int capacity) {
+        this.fillPercent.record(capacity == 0 ? 0 : Math.round(100.0 * bytes / capacity));
+    }
+
+    void loaded(long rows, long bytes, long latencyNanos, int warningCount) {
+        this.rowsLoaded.addAndGet(Math.max(0, rows));
+        this.bytesLoaded.addAndGet(bytes);
+        this.warnings.addAndGet(warningCount);
+        this.loadNanos.record(latencyNanos);
+    }
+
+    @Override
+    public String getTableName() {
+        return this.tableName;
+    }
+
+    @Override
+    public long getRowsEncoded() {
+        return this.rowsEncoded.get();
+    }
+
+    @Override
+    public long getRowsLoaded() {
+        return this.rowsLoaded.get();
+    }
+
+    @Override
+    public long getBytesLoaded() {
+        return this.bytesLoaded.get();
+    }
+
+    /**
+     * @return number of buffers handed over to be loaded
+     */
+    @Override
+    public long getFlushes() {
+        return this.fillPercent.getCount();
+    }
+
+    /**
+     * @return number of infile statements run, which is lower than the number of flushes when streaming
+     */
+    @Override
+    public long getStatements() {
+        return this.loadNanos.getCount();
+    }
+
+    @Override
+    public long getWarnings() {
+        return this.warnings.get();
+    }
+
+    @Override
+    public double getEncodeMicrosMean() {
+        return this.encodeNanos.getMean() / 1000;
+    }
+
+    @Override
+    public long getEncodeMicros99thPercentile() {
+        return TimeUnit.NANOSECONDS.toMicros(this.encodeNanos.getPercentile(0.99));
+    }
+
+    @Override
+    public double getLoadMicrosMean() {
+        return this.loadNanos.getMean() / 1000;
+    }
+
+    @Override
+    public long getLoadMicros99thPercentile() {
+        return TimeUnit.NANOSECONDS.toMicros(this.loadNanos.getPercentile(0.99));
+    }
+
+    @Override
+    public long getLoadMicrosMax() {
+        return TimeUnit.NANOSECONDS.toMicros(this.loadNanos.getMax());
+    }
+
+    @Override
+    public double getFillPercentMean() {
+        return this.fillPercent.getMean();
+    }
+
+    /**
+     * @return time taken to encode a row, in nanoseconds, for the rows that were timed
+     */
+    public Histogram getEncodeNanos() {
+        return this.encodeNanos;
+    }
+
+    /**
+     * @return time taken by an infile statement, in nanoseconds
+     */
+    public Histogram getLoadNanos() {
+        return this.loadNanos;
+    }
+
+    /**
+     * @return how full, in percent, a buffer was when it was handed over to be loaded
+     */
+    public Histogram getFillPercent() {
+        return this.fillPercent;
+    }
+}
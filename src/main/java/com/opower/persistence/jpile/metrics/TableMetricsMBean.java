@@ -0,0 +1,37 @@
+package com.opower.persistence.jpile.metrics;
+
+/**
+ * The measurements of one table as exported over JMX by {@link JmxLoaderMetrics}. Times are in microseconds and fill
+ * ratios in percent.
+ *
+ * @author s-m
+ * @since 1.0
+ */
+public interface TableMetricsMBean {
+
+    String getTableName();
+
+    long getRowsEncoded();
+
+    long getRowsLoaded();
+
+    long getBytesLoaded();
+
+    long getFlushes();
+
+    long getStatements();
+
+    long getWarnings();
+
+    double getEncodeMicrosMean();
+
+    long getEncodeMicros99thPercentile();
+
+    double getLoadMicrosMean();
+
+    long getLoadMicros99thPercentile();
+
+    long getLoadMicrosMax();
+
+    double getFillPercentMean();
+}
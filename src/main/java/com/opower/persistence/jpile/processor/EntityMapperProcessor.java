@@ -0,0 +1,408 @@
+package com.opower.persistence.jpile.processor;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.persistence.Column;
+import javax.persistence.Embedded;
+import javax.persistence.Id;
+import javax.persistence.JoinColumn;
+import javax.persistence.ManyToOne;
+import javax.persistence.OneToOne;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.tools.Diagnostic;
+import com.google.common.base.Joiner;
+import com.opower.persistence.jpile.loader.EntityMapper;
+
+import static com.google.common.collect.Lists.*;
+import static com.google.common.collect.Maps.*;
+
+/**
+ * Generates an {@link EntityMapper} for every class annotated with {@link Table &#064;Table}, from the same
+ * <code>javax.persistence</code> annotations that
+ * {@link com.opower.persistence.jpile.loader.SingleInfileObjectLoaderBuilder} reads at runtime. The mapper calls the
+ * getters directly and appends each column with the typed method of
+ * {@link com.opower.persistence.jpile.infile.InfileRow} that matches the getter's return type.
+ * <p>
+ * The processor is not registered as a service, so it only runs when asked for, for example with
+ * <code>javac -processor com.opower.persistence.jpile.processor.EntityMapperProcessor</code> or in the
+ * <code>annotationProcessors</code> of the maven-compiler-plugin. Classes it cannot map exactly the way the builder
+ * does, such as classes with <code>&#064;Embedded</code> objects, non public getters or column types without a typed
+ * append, are reported with a note and left to reflection.
+ *
+ * @author amir.raminfar
+ * @since 1.0
+ */
+@SupportedAnnotationTypes("javax.persistence.Table")
+public class EntityMapperProcessor extends AbstractProcessor {
+    private static final String ENTITY_MAPPER = EntityMapper.class.getName();
+    private static final String INFILE_ROW = "com.opower.persistence.jpile.infile.InfileRow";
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for(TypeElement entity : ElementFilter.typesIn(roundEnv.getElementsAnnotatedWith(Table.class))) {
+            try {
+                this.generateMapper(entity);
+            }
+            catch(UnsupportedEntityException e) {
+                processingEnv.getMessager().printMessage(
+                        Diagnostic.Kind.NOTE, "No entity mapper generated, using reflection: " + e.getMessage(),
+                        entity);
+            }
+            catch(IOException e) {
+                processingEnv.getMessager().printMessage(
+                        Diagnostic.Kind.ERROR, "Cannot write entity mapper: " + e.getMessage(), entity);
+            }
+        }
+        // Other processors may want @Table as well
+        return false;
+    }
+
+    private void generateMapper(TypeElement entity) throws IOException {
+        check(entity.getNestingKind() == NestingKind.TOP_LEVEL, "it is not a top level class");
+        check(!entity.getModifiers().contains(Modifier.ABSTRACT), "it is abstract");
+        check(entity.getTypeParameters().isEmpty(), "it has type parameters");
+
+        String tableName = tableName(entity);
+        Map<String, ExecutableElement> columns = this.findColumns(entity, tableName);
+        List<String> writes = newArrayList();
+        int index = 0;
+        for(ExecutableElement getter : columns.values()) {
+            writes.add(this.writeColumn(getter, "value" + index++));
+        }
+
+        String packageName = ((PackageElement) entity.getEnclosingElement()).getQualifiedName().toString();
+        String mapperName = entity.getSimpleName() + EntityMapper.CLASS_NAME_SUFFIX;
+        String entityName = entity.getQualifiedName().toString();
+        String sql = "LOAD DATA LOCAL INFILE 'stream' INTO TABLE " + tableName
+                     + " (" + Joiner.on(", ").join(columns.keySet()) + ")";
+        List<String> columnLiterals = newArrayList();
+        for(String column : columns.keySet()) {
+            columnLiterals.add(literal(column));
+        }
+        List<String> columnTypeLiterals = newArrayList();
+        for(ExecutableElement getter : columns.values()) {
+            columnTypeLiterals.add(literal(this.columnType(getter)));
+        }
+
+        PrintWriter out = new PrintWriter(processingEnv.getFiler().createSourceFile(
+                packageName.isEmpty() ? mapperName : packageName + "." + mapperName, entity).openWriter());
+        try {
+            if(!packageName.isEmpty()) {
+                out.println("package " + packageName + ";");
+                out.println();
+            }
+            out.println("/**");
+            out.println(" * Writes {@link " + entityName + "} to table " + tableName + ". Generated by "
+                        + EntityMapperProcessor.class.getSimpleName() + ", do not edit.");
+            out.println(" */");
+            out.println("public final class " + mapperName
+                        + " implements " + ENTITY_MAPPER + "<" + entityName + "> {");
+            out.println("    private static final java.util.List<String> COLUMNS");
+            out.println("            = java.util.Collections.unmodifiableList(java.util.Arrays.asList("
+                        + Joiner.on(", ").join(columnLiterals) + "));");
+            out.println("    private static final java.util.List<String> COLUMN_TYPES");
+            out.println("            = java.util.Collections.unmodifiableList(java.util.Arrays.asList("
+                        + Joiner.on(", ").join(columnTypeLiterals) + "));");
+            out.println();
+            out.println("    @Override");
+            out.println("    public String getTableName() {");
+            out.println("        return " + literal(tableName) + ";");
+            out.println("    }");
+            out.println();
+            out.println("    @Override");
+            out.println("    public java.util.List<String> getColumns() {");
+            out.println("        return COLUMNS;");
+            out.println("    }");
+            out.println();
+            out.println("    @Override");
+            out.println("    public java.util.List<String> getColumnTypes() {");
+            out.println("        return COLUMN_TYPES;");
+            out.println("    }");
+            out.println();
+            out.println("    @Override");
+            out.println("    public String getLoadInfileSql() {");
+            out.println("        return " + literal(sql) + ";");
+            out.println("    }");
+            out.println();
+            out.println("    @Override");
+            out.println("    public void writeRow(" + entityName + " entity, " + INFILE_ROW + " infileRow) {");
+            for(String write : writes) {
+                out.print(write);
+            }
+            out.println("    }");
+            out.println("}");
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Finds the columns the way the builder does: <code>&#064;Column</code> getters of this table, then
+     * <code>&#064;JoinColumn</code> getters of relations, then the id, ordered by name ignoring case.
+     */
+    private Map<String, ExecutableElement> findColumns(TypeElement entity, String tableName) {
+        Map<String, ExecutableElement> columns = newTreeMap(String.CASE_INSENSITIVE_ORDER);
+        ExecutableElement idGetter = null;
+        for(ExecutableElement getter : this.getters(entity)) {
+            check(getter.getAnnotation(Embedded.class) == null, "%s is @Embedded", getter);
+            Column column = getter.getAnnotation(Column.class);
+            if(column != null) {
+                check(!column.name().isEmpty(), "@Column.name is missing on %s", getter);
+                if(column.table().isEmpty() || column.table().equals(tableName)) {
+                    putColumn(columns, column.name(), getter);
+                }
+            }
+            if(getter.getAnnotation(Id.class) != null) {
+                check(idGetter == null, "there is more than one @Id");
+                idGetter = getter;
+            }
+        }
+        for(ExecutableElement getter : this.getters(entity)) {
+            JoinColumn joinColumn = getter.getAnnotation(JoinColumn.class);
+            if(joinColumn != null
+               && (getter.getAnnotation(ManyToOne.class) != null || getter.getAnnotation(OneToOne.class) != null)) {
+                putColumn(columns, joinColumn.name(), getter);
+            }
+        }
+        check(idGetter != null, "there is no @Id");
+        Column idColumn = idGetter.getAnnotation(Column.class);
+        String idName = propertyName(idGetter);
+        check(this.hasField(entity, idName), "there is no field %s for the @Id", idName);
+        putColumn(columns, idColumn != null && !idColumn.name().isEmpty() ? idColumn.name() : idName, idGetter);
+        return columns;
+    }
+
+    private static void putColumn(Map<String, ExecutableElement> columns, String name, ExecutableElement getter) {
+        ExecutableElement existing = columns.get(name);
+        // The builder keeps whichever getter it finds last, and the order it finds them in is not defined
+        check(existing == null || existing.equals(getter), "column %s is mapped more than once", name);
+        if(existing == null) {
+            columns.put(name, getter);
+        }
+    }
+
+    /**
+     * @return the code that writes one column, for the typed append that the builder would pick for the getter
+     */
+    private String writeColumn(ExecutableElement getter, String variable) {
+        check(getter.getModifiers().contains(Modifier.PUBLIC), "%s is not public", getter);
+        TypeMirror type = getter.getReturnType();
+        String read = "entity." + getter.getSimpleName() + "()";
+        if(type.getKind().isPrimitive()) {
+            switch(type.getKind()) {
+                case LONG:
+                    return "        infileRow.appendLong(" + read + ");\n";
+                case INT:
+                case SHORT:
+                case BYTE:
+                    return "        infileRow.appendInt(" + read + ");\n";
+                case DOUBLE:
+                    return "        infileRow.appendDouble(" + read + ");\n";
+                case BOOLEAN:
+                    return "        infileRow.append(Boolean.valueOf(" + read + "));\n";
+                default:
+                    throw new UnsupportedEntityException(String.format("%s returns %s", getter, type));
+            }
+        }
+        String append;
+        TypeElement referenced = type.getKind() == TypeKind.DECLARED
+                                 ? (TypeElement) ((DeclaredType) type).asElement()
+                                 : null;
+        if(referenced != null && this.hasTable(referenced)) {
+            ExecutableElement referencedIdGetter = this.idGetter(referenced);
+            check(referencedIdGetter != null, "%s has no @Id", referenced);
+            check(referencedIdGetter.getModifiers().contains(Modifier.PUBLIC), "%s is not public", referencedIdGetter);
+            TypeMirror idType = referencedIdGetter.getReturnType();
+            check(idType.getKind() == TypeKind.LONG || this.isType(idType, Long.class.getName()),
+                  "the @Id of %s is not a long", referenced);
+            return String.format("        %s %s = %s;%n"
+                                 + "        if(%s == null) {%n"
+                                 + "            infileRow.appendNull();%n"
+                                 + "        }%n"
+                                 + "        else {%n"
+                                 + "            Long %sId = %s.%s();%n"
+                                 + "            com.google.common.base.Preconditions.checkState("
+                                 + "%sId != null, \"@Id for [%%s] is null\", %s);%n"
+                                 + "            infileRow.appendLong(%sId);%n"
+                                 + "        }%n",
+                                 type, variable, read, variable, variable, variable,
+                                 referencedIdGetter.getSimpleName(), variable, variable, variable);
+        }
+        else if(this.isType(type, Long.class.getName())) {
+            append = "infileRow.appendLong(%s);";
+        }
+        else if(this.isType(type, Integer.class.getName())
+                || this.isType(type, Short.class.getName())
+                || this.isType(type, Byte.class.getName())) {
+            append = "infileRow.appendInt(%s.intValue());";
+        }
+        else if(this.isType(type, Double.class.getName())) {
+            append = "infileRow.appendDouble(%s);";
+        }
+        else if(this.isType(type, "java.math.BigDecimal")) {
+            append = "infileRow.appendDecimal(%s);";
+        }
+        else if(this.isSubtype(type, "java.util.Date")) {
+            Temporal temporal = getter.getAnnotation(Temporal.class);
+            append = "infileRow.append(" + (this.isType(type, "java.util.Date") ? "" : "(java.util.Date) ") + "%s, "
+                     + (temporal != null
+                        ? "javax.persistence.TemporalType." + temporal.value().name()
+                        : "(javax.persistence.TemporalType) null")
+                     + ");";
+        }
+        else if(this.isSubtype(type, "org.joda.time.ReadableInstant")) {
+            append = "infileRow.append("
+                     + (this.isType(type, "org.joda.time.ReadableInstant") ? "" : "(org.joda.time.ReadableInstant) ")
+                     + "%s);";
+        }
+        else if(this.isType(type, "org.joda.time.LocalDate")
+                || this.isType(type, "org.joda.time.LocalDateTime")
+                || this.isType(type, "org.joda.time.LocalTime")
+                || this.isType(type, Boolean.class.getName())
+                || this.isType(type, String.class.getName())) {
+            append = "infileRow.append(%s);";
+        }
+        else if(type.getKind() == TypeKind.ARRAY && ((ArrayType) type).getComponentType().getKind() == TypeKind.BYTE) {
+            append = "infileRow.append(%s);";
+        }
+        else {
+            throw new UnsupportedEntityException(String.format("%s returns %s", getter, type));
+        }
+        return String.format("        %s %s = %s;%n"
+                             + "        if(%s == null) {%n"
+                             + "            infileRow.appendNull();%n"
+                             + "        }%n"
+                             + "        else {%n"
+                             + "            %s%n"
+                             + "        }%n",
+                             type, variable, read, variable, String.format(append, variable));
+    }
+
+    /**
+     * @return every method without parameters that returns something, including inherited ones
+     */
+    private List<ExecutableElement> getters(TypeElement type) {
+        List<ExecutableElement> getters = newArrayList();
+        for(ExecutableElement method : ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(type))) {
+            if(method.getParameters().isEmpty()
+               && method.getReturnType().getKind() != TypeKind.VOID
+               && !method.getModifiers().contains(Modifier.STATIC)) {
+                getters.add(method);
+            }
+        }
+        return getters;
+    }
+
+    private ExecutableElement idGetter(TypeElement type) {
+        ExecutableElement idGetter = null;
+        for(ExecutableElement getter : this.getters(type)) {
+            if(getter.getAnnotation(Id.class) != null) {
+                check(idGetter == null, "%s has more than one @Id", type);
+                idGetter = getter;
+            }
+        }
+        return idGetter;
+    }
+
+    private boolean hasTable(TypeElement type) {
+        if(type.getAnnotation(Table.class) != null) {
+            return true;
+        }
+        for(TypeMirror supertype : processingEnv.getTypeUtils().directSupertypes(type.asType())) {
+            if(supertype.getKind() == TypeKind.DECLARED
+               && this.hasTable((TypeElement) ((DeclaredType) supertype).asElement())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean hasField(TypeElement type, String name) {
+        for(VariableElement field : ElementFilter.fieldsIn(processingEnv.getElementUtils().getAllMembers(type))) {
+            if(field.getSimpleName().contentEquals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the type of a column as described by {@link EntityMapper#getColumnTypes()}
+     */
+    private String columnType(ExecutableElement getter) {
+        Temporal temporal = getter.getAnnotation(Temporal.class);
+        return processingEnv.getTypeUtils().erasure(getter.getReturnType())
+               + (temporal != null ? "@" + temporal.value().name() : "");
+    }
+
+    private boolean isType(TypeMirror type, String className) {
+        TypeElement element = processingEnv.getElementUtils().getTypeElement(className);
+        return element != null && processingEnv.getTypeUtils().isSameType(type, element.asType());
+    }
+
+    private boolean isSubtype(TypeMirror type, String className) {
+        TypeElement element = processingEnv.getElementUtils().getTypeElement(className);
+        return element != null && processingEnv.getTypeUtils().isAssignable(
+                processingEnv.getTypeUtils().erasure(type), processingEnv.getTypeUtils().erasure(element.asType()));
+    }
+
+    private static String tableName(TypeElement entity) {
+        Table table = entity.getAnnotation(Table.class);
+        return table.name().isEmpty() ? entity.getSimpleName().toString().toLowerCase() : table.name();
+    }
+
+    /**
+     * @return the name of the field the builder expects behind a getter
+     */
+    private static String propertyName(Element getter) {
+        String name = getter.getSimpleName().toString().replaceFirst("get", "");
+        return Character.toLowerCase(name.charAt(0)) + name.substring(1);
+    }
+
+    private static String literal(String s) {
+        return "\"" + s.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    private static void check(boolean supported, String reason, Object... args) {
+        if(!supported) {
+            throw new UnsupportedEntityException(String.format(reason, args));
+        }
+    }
+
+    /**
+     * Thrown when an entity cannot be mapped without reflection
+     */
+    private static class UnsupportedEntityException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        UnsupportedEntityException(String message) {
+            super(message);
+        }
+    }
+}
@@ -2,18 +2,18 @@ package com.opower.persistence.jpile.reflection;
 
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.List;
+import java.util.concurrent.ConcurrentMap;
 import javax.persistence.Id;
 import javax.persistence.SecondaryTable;
 import javax.persistence.SecondaryTables;
 import javax.persistence.Table;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
-import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.MapMaker;
 import com.googlecode.ehcache.annotations.Cacheable;
 import org.springframework.core.annotation.AnnotationUtils;
 import org.springframework.util.ReflectionUtils;
@@ -29,6 +29,7 @@ import static com.google.common.collect.Lists.*;
  * @since 1.0
  */
 public class CacheablePersistenceAnnotationInspector implements PersistenceAnnotationInspector {
+    private final ConcurrentMap<Class<?>, IdProperty> idProperties = new MapMaker().weakKeys().makeMap();
 
     /**
      * Uses <code>AnnotationUtils.findAnnotation()</code> from Spring framework. Searches all subclasses and class
@@ -222,67 +223,64 @@ public class CacheablePersistenceAnnotationInspector implements PersistenceAnnot
 
 
     /**
-     * A helper method for getting an id from a persist object with annotated @Id
+     * {@inheritDoc}
+     */
+    @Override
+    public Object getIdValue(Object entity) {
+        Preconditions.checkNotNull(entity, "Cannot get id on a null object");
+        return idProperty(entity.getClass()).get(entity);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setIdValue(Object entity, Object id) {
+        Preconditions.checkNotNull(entity, "Cannot update id on a null object");
+        idProperty(entity.getClass()).set(entity, id);
+    }
+
+    /**
+     * Gets how to read and write the id of a class, resolving it the first time the class is seen. The id is kept
+     * here rather than by @Cacheable, which does not apply to calls made from within this class.
      *
-     * The reason is static and takes an instance of self for caching reasons. @Cacheable does not work when calling
-     * <code>this.someCachedMethod()</code> so I am passing the object instead which caches everything.
+     * @param aClass the class
+     * @return the id of the class
+     */
+    IdProperty idProperty(Class<?> aClass) {
+        IdProperty idProperty = idProperties.get(aClass);
+        if(idProperty == null) {
+            IdProperty newIdProperty = IdProperty.resolve(this, aClass);
+            idProperty = idProperties.putIfAbsent(aClass, newIdProperty);
+            if(idProperty == null) {
+                idProperty = newIdProperty;
+            }
+        }
+        return idProperty;
+    }
+
+    /**
+     * A helper method for getting an id from a persist object with annotated @Id
      *
      * @param utils an instance of this class or sub-class
      * @param o     the object
      * @return the id
+     * @see PersistenceAnnotationInspector#getIdValue(Object)
      */
     public static Object getIdValue(PersistenceAnnotationInspector utils, Object o) {
-        Preconditions.checkNotNull(o, "Cannot get id on a null object");
-        if(utils.hasTableAnnotation(o.getClass())) {
-            Method getter = utils.idGetter(o.getClass());
-            if(getter != null) {
-                try {
-                    return getter.invoke(o);
-                }
-                catch(InvocationTargetException e) {
-                    throw Throwables.propagate(e);
-                }
-                catch(IllegalAccessException e) {
-                    throw Throwables.propagate(e);
-                }
-            }
-        }
-
-        return null;
+        return utils.getIdValue(o);
     }
 
     /**
      * Sets the value by find a getter with @Id and the setter that goes with that field. If a setter doesn't exist
      * then it falls back looking for the field
      *
-     * The reason is static and takes an instance of self for caching reasons. @Cacheable does not work when calling
-     * <code>this.someCachedMethod()</code> so I am passing the object instead which caches everything.
-     *
      * @param utils  an instance of this class or sub-class
      * @param entity the object
      * @param id     the new value
+     * @see PersistenceAnnotationInspector#setIdValue(Object, Object)
      */
     public static void setIdValue(PersistenceAnnotationInspector utils, Object entity, Object id) {
-        Preconditions.checkNotNull(entity, "Cannot update id on a null object");
-        Method getter = utils.idGetter(entity.getClass());
-        Method setter = utils.setterFromGetter(getter);
-        Field field = utils.fieldFromGetter(getter);
-
-        try {
-            if(setter != null) {
-                ReflectionUtils.makeAccessible(setter);
-                setter.invoke(entity, id);
-            }
-            else if(field != null) {
-                ReflectionUtils.makeAccessible(field);
-                field.set(entity, id);
-            }
-        }
-        catch(InvocationTargetException e) {
-            throw Throwables.propagate(e);
-        }
-        catch(IllegalAccessException e) {
-            throw Throwables.propagate(e);
-        }
+        utils.setIdValue(entity, id);
     }
 }
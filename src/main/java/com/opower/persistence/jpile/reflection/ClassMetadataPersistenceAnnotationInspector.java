@@ -0,0 +1,98 @@
+package com.opower.persistence.jpile.reflection;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import javax.persistence.SecondaryTable;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.MapMaker;
+
+/**
+ * Answers the questions asked for every entity, such as the table and the id of a class, from an {@link EntityMetadata}
+ * resolved once per class. Unlike {@link CacheablePersistenceAnnotationInspector} this needs no Spring proxy and no
+ * cache key is built from the arguments, so finding the id of an entity is one map lookup and a call of its getter.
+ * Questions about methods are only asked while loaders are set up and are answered without caching.
+ * <p>
+ * The metadata map holds classes weakly, so classes can still be unloaded. Instances of this class are safe for use by
+ * multiple threads.
+ *
+ * @author amir.raminfar
+ * @since 1.0
+ */
+public class ClassMetadataPersistenceAnnotationInspector extends CacheablePersistenceAnnotationInspector {
+    private final ConcurrentMap<Class<?>, EntityMetadata> metadata = new MapMaker().weakKeys().makeMap();
+
+    /**
+     * Gets the metadata of a class, resolving it the first time the class is seen
+     *
+     * @param aClass the class
+     * @return the metadata of the class
+     */
+    public EntityMetadata metadata(Class<?> aClass) {
+        EntityMetadata entityMetadata = metadata.get(aClass);
+        if(entityMetadata == null) {
+            EntityMetadata newEntityMetadata = resolve(aClass);
+            entityMetadata = metadata.putIfAbsent(aClass, newEntityMetadata);
+            if(entityMetadata == null) {
+                entityMetadata = newEntityMetadata;
+            }
+        }
+        return entityMetadata;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String tableName(Class<?> aClass) {
+        return Preconditions.checkNotNull(metadata(aClass).getTableName());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasTableAnnotation(Class<?> aClass) {
+        return metadata(aClass).hasTable();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String secondaryTable(Class<?> aClass) {
+        return metadata(aClass).getSecondaryTable();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<SecondaryTable> findSecondaryTables(Class<?> aClass) {
+        return metadata(aClass).getSecondaryTables();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Method idGetter(Class<?> aClass) {
+        return metadata(aClass).getIdGetter();
+    }
+
+    @Override
+    IdProperty idProperty(Class<?> aClass) {
+        return metadata(aClass).getIdProperty();
+    }
+
+    private EntityMetadata resolve(Class<?> aClass) {
+        Method idGetter = super.idGetter(aClass);
+        return new EntityMetadata(aClass,
+                                  super.hasTableAnnotation(aClass) ? super.tableName(aClass) : null,
+                                  super.secondaryTable(aClass),
+                                  super.findSecondaryTables(aClass),
+                                  idGetter,
+                                  idGetter == null ? null : setterFromGetter(idGetter),
+                                  idGetter == null ? null : fieldFromGetter(idGetter));
+    }
+}
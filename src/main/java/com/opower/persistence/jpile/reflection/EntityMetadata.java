@@ -0,0 +1,103 @@
+package com.opower.persistence.jpile.reflection;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.List;
+import javax.persistence.SecondaryTable;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * What {@link ClassMetadataPersistenceAnnotationInspector} knows about one class: its table, its secondary tables and
+ * how to read and write its id. Everything is resolved when the metadata is created, so reading it afterwards only
+ * reads fields.
+ * <p>
+ * Instances of this class are immutable and safe for use by multiple threads.
+ *
+ * @author amir.raminfar
+ * @since 1.0
+ */
+public final class EntityMetadata {
+    private final Class<?> entityClass;
+    private final String tableName;
+    private final String secondaryTable;
+    private final List<SecondaryTable> secondaryTables;
+    private final IdProperty idProperty;
+
+    EntityMetadata(Class<?> entityClass,
+                   String tableName,
+                   String secondaryTable,
+                   List<SecondaryTable> secondaryTables,
+                   Method idGetter,
+                   Method idSetter,
+                   Field idField) {
+        this.entityClass = entityClass;
+        this.tableName = tableName;
+        this.secondaryTable = secondaryTable;
+        this.secondaryTables = ImmutableList.copyOf(secondaryTables);
+        this.idProperty = new IdProperty(tableName != null, idGetter, idSetter, idField);
+    }
+
+    public Class<?> getEntityClass() {
+        return entityClass;
+    }
+
+    /**
+     * @return true if the class has a {@link javax.persistence.Table &#064;Table} annotation
+     */
+    public boolean hasTable() {
+        return tableName != null;
+    }
+
+    /**
+     * @return the table name, or null if the class has no {@link javax.persistence.Table &#064;Table} annotation
+     */
+    public String getTableName() {
+        return tableName;
+    }
+
+    /**
+     * @return the name of the {@link SecondaryTable &#064;SecondaryTable} annotation, or null if there is none
+     */
+    public String getSecondaryTable() {
+        return secondaryTable;
+    }
+
+    /**
+     * @return every secondary table of the class, empty if there are none
+     */
+    public List<SecondaryTable> getSecondaryTables() {
+        return secondaryTables;
+    }
+
+    /**
+     * @return the getter annotated with {@link javax.persistence.Id &#064;Id}, or null if there is none
+     */
+    public Method getIdGetter() {
+        return idProperty.getGetter();
+    }
+
+    IdProperty getIdProperty() {
+        return idProperty;
+    }
+
+    /**
+     * Gets the id of an entity of this class. Like {@link PersistenceAnnotationInspector#getIdValue(Object)} this is
+     * null for classes without a table.
+     *
+     * @param entity the entity
+     * @return the id, or null if the class has no table or no id
+     */
+    public Object getIdValue(Object entity) {
+        return idProperty.get(entity);
+    }
+
+    /**
+     * Sets the id of an entity of this class through the setter of the id, or the field if there is no setter.
+     *
+     * @param entity the entity
+     * @param id     the new id
+     */
+    public void setIdValue(Object entity, Object id) {
+        idProperty.set(entity, id);
+    }
+}
@@ -0,0 +1,88 @@
+package com.opower.persistence.jpile.reflection;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import org.springframework.util.ReflectionUtils;
+
+/**
+ * Reads and writes the id of the entities of one class. The getter annotated with {@link javax.persistence.Id &#064;Id}
+ * and its setter are called through {@link PropertyAccessors}, and the field of the id is only written when there is
+ * no setter.
+ *
+ * @author amir.raminfar
+ * @since 1.0
+ */
+final class IdProperty {
+    private final boolean hasTable;
+    private final Method getter;
+    private final PropertyAccessor accessor;
+    private final PropertySetter setter;
+    private final Field field;
+
+    /**
+     * @param hasTable true if the class has a {@link javax.persistence.Table &#064;Table} annotation
+     * @param getter   the getter of the id, or null if there is none
+     * @param setter   the setter of the id, or null if there is none
+     * @param field    the field of the id, or null if there is none
+     */
+    IdProperty(boolean hasTable, Method getter, Method setter, Field field) {
+        this.hasTable = hasTable;
+        this.getter = getter;
+        this.accessor = getter == null ? null : PropertyAccessors.forGetter(getter);
+        this.setter = setter == null ? null : PropertyAccessors.forSetter(setter);
+        this.field = setter == null ? field : null;
+        if(this.field != null) {
+            ReflectionUtils.makeAccessible(this.field);
+        }
+    }
+
+    /**
+     * Finds the id of a class
+     *
+     * @param inspector to look up the annotations with
+     * @param aClass    the class
+     * @return the id of the class
+     */
+    static IdProperty resolve(PersistenceAnnotationInspector inspector, Class<?> aClass) {
+        Method getter = inspector.idGetter(aClass);
+        return new IdProperty(inspector.hasTableAnnotation(aClass),
+                              getter,
+                              getter == null ? null : inspector.setterFromGetter(getter),
+                              getter == null ? null : inspector.fieldFromGetter(getter));
+    }
+
+    Method getGetter() {
+        return this.getter;
+    }
+
+    /**
+     * @param entity the entity
+     * @return the id, or null if the class has no table or no id
+     */
+    Object get(Object entity) {
+        return this.hasTable && this.accessor != null ? this.accessor.get(entity) : null;
+    }
+
+    /**
+     * Sets the id through its setter, or its field if there is no setter
+     *
+     * @param entity the entity
+     * @param id     the new id
+     */
+    void set(Object entity, Object id) {
+        Preconditions.checkNotNull(this.getter, "Cannot find setter from null getter");
+        if(this.setter != null) {
+            this.setter.set(entity, id);
+        }
+        else if(this.field != null) {
+            try {
+                this.field.set(entity, id);
+            }
+            catch(IllegalAccessException e) {
+                throw Throwables.propagate(e);
+            }
+        }
+    }
+}
@@ -158,6 +158,23 @@ public interface PersistenceAnnotationInspector {
      */
     List<SecondaryTable> findSecondaryTables(Class<?> aClass);
 
+    /**
+     * Gets the id of an entity through the getter annotated with {@link javax.persistence.Id &#064;Id}
+     *
+     * @param entity the entity
+     * @return the id, or null if the class has no {@link javax.persistence.Table &#064;Table} annotation or no id
+     */
+    Object getIdValue(Object entity);
+
+    /**
+     * Sets the id of an entity through the setter of the {@link javax.persistence.Id &#064;Id} getter, or the field of
+     * the getter if there is no setter
+     *
+     * @param entity the entity
+     * @param id     the new id
+     */
+    void setIdValue(Object entity, Object id);
+
 
     /**
      * For paring annotations and methods
@@ -0,0 +1,27 @@
+package com.opower.persistence.jpile.reflection;
+
+import java.lang.reflect.Method;
+
+/**
+ * Reads a property from an object through its getter. Accessors are created once per getter by
+ * {@link PropertyAccessors#forGetter(Method)} and reused for every object, so reading a column does not have to go
+ * through {@link Method#invoke(Object, Object...)}.
+ *
+ * @author amir.raminfar
+ * @since 1.0
+ */
+public interface PropertyAccessor {
+
+    /**
+     * Calls the getter on an object
+     *
+     * @param target the object to read from
+     * @return the value returned by the getter
+     */
+    Object get(Object target);
+
+    /**
+     * @return the getter this accessor calls
+     */
+    Method getMethod();
+}
@@ -0,0 +1,226 @@
+package com.opower.persistence.jpile.reflection;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import net.sf.cglib.reflect.FastClass;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.ReflectionUtils;
+
+/**
+ * Creates {@link PropertyAccessor}s for getters and {@link PropertySetter}s for setters. Public methods of public
+ * classes are called through a cglib {@link FastClass}, a class generated once per entity class that calls the method
+ * directly by its index instead of through reflection. Every other method, or one for which the class cannot be
+ * generated, falls back to {@link Method#invoke(Object, Object...)}.
+ *
+ * @author amir.raminfar
+ * @since 1.0
+ */
+public final class PropertyAccessors {
+    private static final Logger logger = LoggerFactory.getLogger(PropertyAccessors.class);
+    private static final Object[] NO_ARGS = new Object[0];
+    private static final Class<?>[] NO_PARAMETERS = new Class<?>[0];
+
+    private PropertyAccessors() {
+    }
+
+    /**
+     * Creates an accessor for a getter
+     *
+     * @param getter a method without parameters
+     * @return the accessor
+     */
+    public static PropertyAccessor forGetter(Method getter) {
+        Preconditions.checkNotNull(getter, "getter cannot be null");
+        Preconditions.checkArgument(getter.getParameterTypes().length == 0, "[%s] is not a getter", getter);
+        if(isPublic(getter)) {
+            try {
+                FastClass fastClass = FastClass.create(getter.getDeclaringClass());
+                return new FastClassAccessor(getter, fastClass, fastClass.getIndex(getter.getName(), NO_PARAMETERS));
+            }
+            catch(RuntimeException e) {
+                logger.debug("Falling back to reflection for [{}]: {}", getter, e);
+            }
+        }
+        return reflectionAccessor(getter);
+    }
+
+    /**
+     * Creates an accessor that always calls the getter through reflection
+     *
+     * @param getter a method without parameters
+     * @return the accessor
+     */
+    public static PropertyAccessor reflectionAccessor(Method getter) {
+        ReflectionUtils.makeAccessible(getter);
+        return new ReflectionAccessor(getter);
+    }
+
+    /**
+     * Creates a setter
+     *
+     * @param setter a method with one parameter
+     * @return the setter
+     */
+    public static PropertySetter forSetter(Method setter) {
+        Preconditions.checkNotNull(setter, "setter cannot be null");
+        Preconditions.checkArgument(setter.getParameterTypes().length == 1, "[%s] is not a setter", setter);
+        if(isPublic(setter)) {
+            try {
+                FastClass fastClass = FastClass.create(setter.getDeclaringClass());
+                return new FastClassSetter(setter, fastClass, fastClass.getIndex(setter.getName(),
+                                                                                 setter.getParameterTypes()));
+            }
+            catch(RuntimeException e) {
+                logger.debug("Falling back to reflection for [{}]: {}", setter, e);
+            }
+        }
+        return reflectionSetter(setter);
+    }
+
+    /**
+     * Creates a setter that always calls the method through reflection
+     *
+     * @param setter a method with one parameter
+     * @return the setter
+     */
+    public static PropertySetter reflectionSetter(Method setter) {
+        ReflectionUtils.makeAccessible(setter);
+        return new ReflectionSetter(setter);
+    }
+
+    private static boolean isPublic(Method method) {
+        if(!Modifier.isPublic(method.getModifiers())) {
+            return false;
+        }
+        for(Class<?> c = method.getDeclaringClass(); c != null; c = c.getEnclosingClass()) {
+            if(!Modifier.isPublic(c.getModifiers())) {
+                return false;
+            }
+        }
+        return method.getDeclaringClass().getClassLoader() != null;
+    }
+
+    /**
+     * Calls a getter by its index in a generated fast class
+     */
+    private static final class FastClassAccessor implements PropertyAccessor {
+        private final Method method;
+        private final FastClass fastClass;
+        private final int index;
+
+        private FastClassAccessor(Method method, FastClass fastClass, int index) {
+            Preconditions.checkState(index >= 0, "Cannot find [%s] in its fast class", method);
+            this.method = method;
+            this.fastClass = fastClass;
+            this.index = index;
+        }
+
+        @Override
+        public Object get(Object target) {
+            try {
+                return this.fastClass.invoke(this.index, target, NO_ARGS);
+            }
+            catch(InvocationTargetException e) {
+                throw Throwables.propagate(e);
+            }
+        }
+
+        @Override
+        public Method getMethod() {
+            return this.method;
+        }
+    }
+
+    /**
+     * Calls a setter by its index in a generated fast class
+     */
+    private static final class FastClassSetter implements PropertySetter {
+        private final Method method;
+        private final FastClass fastClass;
+        private final int index;
+
+        private FastClassSetter(Method method, FastClass fastClass, int index) {
+            Preconditions.checkState(index >= 0, "Cannot find [%s] in its fast class", method);
+            this.method = method;
+            this.fastClass = fastClass;
+            this.index = index;
+        }
+
+        @Override
+        public void set(Object target, Object value) {
+            try {
+                this.fastClass.invoke(this.index, target, new Object[]{value});
+            }
+            catch(InvocationTargetException e) {
+                throw Throwables.propagate(e);
+            }
+        }
+
+        @Override
+        public Method getMethod() {
+            return this.method;
+        }
+    }
+
+    /**
+     * Calls a setter through reflection
+     */
+    private static final class ReflectionSetter implements PropertySetter {
+        private final Method method;
+
+        private ReflectionSetter(Method method) {
+            this.method = method;
+        }
+
+        @Override
+        public void set(Object target, Object value) {
+            try {
+                this.method.invoke(target, value);
+            }
+            catch(InvocationTargetException e) {
+                throw Throwables.propagate(e);
+            }
+            catch(IllegalAccessException e) {
+                throw Throwables.propagate(e);
+            }
+        }
+
+        @Override
+        public Method getMethod() {
+            return this.method;
+        }
+    }
+
+    /**
+     * Calls a getter through reflection
+     */
+    private static final class ReflectionAccessor implements PropertyAccessor {
+        private final Method method;
+
+        private ReflectionAccessor(Method method) {
+            this.method = method;
+        }
+
+        @Override
+        public Object get(Object target) {
+            try {
+                return this.method.invoke(target);
+            }
+            catch(InvocationTargetException e) {
+                throw Throwables.propagate(e);
+            }
+            catch(IllegalAccessException e) {
+                throw Throwables.propagate(e);
+            }
+        }
+
+        @Override
+        public Method getMethod() {
+            return this.method;
+        }
+    }
+}
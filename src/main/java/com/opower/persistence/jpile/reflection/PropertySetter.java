@@ -0,0 +1,27 @@
+package com.opower.persistence.jpile.reflection;
+
+import java.lang.reflect.Method;
+
+/**
+ * Writes a property of an object through its setter. Setters are created once per setter method by
+ * {@link PropertyAccessors#forSetter(Method)} and reused for every object, so setting a generated id does not have to
+ * go through {@link Method#invoke(Object, Object...)}.
+ *
+ * @author amir.raminfar
+ * @since 1.0
+ */
+public interface PropertySetter {
+
+    /**
+     * Calls the setter on an object
+     *
+     * @param target the object to write to
+     * @param value  the new value
+     */
+    void set(Object target, Object value);
+
+    /**
+     * @return the setter this calls
+     */
+    Method getMethod();
+}
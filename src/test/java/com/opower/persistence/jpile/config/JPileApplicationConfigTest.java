@@ -0,0 +1,45 @@
+package com.opower.persistence.jpile.config;
+
+import com.opower.persistence.jpile.factory.HierarchicalInfileObjectLoaderFactory;
+import com.opower.persistence.jpile.loader.HierarchicalInfileObjectLoader;
+import com.opower.persistence.jpile.reflection.PersistenceAnnotationInspector;
+import com.opower.persistence.jpile.sample.Customer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author amir.raminfar
+ */
+public class JPileApplicationConfigTest {
+    private AnnotationConfigApplicationContext applicationContext;
+
+    @Before
+    public void setUp() throws Exception {
+        applicationContext = new AnnotationConfigApplicationContext(JPileApplicationConfig.class);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        applicationContext.close();
+    }
+
+    @Test
+    public void testFactoryUsesCachedInspector() throws Exception {
+        PersistenceAnnotationInspector persistenceAnnotationInspector
+                = applicationContext.getBean(PersistenceAnnotationInspector.class);
+        assertTrue("Inspector is not proxied for caching", AopUtils.isAopProxy(persistenceAnnotationInspector));
+        assertEquals("customer", persistenceAnnotationInspector.tableName(Customer.class));
+
+        HierarchicalInfileObjectLoaderFactory factory
+                = applicationContext.getBean(HierarchicalInfileObjectLoaderFactory.class);
+        HierarchicalInfileObjectLoader objectLoader = factory.getHierarchicalInfileObjectLoader();
+        assertSame(persistenceAnnotationInspector,
+                   ReflectionTestUtils.getField(objectLoader, "persistenceAnnotationInspector"));
+    }
+}
@@ -0,0 +1,65 @@
+package com.opower.persistence.jpile.factory;
+
+import java.io.InputStream;
+import java.sql.Connection;
+import java.util.List;
+import com.google.common.collect.Lists;
+import com.opower.persistence.jpile.loader.HierarchicalInfileObjectLoader;
+import com.opower.persistence.jpile.loader.LocalIdAllocator;
+import com.opower.persistence.jpile.sample.Customer;
+import com.opower.persistence.jpile.sample.ObjectFactory;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * @author amir.raminfar
+ */
+public class SimpleHierarchicalInfileObjectLoaderFactoryTest {
+    private final List<String> statements = Lists.newArrayList();
+
+    @Test
+    public void testLoadsWithoutApplicationContext() throws Exception {
+        HierarchicalInfileObjectLoaderFactory factory = new SimpleHierarchicalInfileObjectLoaderFactory();
+        HierarchicalInfileObjectLoader objectLoader = factory.getHierarchicalInfileObjectLoader();
+        objectLoader.setIdAllocator(new LocalIdAllocator());
+        objectLoader.setConnection(newConnection());
+
+        Customer customer = ObjectFactory.newCustomer();
+        objectLoader.persist(customer);
+        objectLoader.close();
+
+        assertEquals(1L, customer.getId().longValue());
+        assertEquals("SET FOREIGN_KEY_CHECKS = 0;", statements.get(0));
+        boolean customerLoaded = false;
+        for(String statement : statements) {
+            customerLoaded |= statement.startsWith("LOAD DATA") && statement.contains(" customer ");
+        }
+        assertTrue("Nothing was loaded into customer: " + statements, customerLoaded);
+    }
+
+    @Test
+    public void testLoadersAreIndependent() throws Exception {
+        HierarchicalInfileObjectLoaderFactory factory = new SimpleHierarchicalInfileObjectLoaderFactory();
+        assertNotSame(factory.getHierarchicalInfileObjectLoader(), factory.getHierarchicalInfileObjectLoader());
+    }
+
+    private Connection newConnection() throws Exception {
+        Connection connection = mock(Connection.class);
+        com.mysql.jdbc.Statement statement = mock(com.mysql.jdbc.Statement.class);
+        when(connection.createStatement()).thenReturn(statement);
+        when(statement.execute(anyString())).thenAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) {
+                statements.add((String) invocation.getArguments()[0]);
+                return false;
+            }
+        });
+        doNothing().when(statement).setLocalInfileInputStream(any(InputStream.class));
+        return connection;
+    }
+}
@@ -0,0 +1,84 @@
+package com.opower.persistence.jpile.infile;
+
+import java.nio.ByteBuffer;
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author s-m
+ */
+public class InfileBufferArenaTest {
+    private InfileBufferArena arena = new InfileBufferArena(4096, 2 * 4096);
+
+    @Test
+    public void testSegmentsAreDirectAndReused() {
+        ByteBuffer segment = arena.acquire();
+        assertTrue(segment.isDirect());
+        assertEquals(4096, segment.capacity());
+        segment.put((byte) 1);
+        arena.release(segment);
+        ByteBuffer reused = arena.acquire();
+        assertSame(segment, reused);
+        assertEquals(0, reused.position());
+    }
+
+    @Test
+    public void testBudget() {
+        assertEquals(2, arena.getMaxSegments());
+        ByteBuffer first = arena.acquire();
+        ByteBuffer second = arena.tryAcquire();
+        assertNotNull(second);
+        assertNull(arena.tryAcquire());
+        assertEquals(2, arena.getSegmentsInUse());
+        arena.release(first);
+        assertEquals(1, arena.getSegmentsInUse());
+        assertNotNull(arena.tryAcquire());
+    }
+
+    @Test
+    public void testBufferHoldsSegmentOnlyWhileItHasRows() throws Exception {
+        InfileDataBuffer buffer = new InfileDataBuffer(Charsets.UTF_8, arena, 1024);
+        assertEquals(0, arena.getSegmentsInUse());
+        assertEquals(0, ByteStreams.toByteArray(buffer.asInputStream()).length);
+
+        buffer.newRow().append("a").appendLong(1);
+        assertTrue(buffer.addRowToInfile());
+        buffer.newRow().append("b").appendLong(2);
+        assertTrue(buffer.addRowToInfile());
+        assertEquals(1, arena.getSegmentsInUse());
+        assertEquals("a\t1\nb\t2", new String(ByteStreams.toByteArray(buffer.asInputStream()), Charsets.UTF_8));
+
+        buffer.clear();
+        assertEquals(0, arena.getSegmentsInUse());
+    }
+
+    @Test(timeout = 10000)
+    public void testReclaimerFreesSegmentWhenBudgetIsExhausted() throws Exception {
+        final InfileDataBuffer[] buffers = new InfileDataBuffer[3];
+        for(int i = 0; i < buffers.length; i++) {
+            buffers[i] = new InfileDataBuffer(Charsets.UTF_8, arena, 1024);
+            buffers[i].setSegmentReclaimer(new Runnable() {
+                @Override
+                public void run() {
+                    buffers[0].clear();
+                }
+            });
+            buffers[i].newRow().appendLong(i);
+        }
+        assertTrue(buffers[0].addRowToInfile());
+        assertTrue(buffers[1].addRowToInfile());
+        assertTrue(buffers[2].addRowToInfile());
+
+        assertTrue(buffers[0].isEmpty());
+        assertEquals(2, arena.getSegmentsInUse());
+        assertEquals("2", new String(ByteStreams.toByteArray(buffers[2].asInputStream()), Charsets.UTF_8));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testRowBufferCannotBeLargerThanSegment() {
+        new InfileDataBuffer(Charsets.UTF_8, arena, 8192);
+    }
+}
@@ -0,0 +1,264 @@
+package com.opower.persistence.jpile.infile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import javax.persistence.TemporalType;
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.io.ByteStreams;
+import org.joda.time.DateTime;
+import org.joda.time.LocalDate;
+import org.joda.time.LocalDateTime;
+import org.joda.time.LocalTime;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author s-m
+ */
+public class InfileDataBufferTest {
+
+    @Test
+    public void testInfileBufferGrowsFromInitialSize() throws Exception {
+        int infileBufferSize = 4 * InfileDataBuffer.INITIAL_INFILE_BUFFER_SIZE;
+        InfileDataBuffer buffer = new InfileDataBuffer(Charsets.UTF_8, infileBufferSize, 1024);
+        String value = Strings.repeat("x", 1000);
+        int rows = 0;
+        while(true) {
+            buffer.newRow().append(value);
+            if(!buffer.addRowToInfile()) {
+                break;
+            }
+            rows++;
+        }
+        // Each row takes the value and a newline, except the first
+        assertEquals((infileBufferSize + 1) / 1001, rows);
+        assertEquals(rows * 1001 - 1, buffer.size());
+        assertEquals(rows * 1001 - 1, ByteStreams.toByteArray(buffer.asInputStream()).length);
+    }
+
+    @Test
+    public void testReleaseInfileBuffer() throws Exception {
+        InfileDataBuffer buffer = new InfileDataBuffer(Charsets.UTF_8, 64, 32);
+        buffer.newRow().append("a");
+        assertTrue(buffer.addRowToInfile());
+        try {
+            buffer.releaseInfileBuffer();
+            fail("Expected a buffer holding rows not to be released");
+        }
+        catch(IllegalStateException e) {
+            assertEquals(1, buffer.size());
+        }
+        buffer.clear();
+        buffer.releaseInfileBuffer();
+        assertTrue(buffer.isEmpty());
+
+        buffer.newRow().append("b");
+        assertTrue(buffer.addRowToInfile());
+        assertEquals("b", new String(ByteStreams.toByteArray(buffer.asInputStream()), Charsets.UTF_8));
+    }
+
+    @Test
+    public void testAppendPlainString() throws Exception {
+        assertEquals("hello world", encode(Charsets.UTF_8, "hello world"));
+    }
+
+    @Test
+    public void testAppendEscapesSpecialCharacters() throws Exception {
+        assertEquals("a\\\\b\\tc\\nd\\0e", encode(Charsets.UTF_8, "a\\b\tc\nd\0e"));
+    }
+
+    @Test
+    public void testAppendNonAsciiWithUtf8() throws Exception {
+        assertEquals("caf\u00e9 \\t \u65e5\u672c \\\\", encode(Charsets.UTF_8, "caf\u00e9 \t \u65e5\u672c \\"));
+    }
+
+    @Test
+    public void testAppendLatin1UsesSingleBytes() throws Exception {
+        InfileDataBuffer buffer = new InfileDataBuffer(Charsets.ISO_8859_1);
+        buffer.newRow().append("caf\u00e9\t");
+        assertTrue(buffer.addRowToInfile());
+        byte[] bytes = ByteStreams.toByteArray(buffer.asInputStream());
+        assertArrayEquals(new byte[]{'c', 'a', 'f', (byte) 0xE9, '\\', 't'}, bytes);
+    }
+
+    @Test
+    public void testAppendWithNonAsciiCompatibleCharset() throws Exception {
+        assertEquals("x\\ty\u00e9", encode(Charsets.UTF_16BE, "x\ty\u00e9"));
+    }
+
+    @Test
+    public void testAppendStringLongerThanScratchBuffer() throws Exception {
+        String s = "\u00e9" + Strings.repeat("\\\t", 500);
+        assertEquals("\u00e9" + Strings.repeat("\\\\\\t", 500), encode(Charsets.UTF_8, s));
+    }
+
+    @Test
+    public void testAppendSeparatesFields() throws Exception {
+        InfileDataBuffer buffer = new InfileDataBuffer(Charsets.UTF_8);
+        buffer.newRow().append("a").appendNull().append("b");
+        assertTrue(buffer.addRowToInfile());
+        buffer.newRow().append("c");
+        assertTrue(buffer.addRowToInfile());
+        assertEquals("a\t\\N\tb\nc", read(buffer.asInputStream(), Charsets.UTF_8));
+    }
+
+    @Test
+    public void testAppendLong() throws Exception {
+        for(long l : new long[]{0, 7, 10, 99, 100, 12345, -1, -100, Long.MAX_VALUE, Long.MIN_VALUE}) {
+            InfileDataBuffer buffer = new InfileDataBuffer(Charsets.UTF_8);
+            buffer.newRow().appendLong(l);
+            assertEquals(Long.toString(l), read(buffer));
+        }
+    }
+
+    @Test
+    public void testAppendInt() throws Exception {
+        InfileDataBuffer buffer = new InfileDataBuffer(Charsets.UTF_8);
+        buffer.newRow().appendInt(42).appendInt(Integer.MIN_VALUE).append(true);
+        assertEquals("42\t" + Integer.MIN_VALUE + "\t1", read(buffer));
+    }
+
+    @Test
+    public void testAppendDouble() throws Exception {
+        for(double d : new double[]{0, -0.0, 1, -2, 1.23, 9999999, 1e7, 1.5e-5, Double.NaN, Double.MAX_VALUE}) {
+            InfileDataBuffer buffer = new InfileDataBuffer(Charsets.UTF_8);
+            buffer.newRow().appendDouble(d);
+            assertEquals(Double.toString(d), read(buffer));
+        }
+    }
+
+    @Test
+    public void testAppendDecimal() throws Exception {
+        BigDecimal[] decimals = {
+                BigDecimal.valueOf(1.23), new BigDecimal("-0.05"), new BigDecimal("0.0000001"), BigDecimal.TEN,
+                new BigDecimal("1E+3"), new BigDecimal("-12.340"), new BigDecimal(BigInteger.TEN.pow(30), 2)
+        };
+        for(BigDecimal d : decimals) {
+            InfileDataBuffer buffer = new InfileDataBuffer(Charsets.UTF_8);
+            buffer.newRow().appendDecimal(d);
+            assertEquals(d.toPlainString(), read(buffer));
+        }
+    }
+
+    @Test
+    public void testAppendNumbersWithNonAsciiCompatibleCharset() throws Exception {
+        InfileDataBuffer buffer = new InfileDataBuffer(Charsets.UTF_16BE);
+        buffer.newRow().appendLong(-12).appendDouble(0.5).appendDecimal(null);
+        assertTrue(buffer.addRowToInfile());
+        assertEquals("-12\t0.5\t\\N", read(buffer.asInputStream(), Charsets.UTF_16BE));
+    }
+
+    @Test
+    public void testAppendDateKeepsTime() throws Exception {
+        Date date = new GregorianCalendar(2012, 0, 31, 13, 5, 9).getTime();
+        InfileDataBuffer buffer = new InfileDataBuffer(Charsets.UTF_8);
+        buffer.newRow().append(date).append(new Date(date.getTime() + 1000));
+        assertEquals("2012-01-31 13:05:09\t2012-01-31 13:05:10", read(buffer));
+    }
+
+    @Test
+    public void testAppendDateWithTemporalType() throws Exception {
+        Date date = new GregorianCalendar(2012, 11, 1, 7, 0, 0).getTime();
+        InfileDataBuffer buffer = new InfileDataBuffer(Charsets.UTF_8);
+        buffer.newRow()
+              .append(date, TemporalType.DATE)
+              .append(date, TemporalType.TIME)
+              .append(date, TemporalType.TIMESTAMP)
+              .append((Date) null, TemporalType.DATE);
+        assertEquals("2012-12-01\t07:00:00\t2012-12-01 07:00:00\t\\N", read(buffer));
+    }
+
+    @Test
+    public void testAppendSqlDates() throws Exception {
+        long millis = new GregorianCalendar(1999, 6, 4, 23, 59, 58).getTimeInMillis();
+        Timestamp timestamp = new Timestamp(millis);
+        timestamp.setNanos(123456789);
+        InfileDataBuffer buffer = new InfileDataBuffer(Charsets.UTF_8);
+        buffer.newRow().append(new java.sql.Date(millis)).append(new Time(millis)).append(timestamp);
+        assertEquals("1999-07-04\t23:59:58\t1999-07-04 23:59:58", read(buffer));
+    }
+
+    @Test
+    public void testAppendFractionalSeconds() throws Exception {
+        long millis = new GregorianCalendar(1999, 6, 4, 23, 59, 58).getTimeInMillis();
+        Timestamp timestamp = new Timestamp(millis);
+        timestamp.setNanos(123456789);
+        InfileDataBuffer buffer = new InfileDataBuffer(Charsets.UTF_8);
+        buffer.setFractionalSeconds(true);
+        buffer.newRow().append(timestamp).append(new Date(millis + 5)).append(new Date(millis));
+        assertEquals("1999-07-04 23:59:58.123456\t1999-07-04 23:59:58.005000\t1999-07-04 23:59:58", read(buffer));
+    }
+
+    @Test
+    public void testAppendJodaTypes() throws Exception {
+        InfileDataBuffer buffer = new InfileDataBuffer(Charsets.UTF_8);
+        buffer.newRow()
+              .append(new DateTime(2012, 2, 29, 8, 30, 0, 0))
+              .append(new LocalDate(2012, 2, 29))
+              .append(new LocalDateTime(2012, 2, 29, 8, 30, 1))
+              .append(new LocalTime(8, 30, 2));
+        assertEquals("2012-02-29 08:30:00\t2012-02-29\t2012-02-29 08:30:01\t08:30:02", read(buffer));
+    }
+
+    @Test
+    public void testAppendDateWithNonAsciiCompatibleCharset() throws Exception {
+        InfileDataBuffer buffer = new InfileDataBuffer(Charsets.UTF_16BE);
+        buffer.newRow().appendInt(1).append(new LocalDate(2012, 2, 29));
+        assertTrue(buffer.addRowToInfile());
+        assertEquals("1\t2012-02-29", read(buffer.asInputStream(), Charsets.UTF_16BE));
+    }
+
+    @Test
+    public void testRowBufferGrowsToFitRow() throws Exception {
+        InfileDataBuffer buffer = new InfileDataBuffer(Charsets.UTF_8, 1024, 4, 1024);
+        String s = Strings.repeat("\u00e9\t", 100);
+        buffer.newRow().appendLong(Long.MIN_VALUE).append(s).appendDecimal(new BigDecimal("-0.000123"));
+        assertFalse(buffer.isRowLargerThanInfile());
+        assertEquals(Long.MIN_VALUE + "\t" + Strings.repeat("\u00e9\\t", 100) + "\t-0.000123", read(buffer));
+    }
+
+    @Test
+    public void testRowLargerThanInfile() throws Exception {
+        InfileDataBuffer buffer = new InfileDataBuffer(Charsets.UTF_8, 16, 4, 64);
+        String s = Strings.repeat("x", 40);
+        buffer.newRow().append(s);
+        assertTrue(buffer.isRowLargerThanInfile());
+        assertFalse(buffer.addRowToInfile());
+        assertEquals(s, read(buffer.rowAsInputStream(), Charsets.UTF_8));
+
+        buffer.newRow().append("y");
+        assertFalse(buffer.isRowLargerThanInfile());
+        assertEquals("y", read(buffer));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testRowLargerThanMaximum() throws Exception {
+        InfileDataBuffer buffer = new InfileDataBuffer(Charsets.UTF_8, 16, 4, 32);
+        buffer.newRow().append(Strings.repeat("x", 33));
+    }
+
+    private static String read(InfileDataBuffer buffer) throws IOException {
+        assertTrue(buffer.addRowToInfile());
+        return read(buffer.asInputStream(), Charsets.UTF_8);
+    }
+
+    private static String encode(Charset charset, String s) throws IOException {
+        InfileDataBuffer buffer = new InfileDataBuffer(charset);
+        buffer.newRow().append(s);
+        assertTrue(buffer.addRowToInfile());
+        return read(buffer.asInputStream(), charset);
+    }
+
+    private static String read(InputStream inputStream, Charset charset) throws IOException {
+        return new String(ByteStreams.toByteArray(inputStream), charset);
+    }
+}
@@ -0,0 +1,57 @@
+package com.opower.persistence.jpile.infile;
+
+import java.nio.ByteBuffer;
+import javax.persistence.TemporalType;
+import com.google.common.base.Charsets;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author s-m
+ */
+public class InfileDateEncoderTest {
+    private static final DateTimeZone NEW_YORK = DateTimeZone.forID("America/New_York");
+
+    private InfileDateEncoder encoder = new InfileDateEncoder(NEW_YORK);
+
+    @Test
+    public void testSameDayUsesWallTime() {
+        assertEquals("2012-03-10 00:00:00", encode(new DateTime(2012, 3, 10, 0, 0, 0, 0, NEW_YORK)));
+        assertEquals("2012-03-10 23:59:59", encode(new DateTime(2012, 3, 10, 23, 59, 59, 999, NEW_YORK)));
+        assertEquals("2012-03-11 00:00:00", encode(new DateTime(2012, 3, 11, 0, 0, 0, 0, NEW_YORK)));
+    }
+
+    @Test
+    public void testAcrossDaylightSavingsTransition() {
+        // Clocks jump from 02:00 to 03:00 on 2012-03-11 in New York
+        assertEquals("2012-03-11 01:59:59", encode(new DateTime(2012, 3, 11, 1, 59, 59, 0, NEW_YORK)));
+        assertEquals("2012-03-11 03:00:00", encode(new DateTime(2012, 3, 11, 3, 0, 0, 0, NEW_YORK)));
+        assertEquals("2012-03-11 23:00:00", encode(new DateTime(2012, 3, 11, 23, 0, 0, 0, NEW_YORK)));
+    }
+
+    @Test
+    public void testBeforeEpoch() {
+        assertEquals("1965-12-31 23:00:00", encode(new DateTime(1965, 12, 31, 23, 0, 0, 0, NEW_YORK)));
+        assertEquals("1966-01-01 01:00:00", encode(new DateTime(1966, 1, 1, 1, 0, 0, 0, NEW_YORK)));
+    }
+
+    @Test
+    public void testTemporalTypes() {
+        long millis = new DateTime(2000, 1, 2, 3, 4, 5, 0, NEW_YORK).getMillis();
+        assertEquals("2000-01-02", encode(millis, TemporalType.DATE));
+        assertEquals("03:04:05", encode(millis, TemporalType.TIME));
+    }
+
+    private String encode(DateTime dateTime) {
+        return encode(dateTime.getMillis(), TemporalType.TIMESTAMP);
+    }
+
+    private String encode(long millis, TemporalType temporalType) {
+        ByteBuffer out = ByteBuffer.allocate(32);
+        encoder.encode(millis, InfileDateEncoder.nanosOf(millis), temporalType, out);
+        return new String(out.array(), 0, out.position(), Charsets.US_ASCII);
+    }
+}
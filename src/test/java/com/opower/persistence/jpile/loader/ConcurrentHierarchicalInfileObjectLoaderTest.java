@@ -0,0 +1,96 @@
+package com.opower.persistence.jpile.loader;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.sql.DataSource;
+import com.google.common.base.Splitter;
+import com.google.common.collect.MapMaker;
+import com.opower.persistence.jpile.sample.ObjectFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import static com.google.common.collect.Lists.*;
+import static com.google.common.collect.Sets.*;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * @author amir.raminfar
+ */
+public class ConcurrentHierarchicalInfileObjectLoaderTest {
+    private static final int THREADS = 4;
+    private static final int CUSTOMERS_PER_THREAD = 200;
+
+    private final ConcurrentMap<String, RecordingJdbcTemplate> tables = new MapMaker().makeMap();
+    private ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    private ConcurrentHierarchicalInfileObjectLoader objectLoader;
+
+    @Before
+    public void setUp() throws Exception {
+        objectLoader = new ConcurrentHierarchicalInfileObjectLoader(mock(DataSource.class)) {
+            @Override
+            JdbcTemplate newTableJdbcTemplate(String tableName) {
+                RecordingJdbcTemplate jdbcTemplate = new RecordingJdbcTemplate();
+                assertNull("One flusher per table", tables.putIfAbsent(tableName, jdbcTemplate));
+                return jdbcTemplate;
+            }
+        };
+        objectLoader.setIdAllocator(new LocalIdAllocator());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testPersistFromManyThreads() throws Exception {
+        List<Future<Void>> futures = newArrayList();
+        for(int i = 0; i < THREADS; i++) {
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    for(int j = 0; j < CUSTOMERS_PER_THREAD; j++) {
+                        objectLoader.persist(ObjectFactory.newCustomer());
+                    }
+                    return null;
+                }
+            }));
+        }
+        for(Future<Void> future : futures) {
+            future.get();
+        }
+        objectLoader.close();
+
+        int customers = THREADS * CUSTOMERS_PER_THREAD;
+        assertEquals(customers, distinctIds("customer", 0).size());
+        assertEquals(customers, distinctIds("contact", 0).size());
+        assertEquals(customers, distinctIds("contact_phone", 0).size());
+        // Products reference their customer in the first column and have their own id in the third
+        assertEquals(customers * 4, distinctIds("product", 2).size());
+        assertEquals(customers, distinctIds("product", 0).size());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testPersistAfterClose() throws Exception {
+        objectLoader.close();
+        objectLoader.persist(ObjectFactory.newCustomer());
+    }
+
+    private Set<String> distinctIds(String tableName, int column) {
+        Set<String> ids = newHashSet();
+        for(String load : tables.get(tableName).getLoads()) {
+            for(String row : Splitter.on('\n').omitEmptyStrings().split(load)) {
+                ids.add(newArrayList(Splitter.on('\t').split(row)).get(column));
+            }
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,43 @@
+package com.opower.persistence.jpile.loader;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author amir.raminfar
+ */
+public class FlushPoliciesTest {
+
+    @Test
+    public void testMaxRowsAndMaxBytes() throws Exception {
+        assertFalse(FlushPolicies.maxRows(10).shouldFlush(9, 1000, 0));
+        assertTrue(FlushPolicies.maxRows(10).shouldFlush(10, 0, 0));
+        assertFalse(FlushPolicies.maxBytes(100).shouldFlush(1000, 99, 0));
+        assertTrue(FlushPolicies.maxBytes(100).shouldFlush(1, 100, 0));
+    }
+
+    @Test
+    public void testMaxAge() throws Exception {
+        FlushPolicy policy = FlushPolicies.maxAge(1, TimeUnit.MINUTES);
+        long now = System.currentTimeMillis();
+        assertFalse(policy.shouldFlush(1, 1, now));
+        assertTrue(policy.shouldFlush(1, 1, now - TimeUnit.MINUTES.toMillis(2)));
+    }
+
+    @Test
+    public void testMemoryPressure() throws Exception {
+        assertTrue(FlushPolicies.memoryPressure(Double.MIN_VALUE).shouldFlush(1, 1, 0));
+        assertFalse(FlushPolicies.memoryPressure(1).shouldFlush(1, 1, 0)
+                    && Runtime.getRuntime().maxMemory() > Runtime.getRuntime().totalMemory());
+    }
+
+    @Test
+    public void testAnyOf() throws Exception {
+        FlushPolicy policy = FlushPolicies.anyOf(FlushPolicies.maxRows(10), FlushPolicies.maxBytes(100));
+        assertFalse(policy.shouldFlush(9, 99, 0));
+        assertTrue(policy.shouldFlush(10, 99, 0));
+        assertTrue(policy.shouldFlush(9, 100, 0));
+    }
+}
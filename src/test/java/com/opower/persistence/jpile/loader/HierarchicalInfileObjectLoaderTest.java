@@ -0,0 +1,447 @@
+package com.opower.persistence.jpile.loader;
+
+import java.io.InputStream;
+import java.sql.Connection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.sql.DataSource;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.opower.persistence.jpile.factory.PooledHierarchicalInfileObjectLoaderFactory;
+import com.opower.persistence.jpile.infile.InfileDataBuffer;
+import com.opower.persistence.jpile.metrics.InMemoryLoaderMetrics;
+import com.opower.persistence.jpile.metrics.TableMetrics;
+import com.opower.persistence.jpile.sample.Customer;
+import com.opower.persistence.jpile.sample.ObjectFactory;
+import com.opower.persistence.jpile.sample.Product;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * @author amir.raminfar
+ */
+public class HierarchicalInfileObjectLoaderTest {
+    // customer, contact, contact_phone and product
+    private static final int TABLES = 4;
+
+    private final List<String> statements = Collections.synchronizedList(Lists.<String>newArrayList());
+    private final CountDownLatch loadsStarted = new CountDownLatch(TABLES);
+    private boolean awaitParallelLoads = false;
+    private final List<Connection> connections = Lists.newArrayList();
+    private DataSource dataSource;
+    private HierarchicalInfileObjectLoader objectLoader;
+
+    @Before
+    public void setUp() throws Exception {
+        dataSource = mock(DataSource.class);
+        when(dataSource.getConnection()).thenAnswer(new Answer<Connection>() {
+            @Override
+            public Connection answer(InvocationOnMock invocation) throws Throwable {
+                return newConnection();
+            }
+        });
+        objectLoader = new HierarchicalInfileObjectLoader();
+        objectLoader.setIdAllocator(new LocalIdAllocator());
+        LocalIdAllocator.resetShared();
+    }
+
+    @Test
+    public void testParallelFlushLoadsTablesAtOnce() throws Exception {
+        awaitParallelLoads = true;
+        objectLoader.setParallelFlush(dataSource, TABLES);
+        objectLoader.setJdbcTemplate(new RecordingJdbcTemplate());
+        objectLoader.persist(ObjectFactory.newCustomer());
+        objectLoader.flush();
+
+        assertEquals(TABLES, connections.size());
+        int foreignKeyChecks = 0;
+        for(String statement : statements) {
+            foreignKeyChecks += statement.equals("SET FOREIGN_KEY_CHECKS = 0;") ? 1 : 0;
+        }
+        assertEquals(TABLES, foreignKeyChecks);
+        assertEquals(TABLES * 2, statements.size());
+
+        objectLoader.close();
+        for(Connection connection : connections) {
+            verify(connection).close();
+        }
+    }
+
+    @Test
+    public void testForeignKeyChecksFlushReferencedTablesFirst() throws Exception {
+        objectLoader.setForeignKeyChecks(true);
+        objectLoader.setParallelFlush(dataSource, TABLES);
+        objectLoader.setJdbcTemplate(new RecordingJdbcTemplate());
+        objectLoader.persist(ObjectFactory.newCustomer());
+        objectLoader.flush();
+
+        List<String> tables = Lists.newArrayList();
+        for(String statement : statements) {
+            assertFalse(statement.startsWith("SET FOREIGN_KEY_CHECKS"));
+            tables.add(statement.split(" ")[7]);
+        }
+        assertEquals(TABLES, tables.size());
+        assertEquals("customer", tables.get(0));
+        assertTrue(tables.indexOf("contact") < tables.indexOf("contact_phone"));
+        objectLoader.close();
+    }
+
+    @Test
+    public void testDependencyGraphFollowsForeignKeys() throws Exception {
+        objectLoader.setParallelFlush(dataSource, TABLES);
+        objectLoader.setJdbcTemplate(new RecordingJdbcTemplate());
+        objectLoader.persist(ObjectFactory.newCustomer());
+
+        assertEquals(ImmutableList.of(ImmutableList.of("customer"),
+                                      ImmutableList.of("product", "contact"),
+                                      ImmutableList.of("contact_phone")),
+                     objectLoader.dependencyGraph().waves());
+        objectLoader.close();
+    }
+
+    @Test
+    public void testFlushCheckIntervalFlushesWithoutNewRows() throws Exception {
+        final AtomicBoolean due = new AtomicBoolean();
+        objectLoader.setParallelFlush(dataSource, TABLES);
+        objectLoader.setJdbcTemplate(new RecordingJdbcTemplate());
+        objectLoader.setFlushPolicy(new FlushPolicy() {
+            @Override
+            public boolean shouldFlush(int rows, int bytes, long oldestRowMillis) {
+                return due.get();
+            }
+        });
+        objectLoader.setFlushCheckInterval(10, TimeUnit.MILLISECONDS);
+        objectLoader.persist(ObjectFactory.newCustomer());
+        due.set(true);
+
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while(loads() < TABLES && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(TABLES, loads());
+        objectLoader.close();
+    }
+
+    @Test(timeout = 10000)
+    public void testMemoryBudgetSmallerThanTablesFlushesFullestTable() throws Exception {
+        RecordingJdbcTemplate jdbcTemplate = new RecordingJdbcTemplate();
+        objectLoader.setJdbcTemplate(jdbcTemplate);
+        // Two segments for four tables
+        objectLoader.setMemoryBudget(2 * 4096, 4096);
+        for(int i = 0; i < 10; i++) {
+            objectLoader.persist(ObjectFactory.newCustomer());
+        }
+        assertFalse(jdbcTemplate.getLoads().isEmpty());
+        objectLoader.close();
+
+        int customers = 0;
+        for(int i = 0; i < jdbcTemplate.getLoads().size(); i++) {
+            String load = jdbcTemplate.getLoads().get(i);
+            if(jdbcTemplate.getStatements().get(i).contains("INTO TABLE customer ") && !load.isEmpty()) {
+                customers += load.split("\n").length;
+            }
+        }
+        assertEquals(10, customers);
+    }
+
+    @Test
+    public void testMetricsSampleEncodingAndMeasureEntityGraphs() throws Exception {
+        InMemoryLoaderMetrics metrics = new InMemoryLoaderMetrics();
+        objectLoader.setJdbcTemplate(new RecordingJdbcTemplate());
+        objectLoader.setMetrics(metrics);
+        objectLoader.setEncodeSampleInterval(4);
+        for(int i = 0; i < 10; i++) {
+            objectLoader.persist(ObjectFactory.newCustomer());
+        }
+        objectLoader.close();
+
+        // A customer with its contact and four products
+        assertEquals(10, metrics.getGraphEntities().getCount());
+        assertEquals(60, metrics.getGraphEntities().getSum());
+        assertEquals(10, metrics.getGraphPersistNanos().getCount());
+        TableMetrics customer = metrics.getTableMetrics("customer");
+        assertEquals(10, customer.getRowsEncoded());
+        assertEquals(3, customer.getEncodeNanos().getCount());
+        assertEquals(10, customer.getRowsLoaded());
+    }
+
+    @Test
+    public void testPrepareCreatesLoadersOfReachableClasses() throws Exception {
+        objectLoader.setParallelFlush(dataSource, TABLES);
+        objectLoader.setJdbcTemplate(new RecordingJdbcTemplate());
+        objectLoader.prepare(Product.class);
+
+        // Products reach customers, which reach contacts
+        assertEquals(TABLES, connections.size());
+        assertEquals(ImmutableList.of(ImmutableList.of("customer"),
+                                      ImmutableList.of("product", "contact"),
+                                      ImmutableList.of("contact_phone")),
+                     objectLoader.dependencyGraph().waves());
+        assertEquals(0, loads());
+
+        objectLoader.persist(ObjectFactory.newCustomer());
+        objectLoader.close();
+        assertEquals(TABLES, connections.size());
+        assertEquals(TABLES, loads());
+    }
+
+    @Test
+    public void testPrepareReportsEveryClassThatCannotBeMapped() throws Exception {
+        RecordingJdbcTemplate jdbcTemplate = new RecordingJdbcTemplate();
+        objectLoader.setJdbcTemplate(jdbcTemplate);
+        try {
+            objectLoader.prepare(Customer.class, WithoutId.class, WithoutColumnName.class);
+            fail("Expected the unmapped classes to be reported");
+        }
+        catch(IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(WithoutId.class.getName()));
+            assertTrue(e.getMessage(), e.getMessage().contains(WithoutColumnName.class.getName()));
+            assertFalse(e.getMessage(), e.getMessage().contains(Customer.class.getName()));
+        }
+        assertEquals(ImmutableList.of(), jdbcTemplate.getLoads());
+    }
+
+    @Test
+    public void testPreparedPlanIsSharedWithLoadersCreatedLater() throws Exception {
+        objectLoader.prepare(Customer.class);
+        RecordingJdbcTemplate jdbcTemplate = new RecordingJdbcTemplate();
+        HierarchicalInfileObjectLoader sharingLoader = new HierarchicalInfileObjectLoader(objectLoader);
+        sharingLoader.setJdbcTemplate(jdbcTemplate);
+        sharingLoader.setIdAllocator(new LocalIdAllocator());
+        sharingLoader.persist(ObjectFactory.newCustomer());
+        sharingLoader.close();
+
+        assertEquals(TABLES, jdbcTemplate.getLoads().size());
+    }
+
+    @Test
+    public void testClosedLoaderIsReusedWithItsBuffers() throws Exception {
+        // With the default id allocator
+        objectLoader = new HierarchicalInfileObjectLoader();
+        MaxIdJdbcTemplate firstJob = new MaxIdJdbcTemplate(0);
+        objectLoader.setJdbcTemplate(firstJob);
+        Customer customer = ObjectFactory.newCustomer();
+        objectLoader.persist(customer);
+        InfileDataBuffer buffer = objectLoader.getPrimaryObjectLoaders().get(Customer.class).getInfileDataBuffer();
+        objectLoader.close();
+        assertEquals(1L, customer.getId().longValue());
+        assertEquals(TABLES, firstJob.getLoads().size());
+
+        // Rows were added to the tables since the first job, ids are seeded again
+        MaxIdJdbcTemplate secondJob = new MaxIdJdbcTemplate(100);
+        objectLoader.setJdbcTemplate(secondJob);
+        customer = ObjectFactory.newCustomer();
+        objectLoader.persist(customer);
+        assertSame(buffer, objectLoader.getPrimaryObjectLoaders().get(Customer.class).getInfileDataBuffer());
+        objectLoader.close();
+        assertEquals(101L, customer.getId().longValue());
+        assertEquals(TABLES, secondJob.getLoads().size());
+        assertEquals(TABLES, firstJob.getLoads().size());
+    }
+
+    @Test
+    public void testDefaultLoadersInParallelHandOutDifferentIds() throws Exception {
+        HierarchicalInfileObjectLoader first = new HierarchicalInfileObjectLoader();
+        first.setJdbcTemplate(new MaxIdJdbcTemplate(10));
+        HierarchicalInfileObjectLoader second = new HierarchicalInfileObjectLoader();
+        second.setJdbcTemplate(new MaxIdJdbcTemplate(10));
+        Set<Long> ids = Sets.newHashSet();
+        for(int i = 0; i < 5; i++) {
+            for(HierarchicalInfileObjectLoader loader : ImmutableList.of(first, second)) {
+                Customer customer = ObjectFactory.newCustomer();
+                loader.persist(customer);
+                assertTrue("Duplicate id " + customer.getId(), ids.add(customer.getId()));
+            }
+        }
+        first.close();
+        second.close();
+        assertEquals(11L, (long) Collections.min(ids));
+    }
+
+    @Test
+    public void testPooledFactoryReusesReleasedLoaders() throws Exception {
+        PooledHierarchicalInfileObjectLoaderFactory factory = new PooledHierarchicalInfileObjectLoaderFactory(1);
+        HierarchicalInfileObjectLoader first = factory.getHierarchicalInfileObjectLoader();
+        first.setIdAllocator(new LocalIdAllocator());
+        first.setJdbcTemplate(new RecordingJdbcTemplate());
+        first.persist(ObjectFactory.newCustomer());
+        HierarchicalInfileObjectLoader second = factory.getHierarchicalInfileObjectLoader();
+        assertNotSame(first, second);
+        factory.release(first);
+        factory.release(second);
+
+        RecordingJdbcTemplate jdbcTemplate = new RecordingJdbcTemplate();
+        HierarchicalInfileObjectLoader reused = factory.getHierarchicalInfileObjectLoader();
+        assertSame(first, reused);
+        try {
+            reused.persist(ObjectFactory.newCustomer());
+            fail("A released loader must not keep the connection of its last job");
+        }
+        catch(NullPointerException e) {
+            assertEquals("Connection is null, did you call setConnection()?", e.getMessage());
+        }
+        reused.setJdbcTemplate(jdbcTemplate);
+        reused.persist(ObjectFactory.newCustomer());
+        factory.release(reused);
+        assertEquals(TABLES, jdbcTemplate.getLoads().size());
+        // Only one idle loader is kept
+        assertNotSame(second, factory.getHierarchicalInfileObjectLoader());
+    }
+
+    @Test
+    public void testPooledLoaderSeedsIdsAgainAfterRowsAreAdded() throws Exception {
+        PooledHierarchicalInfileObjectLoaderFactory factory = new PooledHierarchicalInfileObjectLoaderFactory(1);
+        HierarchicalInfileObjectLoader first = factory.getHierarchicalInfileObjectLoader();
+        first.setJdbcTemplate(new MaxIdJdbcTemplate(0));
+        Customer customer = ObjectFactory.newCustomer();
+        first.persist(customer);
+        factory.release(first);
+        assertEquals(1L, customer.getId().longValue());
+
+        // Another process added rows up to id 50 before the next job
+        HierarchicalInfileObjectLoader reused = factory.getHierarchicalInfileObjectLoader();
+        assertSame(first, reused);
+        reused.setJdbcTemplate(new MaxIdJdbcTemplate(50));
+        Set<Long> ids = Sets.newHashSet();
+        for(int i = 0; i < 3; i++) {
+            customer = ObjectFactory.newCustomer();
+            reused.persist(customer);
+            ids.add(customer.getId());
+        }
+        factory.release(reused);
+        assertEquals(ImmutableSet.of(51L, 52L, 53L), ids);
+    }
+
+    @Test
+    public void testPooledLoadersRunningAtOnceHandOutDifferentIds() throws Exception {
+        IdAllocator idAllocator = new LocalIdAllocator();
+        final PooledHierarchicalInfileObjectLoaderFactory factory
+                = new PooledHierarchicalInfileObjectLoaderFactory(idAllocator, 2);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            List<Future<List<Long>>> jobs = Lists.newArrayList();
+            for(int i = 0; i < 2; i++) {
+                final HierarchicalInfileObjectLoader pooled = factory.getHierarchicalInfileObjectLoader();
+                pooled.setJdbcTemplate(new RecordingJdbcTemplate());
+                jobs.add(executor.submit(new Callable<List<Long>>() {
+                    @Override
+                    public List<Long> call() {
+                        List<Long> ids = Lists.newArrayList();
+                        for(int j = 0; j < 100; j++) {
+                            Customer customer = ObjectFactory.newCustomer();
+                            pooled.persist(customer);
+                            ids.add(customer.getId());
+                        }
+                        factory.release(pooled);
+                        return ids;
+                    }
+                }));
+            }
+            Set<Long> ids = Sets.newHashSet();
+            for(Future<List<Long>> job : jobs) {
+                ids.addAll(job.get());
+            }
+            assertEquals(200, ids.size());
+            assertEquals(201, idAllocator.nextId("customer"));
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private int loads() {
+        int loads = 0;
+        synchronized(statements) {
+            for(String statement : statements) {
+                loads += statement.startsWith("LOAD DATA") ? 1 : 0;
+            }
+        }
+        return loads;
+    }
+
+    private Connection newConnection() throws Exception {
+        Connection connection = mock(Connection.class);
+        final com.mysql.jdbc.Statement statement = mock(com.mysql.jdbc.Statement.class);
+        when(connection.createStatement()).thenReturn(statement);
+        when(statement.execute(anyString())).thenAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) throws Throwable {
+                String sql = (String) invocation.getArguments()[0];
+                statements.add(sql);
+                if(awaitParallelLoads && sql.startsWith("LOAD DATA")) {
+                    // Every table's load has to be running at the same time for this to return
+                    loadsStarted.countDown();
+                    assertTrue("Tables were not loaded in parallel", loadsStarted.await(10, TimeUnit.SECONDS));
+                }
+                return false;
+            }
+        });
+        doNothing().when(statement).setLocalInfileInputStream(any(InputStream.class));
+        connections.add(connection);
+        return connection;
+    }
+
+    /**
+     * Answers the queries of {@link LocalIdAllocator} as if every table had rows up to a given id
+     */
+    private static class MaxIdJdbcTemplate extends RecordingJdbcTemplate {
+        private final long maxId;
+
+        MaxIdJdbcTemplate(long maxId) {
+            this.maxId = maxId;
+        }
+
+        @Override
+        public long queryForLong(String sql) {
+            return maxId;
+        }
+    }
+
+    @Entity
+    @Table(name = "without_id")
+    public static class WithoutId {
+        private String name;
+
+        @Column(name = "name")
+        public String getName() {
+            return name;
+        }
+    }
+
+    @Entity
+    @Table(name = "without_column_name")
+    public static class WithoutColumnName {
+        private Long id;
+        private String name;
+
+        @Id
+        public Long getId() {
+            return id;
+        }
+
+        @Column
+        public String getName() {
+            return name;
+        }
+    }
+}
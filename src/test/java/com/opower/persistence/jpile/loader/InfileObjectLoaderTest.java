@@ -0,0 +1,226 @@
+package com.opower.persistence.jpile.loader;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.opower.persistence.jpile.infile.InfileDataBuffer;
+import com.opower.persistence.jpile.metrics.InMemoryLoaderMetrics;
+import com.opower.persistence.jpile.metrics.TableMetrics;
+import com.opower.persistence.jpile.reflection.CacheablePersistenceAnnotationInspector;
+import com.opower.persistence.jpile.sample.Customer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+
+import static com.google.common.collect.Lists.*;
+import static org.junit.Assert.*;
+
+/**
+ * @author amir.raminfar
+ */
+public class InfileObjectLoaderTest {
+    private static final int CUSTOMERS = 50;
+
+    private RecordingJdbcTemplate jdbcTemplate = new RecordingJdbcTemplate();
+    private ExecutorService executor = Executors.newSingleThreadExecutor();
+    private SingleInfileObjectLoader<Customer> objectLoader;
+
+    @Before
+    public void setUp() throws Exception {
+        objectLoader = new SingleInfileObjectLoaderBuilder<Customer>(Customer.class)
+                .withDefaultTableName()
+                .withJdbcTemplate(jdbcTemplate)
+                .usingHibernateBeanUtils(new CacheablePersistenceAnnotationInspector())
+                .withBuffer(new InfileDataBuffer(Charsets.UTF_8, 64, 32))
+                .build();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testFlushInBackground() throws Exception {
+        objectLoader.setFlushExecutor(executor, 1);
+        for(int i = 0; i < CUSTOMERS; i++) {
+            objectLoader.add(new Customer());
+        }
+        objectLoader.flush();
+
+        assertTrue(jdbcTemplate.getLoads().size() > 1);
+        assertEquals(expectedRows(1, CUSTOMERS), Joiner.on('\n').join(jdbcTemplate.getLoads()));
+        assertEquals(0, executor.shutdownNow().size());
+    }
+
+    @Test
+    public void testStreamingUsesOneStatementPerFlush() throws Exception {
+        objectLoader.setStreaming(executor, 2);
+        for(int i = 0; i < CUSTOMERS; i++) {
+            objectLoader.add(new Customer());
+        }
+        objectLoader.flush();
+        objectLoader.add(new Customer());
+        objectLoader.flush();
+
+        assertEquals(2, jdbcTemplate.getStatements().size());
+        assertEquals(expectedRows(1, CUSTOMERS), jdbcTemplate.getLoads().get(0));
+        assertEquals(expectedRows(CUSTOMERS + 1, CUSTOMERS + 1), jdbcTemplate.getLoads().get(1));
+    }
+
+    @Test
+    public void testStreamingRethrowsStatementError() throws Exception {
+        DataAccessResourceFailureException failure = new DataAccessResourceFailureException("connection lost");
+        jdbcTemplate.failWith(failure);
+        objectLoader.setStreaming(executor, 1);
+        try {
+            for(int i = 0; i < CUSTOMERS; i++) {
+                objectLoader.add(new Customer());
+            }
+            objectLoader.flush();
+            fail("Expected the statement error to be rethrown");
+        }
+        catch(DataAccessResourceFailureException e) {
+            assertSame(failure, e);
+        }
+    }
+
+    @Test
+    public void testFlushRethrowsBackgroundError() throws Exception {
+        DataAccessResourceFailureException failure = new DataAccessResourceFailureException("connection lost");
+        jdbcTemplate.failWith(failure);
+        objectLoader.setFlushExecutor(executor, 1);
+        objectLoader.add(new Customer());
+        try {
+            objectLoader.flush();
+            fail("Expected the background error to be rethrown");
+        }
+        catch(DataAccessResourceFailureException e) {
+            assertSame(failure, e);
+        }
+    }
+
+    @Test
+    public void testRowLargerThanInfileIsLoadedOnItsOwn() throws Exception {
+        // Ids from 10 up make rows of 5 bytes, which can never fit into the 4 byte infile buffer
+        SingleInfileObjectLoader<Customer> loader = new SingleInfileObjectLoaderBuilder<Customer>(Customer.class)
+                .withDefaultTableName()
+                .withJdbcTemplate(jdbcTemplate)
+                .usingHibernateBeanUtils(new CacheablePersistenceAnnotationInspector())
+                .withBuffer(new InfileDataBuffer(Charsets.UTF_8, 4, 4))
+                .withRowBufferSize(2, 16)
+                .build();
+        for(int i = 0; i < 12; i++) {
+            loader.add(new Customer());
+        }
+        loader.flush();
+
+        // One load per row, and the empty buffer left over at the end
+        assertEquals(13, jdbcTemplate.getLoads().size());
+        assertEquals("10\t\\N", jdbcTemplate.getLoads().get(9));
+        assertEquals(expectedRows(1, 12), Joiner.on('\n').join(jdbcTemplate.getLoads().subList(0, 12)));
+    }
+
+    @Test
+    public void testLanesLoadRowsRoundRobin() throws Exception {
+        ExecutorService laneExecutor = Executors.newCachedThreadPool();
+        List<RecordingJdbcTemplate> laneTemplates = newArrayList();
+        List<SingleInfileObjectLoader<Customer>> lanes = newArrayList();
+        for(int i = 0; i < 3; i++) {
+            RecordingJdbcTemplate laneTemplate = new RecordingJdbcTemplate();
+            SingleInfileObjectLoader<Customer> lane
+                    = objectLoader.newLane(laneTemplate, new InfileDataBuffer(Charsets.UTF_8, 64, 32));
+            lane.setFlushExecutor(laneExecutor, 1);
+            laneTemplates.add(laneTemplate);
+            lanes.add(lane);
+        }
+        objectLoader.setLanes(lanes);
+        try {
+            for(int i = 0; i < CUSTOMERS; i++) {
+                objectLoader.add(new Customer());
+            }
+            objectLoader.flush();
+        }
+        finally {
+            laneExecutor.shutdownNow();
+        }
+
+        assertTrue(jdbcTemplate.getLoads().isEmpty());
+        for(int i = 0; i < lanes.size(); i++) {
+            StringBuilder expected = new StringBuilder();
+            for(int id = i + 1; id <= CUSTOMERS; id += lanes.size()) {
+                expected.append(expected.length() > 0 ? "\n" : "").append(id).append("\t\\N");
+            }
+            assertEquals(expected.toString(), Joiner.on('\n').join(laneTemplates.get(i).getLoads()));
+        }
+        assertEquals(CUSTOMERS, objectLoader.getRowsLoaded());
+        assertTrue(objectLoader.getWarnings().isEmpty());
+    }
+
+    @Test
+    public void testFlushPolicyFlushesBeforeBufferIsFull() throws Exception {
+        objectLoader.setFlushPolicy(FlushPolicies.maxRows(5));
+        for(int i = 0; i < 12; i++) {
+            objectLoader.add(new Customer());
+        }
+        assertEquals(2, jdbcTemplate.getLoads().size());
+        objectLoader.flush();
+
+        assertEquals(expectedRows(1, 5), jdbcTemplate.getLoads().get(0));
+        assertEquals(expectedRows(6, 10), jdbcTemplate.getLoads().get(1));
+        assertEquals(expectedRows(11, 12), jdbcTemplate.getLoads().get(2));
+    }
+
+    @Test
+    public void testFlushIfDue() throws Exception {
+        final boolean[] due = new boolean[1];
+        objectLoader.setFlushPolicy(new FlushPolicy() {
+            @Override
+            public boolean shouldFlush(int rows, int bytes, long oldestRowMillis) {
+                return due[0];
+            }
+        });
+        assertFalse(objectLoader.flushIfDue());
+        objectLoader.add(new Customer());
+        assertFalse(objectLoader.flushIfDue());
+        due[0] = true;
+        assertTrue(objectLoader.flushIfDue());
+        assertFalse(objectLoader.flushIfDue());
+
+        assertEquals(expectedRows(1, 1), Joiner.on('\n').join(jdbcTemplate.getLoads()));
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        InMemoryLoaderMetrics metrics = new InMemoryLoaderMetrics();
+        objectLoader.setMetrics(metrics, "customer");
+        for(int i = 0; i < CUSTOMERS; i++) {
+            objectLoader.add(new Customer());
+        }
+        objectLoader.flush();
+
+        TableMetrics tableMetrics = metrics.getTableMetrics("customer");
+        int bytes = 0;
+        for(String load : jdbcTemplate.getLoads()) {
+            bytes += load.getBytes(Charsets.UTF_8).length;
+        }
+        assertEquals(CUSTOMERS, tableMetrics.getRowsEncoded());
+        assertEquals(CUSTOMERS, tableMetrics.getRowsLoaded());
+        assertEquals(bytes, tableMetrics.getBytesLoaded());
+        assertEquals(jdbcTemplate.getLoads().size(), tableMetrics.getFlushes());
+        assertEquals(jdbcTemplate.getLoads().size(), tableMetrics.getStatements());
+        assertTrue(tableMetrics.getFillPercent().getMax() <= 100);
+        assertTrue(tableMetrics.getFillPercent().getMax() > 50);
+    }
+
+    private static String expectedRows(int firstId, int lastId) {
+        StringBuilder expected = new StringBuilder();
+        for(int i = firstId; i <= lastId; i++) {
+            expected.append(i).append("\t\\N").append(i < lastId ? "\n" : "");
+        }
+        return expected.toString();
+    }
+}
@@ -17,7 +17,7 @@ import static junit.framework.Assert.*;
 public class IntHierarchicalInfileObjectLoaderTest extends AbstractIntTestForJPile {
     @Test
     public void testSingleCustomer() throws Exception {
-        SimpleDateFormat simpleDateFormat = new SimpleDateFormat("yyyy-MM-dd");
+        SimpleDateFormat simpleDateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
         Customer expected = ObjectFactory.newCustomer();
         hierarchicalInfileObjectLoader.persist(expected);
         hierarchicalInfileObjectLoader.flush();
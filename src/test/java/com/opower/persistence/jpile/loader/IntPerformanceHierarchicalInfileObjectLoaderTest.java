@@ -159,13 +159,13 @@ public class IntPerformanceHierarchicalInfileObjectLoaderTest extends AbstractIn
         runnable.run();
         long elapsed = System.nanoTime() - start;
         System.out.println(Strings.repeat("=", 100));
-        System.out.printf("Total time to save %d customers was %d seconds with %s.%n",
+        System.out.printf("Total time to save %d customers was %d ms with %s.%n",
                           CUSTOMER_TO_GENERATE,
-                          TimeUnit.NANOSECONDS.toSeconds(elapsed),
+                          TimeUnit.NANOSECONDS.toMillis(elapsed),
                           name);
-        System.out.printf("Throughput for %s was %d objects/second%n",
+        System.out.printf("Throughput for %s was %.0f objects/second%n",
                           name,
-                          CUSTOMER_TO_GENERATE / TimeUnit.NANOSECONDS.toSeconds(elapsed));
+                          CUSTOMER_TO_GENERATE / (elapsed / (double) TimeUnit.SECONDS.toNanos(1)));
         System.out.println(Strings.repeat("=", 100));
         System.out.println();
     }
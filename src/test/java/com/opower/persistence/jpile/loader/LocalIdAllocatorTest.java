@@ -0,0 +1,139 @@
+package com.opower.persistence.jpile.loader;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import static com.google.common.collect.Lists.*;
+import static com.google.common.collect.Sets.*;
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * @author amir.raminfar
+ */
+public class LocalIdAllocatorTest {
+
+    @Test
+    public void testCountsPerTable() throws Exception {
+        IdAllocator idAllocator = new LocalIdAllocator();
+        assertEquals(1, idAllocator.nextId("customer"));
+        assertEquals(2, idAllocator.nextId("customer"));
+        assertEquals(1, idAllocator.nextId("product"));
+    }
+
+    @Test
+    public void testSeedsFromHighestId() throws Exception {
+        JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+        when(jdbcTemplate.queryForList("SHOW KEYS FROM `customer` WHERE Key_name = 'PRIMARY'"))
+                .thenReturn(ImmutableList.<Map<String, Object>>of(
+                        ImmutableMap.<String, Object>of("Column_name", "id")));
+        when(jdbcTemplate.queryForLong("SELECT COALESCE(MAX(`id`), 0) FROM `customer`")).thenReturn(41L);
+
+        IdAllocator idAllocator = new LocalIdAllocator(jdbcTemplate);
+        assertEquals(42, idAllocator.nextId("customer"));
+        assertEquals(43, idAllocator.nextId("customer"));
+        verify(jdbcTemplate, times(1)).queryForLong(anyString());
+    }
+
+    @Test
+    public void testSharedAllocatorsCountTogether() throws Exception {
+        LocalIdAllocator.resetShared();
+        JdbcTemplate jdbcTemplate = mockSchema("jdbc:mysql://localhost/test", 10L);
+
+        IdAllocator first = LocalIdAllocator.shared(jdbcTemplate);
+        IdAllocator second = LocalIdAllocator.shared(jdbcTemplate);
+        assertEquals(11, first.nextId("customer"));
+        assertEquals(12, second.nextId("customer"));
+        assertEquals(13, first.nextId("customer"));
+        // Every allocator seeds a table once
+        verify(jdbcTemplate, times(2)).queryForLong(anyString());
+        LocalIdAllocator.resetShared();
+    }
+
+    @Test
+    public void testSharedAllocatorsCountPerSchema() throws Exception {
+        LocalIdAllocator.resetShared();
+        IdAllocator first = LocalIdAllocator.shared(mockSchema("jdbc:mysql://localhost/first", 100L));
+        IdAllocator second = LocalIdAllocator.shared(mockSchema("jdbc:mysql://localhost/second", 5L));
+        assertEquals(101, first.nextId("customer"));
+        assertEquals(6, second.nextId("customer"));
+        LocalIdAllocator.resetShared();
+    }
+
+    @Test
+    public void testSharedAllocatorsSeedAgainWithoutGoingBack() throws Exception {
+        LocalIdAllocator.resetShared();
+        IdAllocator running = LocalIdAllocator.shared(mockSchema("jdbc:mysql://localhost/test", 10L));
+        assertEquals(11, running.nextId("customer"));
+        assertEquals(12, running.nextId("customer"));
+
+        // Rows were added by other means, the next allocator skips them
+        IdAllocator next = LocalIdAllocator.shared(mockSchema("jdbc:mysql://localhost/test", 50L));
+        assertEquals(51, next.nextId("customer"));
+        assertEquals(52, running.nextId("customer"));
+
+        // Ids handed out but not loaded yet are not in the table, so they are not handed out again
+        IdAllocator last = LocalIdAllocator.shared(mockSchema("jdbc:mysql://localhost/test", 10L));
+        assertEquals(53, last.nextId("customer"));
+        LocalIdAllocator.resetShared();
+    }
+
+    @Test
+    public void testConcurrentIdsAreUnique() throws Exception {
+        final IdAllocator idAllocator = new LocalIdAllocator();
+        Set<Long> ids = allocateConcurrently(idAllocator, 4, 10000);
+        assertEquals(40000, ids.size());
+        assertEquals(1L, (long) Collections.min(ids));
+        assertEquals(40000L, (long) Collections.max(ids));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static JdbcTemplate mockSchema(String url, long maxId) {
+        JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+        when(jdbcTemplate.execute(any(ConnectionCallback.class))).thenReturn(url + "#");
+        when(jdbcTemplate.queryForList(anyString())).thenReturn(ImmutableList.<Map<String, Object>>of(
+                ImmutableMap.<String, Object>of("Column_name", "id")));
+        when(jdbcTemplate.queryForLong(anyString())).thenReturn(maxId);
+        return jdbcTemplate;
+    }
+
+    static Set<Long> allocateConcurrently(final IdAllocator idAllocator, int threads, final int idsPerThread)
+            throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<List<Long>>> futures = newArrayList();
+            for(int i = 0; i < threads; i++) {
+                futures.add(executor.submit(new Callable<List<Long>>() {
+                    @Override
+                    public List<Long> call() {
+                        List<Long> ids = newArrayList();
+                        for(int j = 0; j < idsPerThread; j++) {
+                            ids.add(idAllocator.nextId("customer"));
+                        }
+                        return ids;
+                    }
+                }));
+            }
+            Set<Long> ids = newHashSet();
+            for(Future<List<Long>> future : futures) {
+                ids.addAll(future.get());
+            }
+            return ids;
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.opower.persistence.jpile.loader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLong;
+import com.google.common.base.Throwables;
+import com.google.common.io.CountingInputStream;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.StatementCallback;
+
+/**
+ * A JdbcTemplate that stands in for MySQL when measuring throughput. Every infile stream is read to the end and checked
+ * against the column list of its statement: each row must have one field per column, and a backslash may only start
+ * <code>\\</code>, <code>\t</code>, <code>\n</code>, <code>\0</code> or a <code>\N</code> that makes up a whole
+ * field. Rows and bytes are counted, and each valid row is reported as loaded.
+ * <p>
+ * Unlike {@link RecordingJdbcTemplate} nothing is kept and no mocks are involved, so the cost of the sink stays small
+ * next to the cost of producing the rows. Instances of this class are safe for use by multiple threads.
+ *
+ * @author s-m
+ */
+public class LoopbackJdbcTemplate extends JdbcTemplate {
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final AtomicLong rows = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong statements = new AtomicLong();
+
+    @Override
+    public <T> T execute(StatementCallback<T> action) throws DataAccessException {
+        LoopbackStatement loopbackStatement = new LoopbackStatement();
+        com.mysql.jdbc.Statement statement = (com.mysql.jdbc.Statement) Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class[]{com.mysql.jdbc.Statement.class}, loopbackStatement);
+        try {
+            return action.doInStatement(statement);
+        }
+        catch(SQLException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * @return rows read from every infile stream so far
+     */
+    public long getRows() {
+        return rows.get();
+    }
+
+    /**
+     * @return bytes read from every infile stream so far
+     */
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    /**
+     * @return statements run so far, including those without an infile stream
+     */
+    public long getStatements() {
+        return statements.get();
+    }
+
+    /**
+     * Checks the rows of an infile stream.
+     *
+     * @param sql         the <code>LOAD DATA</code> statement, ending with its column list
+     * @param inputStream the rows
+     * @return the number of rows
+     * @throws IllegalStateException if a row does not match the column list or contains an invalid escape sequence
+     */
+    static int validate(String sql, InputStream inputStream) throws IOException {
+        int columns = 1;
+        for(int i = sql.lastIndexOf('('); i < sql.length(); i++) {
+            columns += sql.charAt(i) == ',' ? 1 : 0;
+        }
+        byte[] buffer = new byte[READ_BUFFER_SIZE];
+        int rowCount = 0;
+        int fields = 1;
+        int fieldLength = 0;
+        boolean nullField = false;
+        boolean escaped = false;
+        boolean empty = true;
+        for(int read = inputStream.read(buffer); read != -1; read = inputStream.read(buffer)) {
+            for(int i = 0; i < read; i++) {
+                byte b = buffer[i];
+                empty = false;
+                if(escaped) {
+                    escaped = false;
+                    if(b == 'N' && fieldLength == 1) {
+                        nullField = true;
+                    }
+                    else if(b != '\\' && b != 't' && b != 'n' && b != '0') {
+                        throw new IllegalStateException(
+                                String.format("Invalid escape sequence \\%c in row %d of %s", (char) b, rowCount, sql));
+                    }
+                    fieldLength++;
+                    continue;
+                }
+                if(b == '\t' || b == '\n') {
+                    checkNullField(nullField, fieldLength, rowCount, sql);
+                    fieldLength = 0;
+                    nullField = false;
+                    if(b == '\t') {
+                        fields++;
+                        continue;
+                    }
+                    checkFields(fields, columns, rowCount, sql);
+                    rowCount++;
+                    fields = 1;
+                    continue;
+                }
+                escaped = b == '\\';
+                fieldLength++;
+            }
+        }
+        if(escaped) {
+            throw new IllegalStateException("Stream ends inside an escape sequence: " + sql);
+        }
+        if(empty) {
+            return 0;
+        }
+        checkNullField(nullField, fieldLength, rowCount, sql);
+        checkFields(fields, columns, rowCount, sql);
+        return rowCount + 1;
+    }
+
+    private static void checkNullField(boolean nullField, int fieldLength, int row, String sql) {
+        if(nullField && fieldLength != 2) {
+            throw new IllegalStateException(String.format("\\N is not a whole field in row %d of %s", row, sql));
+        }
+    }
+
+    private static void checkFields(int fields, int columns, int row, String sql) {
+        if(fields != columns) {
+            throw new IllegalStateException(
+                    String.format("Row %d has %d fields instead of %d for %s", row, fields, columns, sql));
+        }
+    }
+
+    /**
+     * The few statement methods used by the loaders. Everything else returns a default value.
+     */
+    private class LoopbackStatement implements InvocationHandler {
+        private InputStream inputStream;
+        private int updateCount = -1;
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if(name.equals("setLocalInfileInputStream")) {
+                inputStream = (InputStream) args[0];
+            }
+            else if(name.equals("execute") && args.length == 1) {
+                statements.incrementAndGet();
+                if(inputStream != null) {
+                    CountingInputStream countingInputStream = new CountingInputStream(inputStream);
+                    updateCount = validate((String) args[0], countingInputStream);
+                    rows.addAndGet(updateCount);
+                    bytes.addAndGet(countingInputStream.getCount());
+                }
+                return false;
+            }
+            else if(name.equals("getUpdateCount")) {
+                return updateCount;
+            }
+            else if(method.getReturnType() == boolean.class) {
+                return false;
+            }
+            else if(method.getReturnType() == int.class) {
+                return 0;
+            }
+            else if(method.getReturnType() == long.class) {
+                return 0L;
+            }
+            return null;
+        }
+    }
+}
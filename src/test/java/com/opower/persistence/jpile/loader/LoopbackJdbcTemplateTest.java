@@ -0,0 +1,59 @@
+package com.opower.persistence.jpile.loader;
+
+import java.io.ByteArrayInputStream;
+import com.google.common.base.Charsets;
+import com.opower.persistence.jpile.sample.WorkloadGenerator;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author s-m
+ */
+public class LoopbackJdbcTemplateTest {
+    private static final String SQL = "LOAD DATA LOCAL INFILE 'stream' INTO TABLE product (id, title, price)";
+
+    @Test
+    public void testGeneratedWorkloadIsLoaded() throws Exception {
+        LoopbackJdbcTemplate jdbcTemplate = new LoopbackJdbcTemplate();
+        WorkloadGenerator generator = new WorkloadGenerator(1)
+                .withProductsPerCustomer(3)
+                .withStringLength(40)
+                .withSpecialCharacterRatio(0.1);
+        HierarchicalInfileObjectLoader objectLoader = new HierarchicalInfileObjectLoader();
+        objectLoader.setIdAllocator(new LocalIdAllocator());
+        objectLoader.setJdbcTemplate(jdbcTemplate);
+        for(int i = 0; i < 100; i++) {
+            objectLoader.persist(generator.newCustomer());
+        }
+        objectLoader.close();
+
+        assertEquals(100 * generator.getRowsPerCustomer(), jdbcTemplate.getRows());
+        assertTrue(jdbcTemplate.getBytes() > 100 * 3 * 2 * 40);
+    }
+
+    @Test
+    public void testValidRows() throws Exception {
+        assertEquals(0, validate(""));
+        assertEquals(2, validate("1\ta\\tb\\\\\t\\N\n2\t\\n\\0\t1.00"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testMissingFieldIsRejected() throws Exception {
+        validate("1\ta\t1.00\n2\tb");
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testInvalidEscapeIsRejected() throws Exception {
+        validate("1\ta\\x\t1.00");
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testNullInsideFieldIsRejected() throws Exception {
+        validate("1\ta\\N\t1.00");
+    }
+
+    private static int validate(String rows) throws Exception {
+        return LoopbackJdbcTemplate.validate(SQL, new ByteArrayInputStream(rows.getBytes(Charsets.UTF_8)));
+    }
+}
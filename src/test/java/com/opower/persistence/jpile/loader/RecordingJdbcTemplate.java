@@ -0,0 +1,119 @@
+package com.opower.persistence.jpile.loader;
+
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import com.google.common.base.Charsets;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.StatementCallback;
+
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * A JdbcTemplate that runs statement callbacks against a mock MySQL statement and records the SQL and the contents of
+ * every infile stream instead of talking to a database. Every line of a stream is reported as an updated row, and id
+ * allocators see empty tables keyed by an {@code id} column, all in one schema.
+ *
+ * @author amir.raminfar
+ */
+public class RecordingJdbcTemplate extends JdbcTemplate {
+    private final List<String> statements = Collections.synchronizedList(Lists.<String>newArrayList());
+    private final List<String> loads = Collections.synchronizedList(Lists.<String>newArrayList());
+    private volatile RuntimeException failure;
+
+    @Override
+    public <T> T execute(StatementCallback<T> action) throws DataAccessException {
+        if(failure != null) {
+            throw failure;
+        }
+        final InputStream[] inputStream = new InputStream[1];
+        final int[] rows = new int[1];
+        com.mysql.jdbc.Statement statement = mock(com.mysql.jdbc.Statement.class);
+        try {
+            doAnswer(new Answer<Void>() {
+                @Override
+                public Void answer(InvocationOnMock invocation) {
+                    inputStream[0] = (InputStream) invocation.getArguments()[0];
+                    return null;
+                }
+            }).when(statement).setLocalInfileInputStream(any(InputStream.class));
+            when(statement.execute(anyString())).thenAnswer(new Answer<Boolean>() {
+                @Override
+                public Boolean answer(InvocationOnMock invocation) throws Throwable {
+                    statements.add((String) invocation.getArguments()[0]);
+                    if(inputStream[0] != null) {
+                        String load = new String(ByteStreams.toByteArray(inputStream[0]), Charsets.UTF_8);
+                        loads.add(load);
+                        rows[0] = load.isEmpty() ? 0 : load.split("\n", -1).length;
+                    }
+                    return false;
+                }
+            });
+            when(statement.getUpdateCount()).thenAnswer(new Answer<Integer>() {
+                @Override
+                public Integer answer(InvocationOnMock invocation) {
+                    return rows[0];
+                }
+            });
+            return action.doInStatement(statement);
+        }
+        catch(SQLException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    @Override
+    public <T> T execute(ConnectionCallback<T> action) throws DataAccessException {
+        Connection connection = mock(Connection.class);
+        try {
+            DatabaseMetaData metaData = mock(DatabaseMetaData.class);
+            when(metaData.getURL()).thenReturn("jdbc:mysql://localhost/recording");
+            when(connection.getMetaData()).thenReturn(metaData);
+            return action.doInConnection(connection);
+        }
+        catch(SQLException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    @Override
+    public List<Map<String, Object>> queryForList(String sql) {
+        return ImmutableList.<Map<String, Object>>of(ImmutableMap.<String, Object>of("Column_name", "id"));
+    }
+
+    @Override
+    public long queryForLong(String sql) {
+        return 0;
+    }
+
+    /**
+     * Makes every following statement fail.
+     *
+     * @param failure to throw
+     */
+    public void failWith(RuntimeException failure) {
+        this.failure = failure;
+    }
+
+    public List<String> getStatements() {
+        return statements;
+    }
+
+    public List<String> getLoads() {
+        return loads;
+    }
+}
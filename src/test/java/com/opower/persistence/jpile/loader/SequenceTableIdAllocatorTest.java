@@ -0,0 +1,55 @@
+package com.opower.persistence.jpile.loader;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import static com.google.common.collect.Lists.*;
+import static org.junit.Assert.*;
+
+/**
+ * @author amir.raminfar
+ */
+public class SequenceTableIdAllocatorTest {
+
+    @Test
+    public void testHandsOutBlocksInOrder() throws Exception {
+        FakeSequenceTableIdAllocator idAllocator = new FakeSequenceTableIdAllocator(3, 100);
+        List<Long> ids = newArrayList();
+        for(int i = 0; i < 7; i++) {
+            ids.add(idAllocator.nextId("customer"));
+        }
+        assertEquals(ImmutableList.of(100L, 101L, 102L, 103L, 104L, 105L, 106L), ids);
+        assertEquals(3, idAllocator.reservations.get());
+    }
+
+    @Test
+    public void testConcurrentIdsAreUnique() throws Exception {
+        FakeSequenceTableIdAllocator idAllocator = new FakeSequenceTableIdAllocator(64, 1);
+        Set<Long> ids = LocalIdAllocatorTest.allocateConcurrently(idAllocator, 4, 10000);
+        assertEquals(40000, ids.size());
+        // No block is reserved twice, and no block is left unused before the next one
+        assertEquals((40000 + 63) / 64, idAllocator.reservations.get());
+    }
+
+    /**
+     * Reserves blocks from a counter instead of the database
+     */
+    private static class FakeSequenceTableIdAllocator extends SequenceTableIdAllocator {
+        private final AtomicLong nextFreeId;
+        private final AtomicLong reservations = new AtomicLong();
+
+        FakeSequenceTableIdAllocator(int blockSize, long firstId) {
+            super(null, blockSize);
+            this.nextFreeId = new AtomicLong(firstId);
+        }
+
+        @Override
+        protected long reserveBlock(String tableName, int size) {
+            reservations.incrementAndGet();
+            return nextFreeId.addAndGet(size);
+        }
+    }
+}
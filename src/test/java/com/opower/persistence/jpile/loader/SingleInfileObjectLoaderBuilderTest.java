@@ -1,14 +1,31 @@
 package com.opower.persistence.jpile.loader;
 
 import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import javax.persistence.Column;
+import javax.persistence.Embeddable;
+import javax.persistence.Embedded;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.io.CharStreams;
 import com.opower.persistence.jpile.infile.InfileDataBuffer;
+import com.opower.persistence.jpile.infile.InfileRow;
 import com.opower.persistence.jpile.infile.InfileStatementCallback;
 import com.opower.persistence.jpile.reflection.CacheablePersistenceAnnotationInspector;
 import com.opower.persistence.jpile.sample.Customer;
+import com.opower.persistence.jpile.sample.Product;
+import com.opower.persistence.jpile.sample.WorkloadGenerator;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -31,6 +48,8 @@ public class SingleInfileObjectLoaderBuilderTest {
 
     @Before
     public void setUp() throws Exception {
+        when(jdbcTemplate.queryForList(anyString())).thenReturn(ImmutableList.<Map<String, Object>>of(
+                ImmutableMap.<String, Object>of("Column_name", "id")));
         objectLoader = new SingleInfileObjectLoaderBuilder<Customer>(Customer.class)
                 .withDefaultTableName()
                 .withJdbcTemplate(jdbcTemplate)
@@ -57,6 +76,14 @@ public class SingleInfileObjectLoaderBuilderTest {
         ));
     }
 
+    @Test
+    public void testGeneratedIdsContinueFromHighestId() throws Exception {
+        when(jdbcTemplate.queryForLong("SELECT COALESCE(MAX(`id`), 0) FROM `customer`")).thenReturn(41L);
+        Customer customer = new Customer();
+        objectLoader.add(customer);
+        assertEquals(42L, customer.getId().longValue());
+    }
+
     @Test
     public void testFlush() throws Exception {
         Customer customer = new Customer();
@@ -64,4 +91,188 @@ public class SingleInfileObjectLoaderBuilderTest {
         objectLoader.flush();
         verify(jdbcTemplate).execute(any(InfileStatementCallback.class));
     }
+
+    @Test
+    public void testAddingProductWritesCustomerId() throws Exception {
+        SingleInfileObjectLoader<Product> productLoader = newObjectLoader(Product.class);
+        Customer customer = new Customer();
+        customer.setId(7L);
+        Product product = new Product();
+        product.setCustomer(customer);
+        product.setTitle("tv");
+        product.setPrice(new BigDecimal("9.99"));
+        productLoader.add(product);
+        assertEquals("customer_id, description, id, price, purchased_on, title",
+                     productLoader.getLoadInfileSql().replaceAll(".*\\((.*)\\)", "$1"));
+        assertEquals("7\t\\N\t1\t9.99\t\\N\ttv", contents(productLoader));
+    }
+
+    @Test
+    public void testAddingEmbeddedColumns() throws Exception {
+        SingleInfileObjectLoader<Store> storeLoader = newObjectLoader(Store.class);
+        Store store = new Store();
+        storeLoader.add(store);
+        store = new Store();
+        store.setAddress(new Address());
+        store.getAddress().setStreet("Main St");
+        store.getAddress().setZip(22209);
+        storeLoader.add(store);
+        assertEquals("1\t\\N\t\\N\n2\tMain St\t22209", contents(storeLoader));
+    }
+
+    @Test
+    public void testUsingGeneratedEntityMapper() throws Exception {
+        SingleInfileObjectLoader<Product> productLoader = newObjectLoader(Product.class);
+        assertEquals(Product.class.getName() + EntityMapper.CLASS_NAME_SUFFIX,
+                     productLoader.entityMapper.getClass().getName());
+        assertEquals(Customer.class.getName() + EntityMapper.CLASS_NAME_SUFFIX,
+                     objectLoader.entityMapper.getClass().getName());
+        // Nested classes and classes with embedded objects are written through reflection
+        assertNull(newObjectLoader(Store.class).entityMapper);
+
+        SingleInfileObjectLoader<Product> reflectionLoader = newObjectLoader(Product.class);
+        reflectionLoader.entityMapper = null;
+        WorkloadGenerator workloadGenerator = new WorkloadGenerator(1).withSpecialCharacterRatio(0.1);
+        long customerId = 1;
+        for(Customer customer : workloadGenerator.newCustomers(10)) {
+            customer.setId(customerId++);
+            for(Product product : customer.getProducts()) {
+                productLoader.add(product);
+                product.setId(null);
+                reflectionLoader.add(product);
+            }
+        }
+        assertEquals(reflectionLoader.getLoadInfileSql(), productLoader.getLoadInfileSql());
+        assertEquals(contents(reflectionLoader), contents(productLoader));
+    }
+
+    @Test
+    public void testEntityMapperWithOtherColumnTypesIsNotUsed() throws Exception {
+        SingleInfileObjectLoader<Visit> visitLoader = newObjectLoader(Visit.class);
+        assertNull(visitLoader.entityMapper);
+        Visit visit = new Visit();
+        visit.setSeenOn(new Date(0));
+        visitLoader.add(visit);
+        assertTrue(contents(visitLoader).matches("1\t19(69|70)-\\d\\d-\\d\\d"));
+    }
+
+    private <T> SingleInfileObjectLoader<T> newObjectLoader(Class<T> aClass) {
+        return new SingleInfileObjectLoaderBuilder<T>(aClass)
+                .withDefaultTableName()
+                .withJdbcTemplate(jdbcTemplate)
+                .usingHibernateBeanUtils(new CacheablePersistenceAnnotationInspector())
+                .withBuffer(new InfileDataBuffer())
+                .build();
+    }
+
+    private static String contents(SingleInfileObjectLoader<?> loader) throws Exception {
+        return CharStreams.toString(new InputStreamReader(loader.getInfileDataBuffer().asInputStream()));
+    }
+
+    @Entity
+    @Table(name = "store")
+    public static class Store {
+        private Long id;
+        private Address address;
+
+        @Id
+        @GeneratedValue(strategy = GenerationType.AUTO)
+        public Long getId() {
+            return id;
+        }
+
+        public void setId(Long id) {
+            this.id = id;
+        }
+
+        @Embedded
+        public Address getAddress() {
+            return address;
+        }
+
+        public void setAddress(Address address) {
+            this.address = address;
+        }
+    }
+
+    @Entity
+    @Table(name = "visit")
+    public static class Visit {
+        private Long id;
+        private Date seenOn;
+
+        @Id
+        @GeneratedValue(strategy = GenerationType.AUTO)
+        public Long getId() {
+            return id;
+        }
+
+        public void setId(Long id) {
+            this.id = id;
+        }
+
+        @Column(name = "seen_on")
+        @Temporal(TemporalType.DATE)
+        public Date getSeenOn() {
+            return seenOn;
+        }
+
+        public void setSeenOn(Date seenOn) {
+            this.seenOn = seenOn;
+        }
+    }
+
+    /**
+     * Stands for a mapper generated while {@link Visit#getSeenOn()} was still a timestamp.
+     */
+    public static class Visit_EntityMapper implements EntityMapper<Visit> {
+        @Override
+        public String getTableName() {
+            return "visit";
+        }
+
+        @Override
+        public List<String> getColumns() {
+            return ImmutableList.of("id", "seen_on");
+        }
+
+        @Override
+        public List<String> getColumnTypes() {
+            return ImmutableList.of("java.lang.Long", "java.util.Date@TIMESTAMP");
+        }
+
+        @Override
+        public String getLoadInfileSql() {
+            return "LOAD DATA LOCAL INFILE 'stdin' INTO TABLE `visit` (id, seen_on)";
+        }
+
+        @Override
+        public void writeRow(Visit entity, InfileRow infileRow) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    @Embeddable
+    public static class Address {
+        private String street;
+        private Integer zip;
+
+        @Column(name = "street")
+        public String getStreet() {
+            return street;
+        }
+
+        public void setStreet(String street) {
+            this.street = street;
+        }
+
+        @Column(name = "zip")
+        public Integer getZip() {
+            return zip;
+        }
+
+        public void setZip(Integer zip) {
+            this.zip = zip;
+        }
+    }
 }
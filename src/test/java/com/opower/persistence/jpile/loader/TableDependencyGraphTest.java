@@ -0,0 +1,56 @@
+package com.opower.persistence.jpile.loader;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author amir.raminfar
+ */
+public class TableDependencyGraphTest {
+
+    @Test
+    public void testWavesFlushReferencedTablesFirst() throws Exception {
+        TableDependencyGraph graph = new TableDependencyGraph();
+        graph.addReference("contact_phone", "contact");
+        graph.addReference("product", "customer");
+        graph.addReference("contact", "customer");
+        graph.addTable("audit");
+
+        assertFalse(graph.hasCycle());
+        assertEquals(ImmutableList.of(ImmutableList.of("customer", "audit"),
+                                      ImmutableList.of("contact", "product"),
+                                      ImmutableList.of("contact_phone")),
+                     graph.waves());
+        assertEquals(ImmutableList.of("customer", "contact"), graph.dependenciesOf("contact_phone"));
+        assertTrue(graph.dependenciesOf("audit").isEmpty());
+    }
+
+    @Test
+    public void testTableReferencingItselfIsNotACycle() throws Exception {
+        TableDependencyGraph graph = new TableDependencyGraph();
+        graph.addReference("category", "category");
+
+        assertFalse(graph.hasCycle());
+        assertEquals(ImmutableList.of(ImmutableList.of("category")), graph.waves());
+    }
+
+    @Test
+    public void testCycleIsReported() throws Exception {
+        TableDependencyGraph graph = new TableDependencyGraph();
+        graph.addReference("customer", "product");
+        graph.addReference("product", "contact");
+        graph.addReference("contact", "customer");
+        graph.addReference("contact_phone", "contact");
+
+        assertTrue(graph.hasCycle());
+        try {
+            graph.waves();
+            fail("Expected the cycle to be reported");
+        }
+        catch(IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().endsWith("customer -> product -> contact -> customer"));
+        }
+    }
+}
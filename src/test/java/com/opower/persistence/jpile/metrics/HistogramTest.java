@@ -0,0 +1,71 @@
+package com.opower.persistence.jpile.metrics;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author s-m
+ */
+public class HistogramTest {
+    private Histogram histogram = new Histogram();
+
+    @Test
+    public void testBucketsCoverEveryValue() {
+        long previousUpperBound = -1;
+        for(int bucket = 0; bucket <= Histogram.bucketOf(Long.MAX_VALUE); bucket++) {
+            long upperBound = Histogram.upperBoundOf(bucket);
+            assertTrue(upperBound > previousUpperBound);
+            assertEquals(bucket, Histogram.bucketOf(previousUpperBound + 1));
+            assertEquals(bucket, Histogram.bucketOf(upperBound));
+            previousUpperBound = upperBound;
+        }
+        assertEquals(Long.MAX_VALUE, previousUpperBound);
+    }
+
+    @Test
+    public void testPercentiles() {
+        for(int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500500, histogram.getSum());
+        assertEquals(500.5, histogram.getMean(), 0.0001);
+        assertEquals(1000, histogram.getMax());
+        assertEquals(1, histogram.getPercentile(0));
+        long median = histogram.getPercentile(0.5);
+        assertTrue(String.valueOf(median), median >= 500 && median < 625);
+        long p99 = histogram.getPercentile(0.99);
+        assertTrue(String.valueOf(p99), p99 >= 990 && p99 <= 1000);
+    }
+
+    @Test
+    public void testNegativeValuesAreRecordedAsZero() {
+        histogram.record(-5);
+        assertEquals(0, histogram.getPercentile(1));
+        assertEquals(0, histogram.getSum());
+    }
+
+    @Test
+    public void testConcurrentRecords() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        for(int t = 0; t < 4; t++) {
+            executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    for(int i = 0; i < 10000; i++) {
+                        histogram.record(i);
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(40000, histogram.getCount());
+        assertEquals(4L * 9999 * 10000 / 2, histogram.getSum());
+        assertEquals(9999, histogram.getMax());
+    }
+}
@@ -0,0 +1,74 @@
+package com.opower.persistence.jpile.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author s-m
+ */
+public class JmxLoaderMetricsTest {
+    private MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+
+    @Test
+    public void testTablesAreExported() throws Exception {
+        JmxLoaderMetrics metrics = new JmxLoaderMetrics(mBeanServer, JmxLoaderMetrics.DEFAULT_DOMAIN);
+        ObjectName name = metrics.objectName("customer");
+        try {
+            metrics.rowEncoded("customer", 1000);
+            metrics.rowEncoded("customer", 3000);
+            metrics.bufferFlushed("customer", 25, 100);
+            metrics.loaded("customer", 2, 25, TimeUnit.MILLISECONDS.toNanos(3), 1);
+
+            assertTrue(mBeanServer.isRegistered(name));
+            assertEquals("customer", mBeanServer.getAttribute(name, "TableName"));
+            assertEquals(2L, mBeanServer.getAttribute(name, "RowsEncoded"));
+            assertEquals(2L, mBeanServer.getAttribute(name, "RowsLoaded"));
+            assertEquals(25L, mBeanServer.getAttribute(name, "BytesLoaded"));
+            assertEquals(1L, mBeanServer.getAttribute(name, "Flushes"));
+            assertEquals(1L, mBeanServer.getAttribute(name, "Warnings"));
+            assertEquals(2.0, (Double) mBeanServer.getAttribute(name, "EncodeMicrosMean"), 0.0001);
+            assertEquals(3000L, mBeanServer.getAttribute(name, "LoadMicrosMax"));
+            assertEquals(25.0, (Double) mBeanServer.getAttribute(name, "FillPercentMean"), 0.0001);
+        }
+        finally {
+            metrics.close();
+        }
+        assertFalse(mBeanServer.isRegistered(name));
+    }
+
+    @Test
+    public void testTableExportedTwiceIsSkipped() throws Exception {
+        JmxLoaderMetrics first = new JmxLoaderMetrics(mBeanServer, JmxLoaderMetrics.DEFAULT_DOMAIN);
+        JmxLoaderMetrics second = new JmxLoaderMetrics(mBeanServer, JmxLoaderMetrics.DEFAULT_DOMAIN);
+        ObjectName name = first.objectName("customer");
+        try {
+            first.rowEncoded("customer", 1000);
+            second.rowEncoded("customer", 1000);
+            second.rowEncoded("customer", 1000);
+            assertEquals(1L, mBeanServer.getAttribute(name, "RowsEncoded"));
+            assertEquals(2L, second.getTableMetrics("customer").getRowsEncoded());
+        }
+        finally {
+            second.close();
+            assertTrue(mBeanServer.isRegistered(name));
+            first.close();
+        }
+        assertFalse(mBeanServer.isRegistered(name));
+    }
+
+    @Test
+    public void testCloseUnregistersEveryTable() throws Exception {
+        JmxLoaderMetrics metrics = new JmxLoaderMetrics(mBeanServer, JmxLoaderMetrics.DEFAULT_DOMAIN);
+        metrics.rowEncoded("customer", 1000);
+        metrics.rowEncoded("product", 1000);
+        // Someone else unregistered one of them already
+        mBeanServer.unregisterMBean(metrics.objectName("customer"));
+        metrics.close();
+        assertFalse(mBeanServer.isRegistered(metrics.objectName("product")));
+    }
+}
@@ -39,6 +39,15 @@ public class CacheablePersistenceAnnotationInspectorTest {
         assertEquals("site_location", persistenceAnnotationInspector.secondaryTable(Site.class));
     }*/
 
+    @Test
+    public void testIdValue() throws Exception {
+        Customer customer = new Customer();
+        assertNull(persistenceAnnotationInspector.getIdValue(customer));
+        persistenceAnnotationInspector.setIdValue(customer, 5L);
+        assertEquals(5L, persistenceAnnotationInspector.getIdValue(customer));
+        assertNull(persistenceAnnotationInspector.getIdValue("not an entity"));
+    }
+
     @Test
     public void testIdGetter() throws Exception {
         assertEquals("getId", persistenceAnnotationInspector.idGetter(Customer.class).getName());
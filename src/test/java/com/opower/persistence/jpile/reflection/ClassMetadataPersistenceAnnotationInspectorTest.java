@@ -0,0 +1,68 @@
+package com.opower.persistence.jpile.reflection;
+
+import javax.persistence.SecondaryTables;
+import com.opower.persistence.jpile.sample.Contact;
+import com.opower.persistence.jpile.sample.Customer;
+import com.opower.persistence.jpile.sample.Product;
+import org.junit.Test;
+
+import static com.google.common.collect.ImmutableList.*;
+import static org.junit.Assert.*;
+
+/**
+ * @author amir.raminfar
+ */
+public class ClassMetadataPersistenceAnnotationInspectorTest {
+    private ClassMetadataPersistenceAnnotationInspector inspector = new ClassMetadataPersistenceAnnotationInspector();
+
+    @Test
+    public void testMetadataIsResolvedOnce() throws Exception {
+        EntityMetadata metadata = inspector.metadata(Customer.class);
+        assertSame(metadata, inspector.metadata(Customer.class));
+        assertTrue(metadata.hasTable());
+        assertEquals("customer", metadata.getTableName());
+        assertEquals("getId", metadata.getIdGetter().getName());
+    }
+
+    @Test
+    public void testClassQueriesMatchCacheableInspector() throws Exception {
+        PersistenceAnnotationInspector cacheable = new CacheablePersistenceAnnotationInspector();
+        for(Class<?> aClass : of(Customer.class, Product.class, Contact.class)) {
+            assertEquals(cacheable.hasTableAnnotation(aClass), inspector.hasTableAnnotation(aClass));
+            assertEquals(cacheable.tableName(aClass), inspector.tableName(aClass));
+            assertEquals(cacheable.secondaryTable(aClass), inspector.secondaryTable(aClass));
+            assertEquals(cacheable.findSecondaryTables(aClass), inspector.findSecondaryTables(aClass));
+            assertEquals(cacheable.idGetter(aClass), inspector.idGetter(aClass));
+        }
+        assertEquals(copyOf(Contact.class.getAnnotation(SecondaryTables.class).value()),
+                     inspector.findSecondaryTables(Contact.class));
+    }
+
+    @Test
+    public void testClassWithoutTable() throws Exception {
+        assertFalse(inspector.hasTableAnnotation(String.class));
+        assertNull(inspector.getIdValue("not an entity"));
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testTableNameOfClassWithoutTable() throws Exception {
+        inspector.tableName(String.class);
+    }
+
+    @Test
+    public void testIdValue() throws Exception {
+        Customer customer = new Customer();
+        assertNull(inspector.getIdValue(customer));
+        inspector.setIdValue(customer, 5L);
+        assertEquals(5L, customer.getId().longValue());
+        assertEquals(5L, inspector.getIdValue(customer));
+    }
+
+    @Test
+    public void testStaticIdHelpersDispatchToInspector() throws Exception {
+        Customer customer = new Customer();
+        CacheablePersistenceAnnotationInspector.setIdValue(inspector, customer, 7L);
+        assertEquals(7L, CacheablePersistenceAnnotationInspector.getIdValue(inspector, customer));
+        assertSame(inspector.metadata(Customer.class).getIdProperty(), inspector.idProperty(Customer.class));
+    }
+}
@@ -0,0 +1,91 @@
+package com.opower.persistence.jpile.reflection;
+
+import java.lang.reflect.Method;
+import com.opower.persistence.jpile.sample.Customer;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author amir.raminfar
+ */
+public class PropertyAccessorsTest {
+
+    @Test
+    public void testPublicGetter() throws Exception {
+        Method getter = Customer.class.getMethod("getId");
+        Customer customer = new Customer();
+        customer.setId(42L);
+
+        PropertyAccessor accessor = PropertyAccessors.forGetter(getter);
+        assertEquals(42L, accessor.get(customer));
+        assertEquals(getter, accessor.getMethod());
+        assertEquals(PropertyAccessors.reflectionAccessor(getter).get(customer), accessor.get(customer));
+    }
+
+    @Test
+    public void testNonPublicClassFallsBackToReflection() throws Exception {
+        PropertyAccessor accessor = PropertyAccessors.forGetter(Hidden.class.getDeclaredMethod("getName"));
+        assertEquals("hidden", accessor.get(new Hidden()));
+    }
+
+    @Test
+    public void testExceptionIsPropagated() throws Exception {
+        PropertyAccessor accessor = PropertyAccessors.forGetter(Failing.class.getMethod("getName"));
+        try {
+            accessor.get(new Failing());
+            fail("Expected the getter's exception");
+        }
+        catch(RuntimeException e) {
+            assertTrue(e.getCause().getCause() instanceof IllegalStateException);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMethodWithParameters() throws Exception {
+        PropertyAccessors.forGetter(Customer.class.getMethod("setId", Long.class));
+    }
+
+    @Test
+    public void testPublicSetter() throws Exception {
+        Method setter = Customer.class.getMethod("setId", Long.class);
+        Customer customer = new Customer();
+
+        PropertySetter propertySetter = PropertyAccessors.forSetter(setter);
+        propertySetter.set(customer, 42L);
+        assertEquals(42L, customer.getId().longValue());
+        assertEquals(setter, propertySetter.getMethod());
+        PropertyAccessors.reflectionSetter(setter).set(customer, 43L);
+        assertEquals(43L, customer.getId().longValue());
+    }
+
+    @Test
+    public void testNonPublicSetterFallsBackToReflection() throws Exception {
+        Hidden hidden = new Hidden();
+        PropertyAccessors.forSetter(Hidden.class.getDeclaredMethod("setName", String.class)).set(hidden, "set");
+        assertEquals("set", hidden.name);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetterWithoutParameter() throws Exception {
+        PropertyAccessors.forSetter(Customer.class.getMethod("getId"));
+    }
+
+    private static class Hidden {
+        private String name = "hidden";
+
+        private String getName() {
+            return name;
+        }
+
+        private void setName(String name) {
+            this.name = name;
+        }
+    }
+
+    public static class Failing {
+        public String getName() {
+            throw new IllegalStateException("broken getter");
+        }
+    }
+}
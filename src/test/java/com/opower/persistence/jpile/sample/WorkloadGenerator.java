@@ -0,0 +1,131 @@
+package com.opower.persistence.jpile.sample;
+
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import com.google.common.base.Preconditions;
+
+import static com.google.common.collect.Lists.*;
+
+/**
+ * Builds customers like {@link ObjectFactory} does, with a configurable shape: how many products each customer fans
+ * out to, whether it has a contact (which also fills the <code>contact_phone</code> secondary table), how long the
+ * strings are and how often they contain characters that have to be escaped. The sample model is two levels deep, so
+ * depth is not configurable. Values come from a seeded random, so the same generator settings always build the same
+ * workload.
+ * <p>
+ * Instances of this class are not safe for use by multiple threads.
+ *
+ * @author s-m
+ */
+public class WorkloadGenerator {
+    // Characters that the infile format escapes
+    private static final char[] SPECIAL_CHARACTERS = {'\t', '\n', '\\', '\0'};
+
+    private final Random random;
+    private int productsPerCustomer = 4;
+    private boolean contacts = true;
+    private int stringLength = 24;
+    private double specialCharacterRatio = 0;
+
+    /**
+     * @param seed for the random values
+     */
+    public WorkloadGenerator(long seed) {
+        this.random = new Random(seed);
+    }
+
+    public WorkloadGenerator withProductsPerCustomer(int productsPerCustomer) {
+        Preconditions.checkArgument(productsPerCustomer >= 0, "productsPerCustomer cannot be negative");
+        this.productsPerCustomer = productsPerCustomer;
+        return this;
+    }
+
+    public WorkloadGenerator withContacts(boolean contacts) {
+        this.contacts = contacts;
+        return this;
+    }
+
+    public WorkloadGenerator withStringLength(int stringLength) {
+        Preconditions.checkArgument(stringLength >= 0, "stringLength cannot be negative");
+        this.stringLength = stringLength;
+        return this;
+    }
+
+    /**
+     * @param specialCharacterRatio fraction of string characters that are tabs, newlines, backslashes or zero bytes
+     * @return this generator
+     */
+    public WorkloadGenerator withSpecialCharacterRatio(double specialCharacterRatio) {
+        Preconditions.checkArgument(specialCharacterRatio >= 0 && specialCharacterRatio <= 1,
+                                    "specialCharacterRatio must be between 0 and 1");
+        this.specialCharacterRatio = specialCharacterRatio;
+        return this;
+    }
+
+    /**
+     * @return number of rows, over every table, that one customer is saved as
+     */
+    public int getRowsPerCustomer() {
+        // The contact is saved to contact and contact_phone
+        return 1 + this.productsPerCustomer + (this.contacts ? 2 : 0);
+    }
+
+    public List<Customer> newCustomers(int count) {
+        List<Customer> customers = newArrayListWithCapacity(count);
+        for(int i = 0; i < count; i++) {
+            customers.add(this.newCustomer());
+        }
+        return customers;
+    }
+
+    public Customer newCustomer() {
+        Customer customer = new Customer();
+        if(this.contacts) {
+            customer.setContact(this.newContact());
+        }
+        customer.setLastSeenOn(this.newDate());
+        List<Product> products = newArrayListWithCapacity(this.productsPerCustomer);
+        for(int i = 0; i < this.productsPerCustomer; i++) {
+            products.add(this.newProduct());
+        }
+        customer.setProducts(products);
+        return customer;
+    }
+
+    public Contact newContact() {
+        Contact contact = new Contact();
+        contact.setFirstName(this.newString());
+        contact.setLastName(this.newString());
+        contact.setPhone(String.valueOf(1000000000L + this.random.nextInt(Integer.MAX_VALUE)));
+        return contact;
+    }
+
+    public Product newProduct() {
+        Product product = new Product();
+        product.setDescription(this.newString());
+        product.setPrice(BigDecimal.valueOf(this.random.nextInt(100000), 2));
+        product.setPurchasedOn(this.newDate());
+        product.setTitle(this.newString());
+        return product;
+    }
+
+    private Date newDate() {
+        // Within a year of the start of 2012
+        return new Date(1325376000000L + (long) (this.random.nextDouble() * 365 * 24 * 60 * 60 * 1000));
+    }
+
+    private String newString() {
+        char[] chars = new char[this.stringLength];
+        for(int i = 0; i < chars.length; i++) {
+            if(this.specialCharacterRatio > 0 && this.random.nextDouble() < this.specialCharacterRatio) {
+                chars[i] = SPECIAL_CHARACTERS[this.random.nextInt(SPECIAL_CHARACTERS.length)];
+            }
+            else {
+                chars[i] = (char) ('a' + this.random.nextInt(26));
+            }
+        }
+        return new String(chars);
+    }
+}